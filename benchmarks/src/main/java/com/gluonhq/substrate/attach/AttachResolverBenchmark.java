@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2019, Gluon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL GLUON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gluonhq.substrate.attach;
+
+import com.gluonhq.substrate.benchmarks.SyntheticInputs;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Discovery of the Attach services on a classpath like the one of a mobile app: a few
+ * Attach jars between many other jars.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AttachResolverBenchmark {
+
+    @Param({"20"})
+    public int attachJars;
+
+    @Param({"150"})
+    public int otherJars;
+
+    @Param({"60"})
+    public int classesPerJar;
+
+    private Path root;
+    private List<Path> classpath;
+    private Path emptyIndex;
+    private Path index;
+
+    @Setup
+    public void setup() throws IOException {
+        root = Files.createTempDirectory("substrate-bench");
+        classpath = new ArrayList<>();
+        for (int i = 0; i < otherJars; i++) {
+            List<String> classes = new ArrayList<>();
+            for (int c = 0; c < classesPerJar; c++) {
+                classes.add("org/example/lib" + i + "/Class" + c);
+            }
+            classpath.add(SyntheticInputs.writeJar(root.resolve("libs").resolve("lib" + i + ".jar"), classes));
+        }
+        for (int i = 0; i < attachJars; i++) {
+            String service = "service" + i;
+            List<String> classes = new ArrayList<>();
+            classes.add("com/gluonhq/attach/" + service + "/Service" + i + "Service");
+            classes.add("com/gluonhq/attach/" + service + "/impl/Android" + i + "Service");
+            classes.add("com/gluonhq/attach/" + service + "/impl/Dummy" + i + "Service");
+            classes.add("com/gluonhq/attach/" + service + "/impl/Default" + i + "Service");
+            for (int c = classes.size(); c < classesPerJar; c++) {
+                classes.add("com/gluonhq/attach/" + service + "/impl/Helper" + c);
+            }
+            Path jar = root.resolve("m2").resolve(AttachResolver.DEPENDENCY_M2_GROUP)
+                    .resolve(service).resolve("4.0.0").resolve(service + "-4.0.0-android.jar");
+            // the Attach jars are spread over the classpath
+            classpath.add(i * classpath.size() / attachJars, SyntheticInputs.writeJar(jar, classes));
+        }
+        emptyIndex = root.resolve("empty-index.properties");
+        index = root.resolve("index.properties");
+        AttachResolver.attachServices(classpath, index);
+    }
+
+    @Setup(Level.Invocation)
+    public void clearIndex() throws IOException {
+        Files.deleteIfExists(emptyIndex);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        SyntheticInputs.delete(root);
+    }
+
+    @Benchmark
+    public List<String> attachServicesScan() {
+        return AttachResolver.attachServices(classpath, emptyIndex);
+    }
+
+    @Benchmark
+    public List<String> attachServicesIndexed() {
+        return AttachResolver.attachServices(classpath, index);
+    }
+}
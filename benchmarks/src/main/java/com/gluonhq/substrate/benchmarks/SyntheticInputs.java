@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2019, Gluon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL GLUON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gluonhq.substrate.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Creates the synthetic inputs of the benchmarks. Contents are random but seeded, so every
+ * run of a benchmark works on the same bytes.
+ */
+public class SyntheticInputs {
+
+    private static final int CHUNK = 64 * 1024;
+
+    /**
+     * Writes a file of pseudo-random bytes. Static libraries hardly compress, so neither does this.
+     * @param file the file to write
+     * @param size its size in bytes
+     * @param seed the seed of the contents
+     * @return the file
+     * @throws IOException
+     */
+    public static Path writeFile(Path file, long size, long seed) throws IOException {
+        Files.createDirectories(file.getParent());
+        Random random = new Random(seed);
+        byte[] buffer = new byte[CHUNK];
+        try (OutputStream os = Files.newOutputStream(file)) {
+            for (long written = 0; written < size; written += CHUNK) {
+                random.nextBytes(buffer);
+                os.write(buffer, 0, (int) Math.min(CHUNK, size - written));
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Writes a zip like the static SDK zips: a <code>lib</code> folder with a few large libraries.
+     * @param zip the zip file to write
+     * @param files the number of libraries
+     * @param fileSize the size of each library
+     * @return the zip file
+     * @throws IOException
+     */
+    public static Path writeSdkZip(Path zip, int files, long fileSize) throws IOException {
+        Files.createDirectories(zip.getParent());
+        Random random = new Random(files);
+        byte[] buffer = new byte[CHUNK];
+        try (ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(zip))) {
+            zos.putNextEntry(new ZipEntry("lib/"));
+            zos.closeEntry();
+            for (int i = 0; i < files; i++) {
+                zos.putNextEntry(new ZipEntry("lib/lib" + i + ".a"));
+                for (long written = 0; written < fileSize; written += CHUNK) {
+                    random.nextBytes(buffer);
+                    zos.write(buffer, 0, (int) Math.min(CHUNK, fileSize - written));
+                }
+                zos.closeEntry();
+            }
+        }
+        return zip;
+    }
+
+    /**
+     * Writes a jar with the provided (empty) class entries.
+     * @param jar the jar file to write
+     * @param classNames the names of the classes, e.g. <code>com/example/Foo</code>
+     * @return the jar file
+     * @throws IOException
+     */
+    public static Path writeJar(Path jar, List<String> classNames) throws IOException {
+        Files.createDirectories(jar.getParent());
+        byte[] content = new byte[512];
+        try (ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(jar))) {
+            zos.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+            zos.write("Manifest-Version: 1.0\n".getBytes());
+            zos.closeEntry();
+            for (String className : classNames) {
+                zos.putNextEntry(new ZipEntry(className + ".class"));
+                zos.write(content);
+                zos.closeEntry();
+            }
+        }
+        return jar;
+    }
+
+    /**
+     * Creates a directory tree like the one native-image leaves in its temp directory.
+     * @param root the root of the tree
+     * @param width the number of subdirectories of each directory
+     * @param depth the number of directory levels
+     * @param filesPerDir the number of small files in each directory
+     * @return all the files that were created
+     * @throws IOException
+     */
+    public static List<Path> writeTree(Path root, int width, int depth, int filesPerDir) throws IOException {
+        List<Path> files = new ArrayList<>();
+        writeTree(root, width, depth, filesPerDir, files);
+        return files;
+    }
+
+    private static void writeTree(Path dir, int width, int depth, int filesPerDir, List<Path> files) throws IOException {
+        Files.createDirectories(dir);
+        byte[] content = new byte[256];
+        for (int i = 0; i < filesPerDir; i++) {
+            Path file = dir.resolve("file" + i + ".bin");
+            Files.write(file, content);
+            files.add(file);
+        }
+        if (depth > 1) {
+            for (int i = 0; i < width; i++) {
+                writeTree(dir.resolve("dir" + i), width, depth - 1, filesPerDir, files);
+            }
+        }
+    }
+
+    /**
+     * Writes the C sources of a program with many small functions, like a native image: a third of
+     * them are never called, and a third are identical to another one.
+     * @param dir the directory to write <code>main.c</code> and <code>functions.c</code> to
+     * @param functions the number of functions
+     * @return the source files
+     * @throws IOException
+     */
+    public static List<Path> writeCProgram(Path dir, int functions) throws IOException {
+        Files.createDirectories(dir);
+        StringBuilder declarations = new StringBuilder();
+        StringBuilder definitions = new StringBuilder("#include <stdint.h>\n\n");
+        StringBuilder calls = new StringBuilder();
+        for (int i = 0; i < functions; i++) {
+            // functions 3k+1 have the same body as 3k, so they can be folded
+            int body = i % 3 == 1 ? i - 1 : i;
+            declarations.append("int64_t f").append(i).append("(int64_t x);\n");
+            if (body == i) {
+                definitions.append("static const int64_t table").append(i).append("[] = {")
+                        .append(body).append(", ").append(body * 7).append(", ").append(body * 13).append("};\n");
+            }
+            definitions.append("int64_t f").append(i).append("(int64_t x) {\n")
+                    .append("    int64_t r = x;\n")
+                    .append("    for (int i = 0; i < 3; i++) { r = r * ").append(body % 97 + 3)
+                    .append(" + table").append(body).append("[i] + (r >> 3); }\n")
+                    .append("    return r ^ ").append(body).append(";\n}\n");
+            if (i % 3 != 2) {
+                calls.append("    r += f").append(i).append("(r);\n");
+            }
+        }
+        Path main = dir.resolve("main.c");
+        Files.write(main, ("#include <stdint.h>\n#include <stdio.h>\n\n" + declarations +
+                "\nint main(int argc, char** argv) {\n    int64_t r = argc;\n" + calls +
+                "    printf(\"%lld\\n\", (long long) r);\n    return 0;\n}\n").getBytes());
+        Path definitionsFile = dir.resolve("functions.c");
+        Files.write(definitionsFile, definitions.toString().getBytes());
+        return List.of(main, definitionsFile);
+    }
+
+    /**
+     * Writes a stand-in for the objectfile of a native image with a pool entry point: isolates are
+     * thread locals, and the entry point hashes the work unit <code>rounds</code> times.
+     * @param dir the directory to write <code>image.c</code> to
+     * @param entryPoint the name of the entry point
+     * @param rounds the work per unit
+     * @return the source file
+     * @throws IOException
+     */
+    public static Path writeIsolateImage(Path dir, String entryPoint, int rounds) throws IOException {
+        Files.createDirectories(dir);
+        Path image = dir.resolve("image.c");
+        Files.write(image, ("typedef struct __graal_isolate_t graal_isolate_t;\n" +
+                "typedef struct __graal_isolatethread_t graal_isolatethread_t;\n" +
+                "static __thread long isolate;\n\n" +
+                "int graal_create_isolate(void* params, graal_isolate_t** i, graal_isolatethread_t** t) {\n" +
+                "    *i = (graal_isolate_t*) &isolate;\n    *t = (graal_isolatethread_t*) &isolate;\n    return 0;\n}\n\n" +
+                "int graal_tear_down_isolate(graal_isolatethread_t* t) {\n    return 0;\n}\n\n" +
+                "int " + entryPoint + "(graal_isolatethread_t* t, char* unit, int length) {\n" +
+                "    volatile unsigned long h = 0;\n" +
+                "    for (int i = 0; i < " + rounds + "; i++) {\n" +
+                "        h = h * 31 + (length > 0 ? unit[i % length] : i);\n    }\n" +
+                "    return (int) (h & 0x7f);\n}\n").getBytes());
+        return image;
+    }
+
+    /**
+     * Deletes a directory tree, for the tear down of a benchmark.
+     * @param root the root of the tree
+     * @throws IOException
+     */
+    public static void delete(Path root) throws IOException {
+        if (Files.exists(root)) {
+            try (Stream<Path> paths = Files.walk(root)) {
+                paths.sorted((a, b) -> b.getNameCount() - a.getNameCount())
+                        .forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+}
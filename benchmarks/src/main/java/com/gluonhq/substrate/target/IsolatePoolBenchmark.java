@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2019, Gluon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL GLUON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gluonhq.substrate.target;
+
+import com.gluonhq.substrate.benchmarks.SyntheticInputs;
+import com.gluonhq.substrate.model.ProjectConfiguration;
+import com.gluonhq.substrate.util.ProcessRunner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the isolate pool launcher, in work units per second, for several pool sizes.
+ * The launcher is generated from the pool template and linked with a stand-in image, so it measures
+ * the dispatch of the work units over the worker threads rather than the code of an application.
+ *
+ * The stand-in <code>graal_create_isolate</code> doesn't create an isolate: the workers share the heap
+ * of the process, and there is no isolate startup, heap or garbage collection. The numbers are the
+ * upper bound of the dispatch, not the throughput of a real image, which needs a native-image build.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class IsolatePoolBenchmark {
+
+    private static final int UNITS = 20_000;
+
+    @Param({"1", "2", "4", "8"})
+    public int poolSize;
+
+    // hash rounds per work unit: from dispatch bound to compute bound
+    @Param({"100", "10000"})
+    public int rounds;
+
+    private Path root;
+    private Path binary;
+    private Path input;
+
+    @Setup
+    public void setup() throws IOException, InterruptedException {
+        ProjectConfiguration config = new ProjectConfiguration();
+        config.setIsolatePoolSize(poolSize);
+        LinuxTargetConfiguration target = new LinuxTargetConfiguration();
+        root = Files.createTempDirectory("substrate-bench");
+        Path pool = root.resolve(AbstractTargetConfiguration.POOL_SOURCE);
+        Files.write(pool, target.generatePoolLauncher(config.getIsolatePoolEntryPoint(), poolSize).getBytes());
+        Path image = SyntheticInputs.writeIsolateImage(root, config.getIsolatePoolEntryPoint(), rounds);
+        binary = root.resolve("pool");
+        // the launcher is compiled with the flags of the launcher sources, then linked with the image
+        String object = root.resolve("pool.o").toString();
+        ProcessRunner compile = new ProcessRunner("gcc", "-O2");
+        compile.addArgs(target.getAdditionalSourcesFlags(config));
+        compile.addArgs(List.of("-o", object, pool.toString()));
+        ProcessRunner link = new ProcessRunner("gcc", "-O2", "-o", binary.toString(), object, image.toString(), "-lpthread");
+        if (compile.runProcess("compile") != 0 || link.runProcess("link") != 0) {
+            compile.printResponses();
+            link.printResponses();
+            throw new IllegalStateException("Building the isolate pool failed");
+        }
+        List<String> lines = new ArrayList<>(UNITS);
+        for (int i = 0; i < UNITS; i++) {
+            lines.add("work unit " + i);
+        }
+        input = Files.write(root.resolve("units.txt"), lines);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (root != null) {
+            SyntheticInputs.delete(root);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(UNITS)
+    public int handle() throws IOException, InterruptedException {
+        Process process = new ProcessBuilder(binary.toString())
+                .redirectInput(input.toFile())
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        int result = process.waitFor();
+        if (result != 0) {
+            throw new IllegalStateException("The isolate pool failed with exit code " + result);
+        }
+        return result;
+    }
+}
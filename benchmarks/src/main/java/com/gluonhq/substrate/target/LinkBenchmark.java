@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2019, Gluon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL GLUON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gluonhq.substrate.target;
+
+import com.gluonhq.substrate.benchmarks.SyntheticInputs;
+import com.gluonhq.substrate.model.ProjectConfiguration;
+import com.gluonhq.substrate.util.ProcessRunner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Link time of every combination of linker and link optimizations, on a synthetic program with
+ * unused and identical functions. The size of each binary is appended to
+ * <code>build/reports/jmh/link-sizes.csv</code>, as JMH only reports times.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LinkBenchmark {
+
+    @Param({"default", "bfd", "gold", "lld", "mold"})
+    public String linker;
+
+    @Param({"false", "true"})
+    public boolean gcSections;
+
+    @Param({"false", "true"})
+    public boolean icf;
+
+    @Param({"false", "true"})
+    public boolean lto;
+
+    @Param({"20000"})
+    public int functions;
+
+    private Path root;
+    private Path binary;
+    private List<String> linkCommand;
+
+    @Setup
+    public void setup() throws IOException, InterruptedException {
+        ProjectConfiguration config = new ProjectConfiguration();
+        config.setLinker("default".equals(linker) ? null : linker);
+        config.setLinkGcSections(gcSections);
+        config.setLinkIdenticalCodeFolding(icf);
+        config.setLinkTimeOptimization(lto);
+        if (config.getLinker() != null && !AbstractTargetConfiguration.isLinkerAvailable(linker)) {
+            throw new IllegalStateException("The " + linker + " linker is not installed");
+        }
+        if (icf && (config.getLinker() == null || "bfd".equals(linker))) {
+            throw new IllegalStateException("The " + linker + " linker can't fold identical code");
+        }
+        LinuxTargetConfiguration target = new LinuxTargetConfiguration();
+        root = Files.createTempDirectory("substrate-bench");
+        binary = root.resolve("app");
+        List<String> objects = new ArrayList<>();
+        for (Path source : SyntheticInputs.writeCProgram(root, functions)) {
+            // the same flags the launcher sources are compiled with
+            ProcessRunner compile = new ProcessRunner("gcc", "-O2");
+            compile.addArgs(target.getAdditionalSourcesFlags(config));
+            String object = source.toString().replace(".c", ".o");
+            compile.addArgs(List.of("-o", object, source.toString()));
+            if (compile.runProcess("compile") != 0) {
+                compile.printResponses();
+                throw new IllegalStateException("Compiling " + source + " failed");
+            }
+            objects.add(object);
+        }
+        linkCommand = new ArrayList<>(List.of("gcc", "-O2", "-o", binary.toString()));
+        linkCommand.addAll(objects);
+        linkCommand.addAll(target.getLinkerFlags(config));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (binary != null && Files.exists(binary)) {
+            Path sizes = Path.of(System.getProperty("user.dir"), "build", "reports", "jmh", "link-sizes.csv");
+            Files.createDirectories(sizes.getParent());
+            String line = linker + "," + gcSections + "," + icf + "," + lto + "," + Files.size(binary) + "\n";
+            Files.write(sizes, line.getBytes(), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            System.out.println("Binary size: " + Files.size(binary) + " bytes");
+        }
+        if (root != null) {
+            SyntheticInputs.delete(root);
+        }
+    }
+
+    @Benchmark
+    public int link() throws IOException, InterruptedException {
+        ProcessRunner runner = new ProcessRunner(linkCommand.toArray(new String[0]));
+        int result = runner.runProcess("link");
+        if (result != 0) {
+            runner.printResponses();
+            throw new IllegalStateException("Linking failed");
+        }
+        return result;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2019, Gluon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL GLUON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gluonhq.substrate.util;
+
+import com.gluonhq.substrate.benchmarks.SyntheticInputs;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Extraction and verification of the static SDKs, on a synthetic SDK of the size of the Java static SDK.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FileDepsBenchmark {
+
+    @Param({"4"})
+    public int libraries;
+
+    @Param({"16777216"})
+    public long librarySize;
+
+    private Path root;
+    private Path zip;
+    private Path extracted;
+    private Path manifestFile;
+    private Path currentManifestFile;
+    private byte[] staleManifest;
+    private List<String> names;
+
+    @Setup
+    public void setup() throws IOException {
+        root = Files.createTempDirectory("substrate-bench");
+        zip = SyntheticInputs.writeSdkZip(root.resolve("sdk.zip"), libraries, librarySize);
+        extracted = root.resolve("sdk");
+        manifestFile = root.resolve("sdk.manifest");
+        currentManifestFile = root.resolve("sdk-current.manifest");
+        DependencyManifest manifest = new DependencyManifest(manifestFile);
+        try (InputStream is = Files.newInputStream(zip)) {
+            FileDeps.extractZip(is, extracted, manifest);
+        }
+        Path lib = extracted.resolve("lib");
+        try (Stream<Path> files = Files.list(lib)) {
+            names = files.map(p -> p.getFileName().toString()).sorted().collect(Collectors.toList());
+        }
+        // a manifest that records other modification times, so every file has to be hashed
+        for (String name : names) {
+            Path file = lib.resolve(name);
+            Files.setLastModifiedTime(file, FileTime.fromMillis(1_000_000_000_000L));
+            manifest.add(file, DependencyManifest.hash(file));
+        }
+        manifest.write();
+        staleManifest = Files.readAllBytes(manifestFile);
+        // and one that matches, so no file has to be read
+        DependencyManifest current = new DependencyManifest(currentManifestFile);
+        for (String name : names) {
+            Path file = lib.resolve(name);
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            current.add(file, DependencyManifest.hash(file));
+        }
+        current.write();
+    }
+
+    @Setup(Level.Invocation)
+    public void restoreStaleManifest() throws IOException {
+        Files.write(manifestFile, staleManifest);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        SyntheticInputs.delete(root);
+    }
+
+    @Benchmark
+    public DependencyManifest extractZip() throws IOException {
+        Path dir = root.resolve("extract");
+        DependencyManifest manifest = new DependencyManifest(root.resolve("extract.manifest"));
+        try (InputStream is = Files.newInputStream(zip)) {
+            FileDeps.extractZip(is, dir, manifest);
+        }
+        return manifest;
+    }
+
+    @Benchmark
+    public boolean verifyRehash() throws IOException {
+        return DependencyManifest.read(manifestFile).verify(extracted.resolve("lib"), names);
+    }
+
+    @Benchmark
+    public boolean verifyTrusted() throws IOException {
+        return DependencyManifest.read(currentManifestFile).verify(extracted.resolve("lib"), names);
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2019, Gluon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL GLUON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gluonhq.substrate.util;
+
+import com.gluonhq.substrate.benchmarks.SyntheticInputs;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * File system helpers, on trees shaped like the gvm folder after a native-image run.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FileOpsBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class SearchTree {
+
+        // 585 directories with 9360 files
+        @Param({"8"})
+        public int width;
+
+        @Param({"4"})
+        public int depth;
+
+        @Param({"16"})
+        public int filesPerDir;
+
+        Path root;
+        String target;
+
+        @Setup
+        public void setup() throws IOException {
+            root = Files.createTempDirectory("substrate-bench");
+            SyntheticInputs.writeTree(root.resolve("tmp"), width, depth, filesPerDir);
+            // the objectfile is usually found at the end of the walk
+            Path objectFile = root.resolve("tmp").resolve("dir" + (width - 1)).resolve("main.o");
+            Files.write(objectFile, new byte[256]);
+            target = objectFile.getFileName().toString();
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            SyntheticInputs.delete(root);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class DeleteTree {
+
+        @Param({"6"})
+        public int width;
+
+        @Param({"3"})
+        public int depth;
+
+        @Param({"20"})
+        public int filesPerDir;
+
+        Path root;
+
+        @Setup(Level.Invocation)
+        public void setup() throws IOException {
+            root = Files.createTempDirectory("substrate-bench");
+            SyntheticInputs.writeTree(root.resolve("tmp"), width, depth, filesPerDir);
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown() throws IOException {
+            SyntheticInputs.delete(root);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class CopyTarget {
+
+        Path root;
+
+        @Setup
+        public void setup() throws IOException {
+            root = Files.createTempDirectory("substrate-bench");
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            SyntheticInputs.delete(root);
+        }
+    }
+
+    @Benchmark
+    public Path findFile(SearchTree tree) throws IOException {
+        return FileOps.findFile(tree.root, tree.target, Integer.MAX_VALUE, null);
+    }
+
+    @Benchmark
+    public Path findFileFollowingLinks(SearchTree tree) throws IOException {
+        return FileOps.findFile(tree.root, tree.target);
+    }
+
+    @Benchmark
+    public void rmdir(DeleteTree tree) throws IOException {
+        FileOps.rmdir(tree.root.resolve("tmp"));
+    }
+
+    @Benchmark
+    public Path copyResource(CopyTarget copy) throws IOException {
+        return FileOps.copyResource("/native/linux/launcher.c", copy.root.resolve("launcher.c"));
+    }
+}
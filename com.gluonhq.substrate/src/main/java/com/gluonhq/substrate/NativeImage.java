@@ -1,6 +1,7 @@
 package com.gluonhq.substrate;
 
-import java.io.File;
+import com.gluonhq.substrate.util.ProcessRunner;
+
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.List;
@@ -14,9 +15,8 @@ public class NativeImage {
     }
 
     public int compile(String graalVMRoot, String classPath, String mainClass) {
-        ProcessBuilder pb = new ProcessBuilder();
-        List<String> command = pb.command();
-        command.add(getNativeImageExecutable(graalVMRoot).toString());
+        ProcessRunner runner = new ProcessRunner(getNativeImageExecutable(graalVMRoot).toString());
+        List<String> command = runner.getCmdList();
         command.add("-cp");
         command.add(classPath);
         addJNIParameters (command);
@@ -24,10 +24,7 @@ public class NativeImage {
         command.add(mainClass);
         int exitStatus = 1;
         try {
-            pb.redirectError(new File("/tmp/error"));
-            pb.redirectOutput(new File("/tmp/output"));
-            Process p = pb.start();
-            exitStatus = p.waitFor();
+            exitStatus = runner.runProcess("native-image");
             System.err.println("ExitStatus = "+exitStatus);
         } catch (IOException | InterruptedException e) {
             e.printStackTrace();
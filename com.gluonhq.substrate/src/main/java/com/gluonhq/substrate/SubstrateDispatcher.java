@@ -30,36 +30,369 @@ package com.gluonhq.substrate;
 import com.gluonhq.substrate.model.ProcessPaths;
 import com.gluonhq.substrate.model.ProjectConfiguration;
 import com.gluonhq.substrate.model.Triplet;
+import com.gluonhq.substrate.target.AbstractTargetConfiguration;
 import com.gluonhq.substrate.target.DarwinTargetConfiguration;
 import com.gluonhq.substrate.target.LinuxTargetConfiguration;
 import com.gluonhq.substrate.target.TargetConfiguration;
+import com.gluonhq.substrate.util.BackgroundTask;
+import com.gluonhq.substrate.util.BuildMetrics;
+import com.gluonhq.substrate.util.ClassInitAdvisor;
+import com.gluonhq.substrate.util.ConfigGenerator;
+import com.gluonhq.substrate.util.DependencyManifest;
 import com.gluonhq.substrate.util.FileDeps;
+import com.gluonhq.substrate.util.FileOps;
 import com.gluonhq.substrate.util.Logger;
+import com.gluonhq.substrate.util.NativeProcess;
+import com.gluonhq.substrate.util.OutputVerifier;
+import com.gluonhq.substrate.util.StartupBenchmark;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class SubstrateDispatcher {
 
+    private static final String PGO_PATH = "pgo";
+    private static final String PROFILE_FILE = "default.iprof";
+    private static final String PROFILE_STAMP = "profile.properties";
+    private static final long BENCHMARK_TIMEOUT_MILLIS = 60_000;
+
+    /**
+     * The properties that {@link #build(Properties)} reads. The daemon client forwards all of them
+     */
+    public static final List<String> BUILD_PROPERTIES = List.of(
+            "imagecp", "graalvm", "mainclass", "appname", "buildroot", "verbose",
+            "expected", "expectedtimeout", "runtimeargs",
+            "linker", "gcsections", "icf", "lto",
+            "sharedlib", "isolatepool", "isolatepoolentry",
+            "pgo", "pgoargs", "pgoworkdir",
+            "benchmark", "benchmarkwarmup", "benchmarkjvm",
+            "initadvisor", "delayinit",
+            "reflection", "jni", "resources", "bundles", "agent", "agentargs");
+
     private static Path omegaPath;
     private static Path gvmPath;
 
+    // dependency setup started by nativeCompile, to be joined by nativeLink of the same build root and target.
+    // The daemon creates a new configuration for every request, so the configuration can't be the key
+    private static final Map<String, BackgroundTask<Boolean>> dependenciesTasks = new ConcurrentHashMap<>();
+
     public static void main(String[] args) throws Exception {
-        String classPath = System.getProperty("imagecp");
-        String graalVM = System.getProperty("graalvm");
-        String mainClass = System.getProperty("mainclass");
-        String appName = System.getProperty("appname");
-        String expected = System.getProperty("expected");
+        if (!build(System.getProperties())) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Compiles, links and runs the application described by the provided properties
+     * (<code>imagecp</code>, <code>graalvm</code>, <code>mainclass</code>, <code>appname</code>,
+     * <code>expected</code> and <code>buildroot</code>). The application checked against <code>expected</code>
+     * is stopped after <code>expectedtimeout</code> ms, 5 minutes by default. With <code>pgo=true</code> the image is
+     * optimized with a profile, see {@link #buildWithProfile(Properties)}. With <code>benchmark=N</code>
+     * its startup is measured instead of running it once.
+     * @param properties the properties of the build
+     * @return false if compiling or linking failed, or the output doesn't match the <code>expected</code> file
+     * @throws Exception
+     */
+    public static boolean build(Properties properties) throws Exception {
+        String classPath = properties.getProperty("imagecp");
+        String expected = properties.getProperty("expected");
         if (classPath == null || classPath.isEmpty()) {
             printUsage();
             throw new IllegalArgumentException("No classpath specified. Use -Dimagecp=/path/to/classes");
         }
+        if (Boolean.parseBoolean(properties.getProperty("pgo"))) {
+            return buildWithProfile(properties);
+        }
+        ProjectConfiguration config = createConfiguration(properties);
+        Triplet targetTriplet = config.getTargetTriplet();
+        String appName = config.getAppName();
+        TargetConfiguration targetConfiguration = getTargetConfiguration(targetTriplet);
+        ProcessPaths paths = new ProcessPaths(getBuildRoot(properties), targetTriplet.getArchOs());
+        if (config.isUseAgentConfig()) {
+            String agentArgs = properties.getProperty("agentargs", "").trim();
+            System.err.println("Recording the configuration with native-image-agent...");
+            if (!ConfigGenerator.runAgent(paths.getGenPath(), config, classPath,
+                    agentArgs.isEmpty() ? List.of() : Arrays.asList(agentArgs.split("\\s+")))) {
+                return false;
+            }
+        }
+        if (!compileAndLink(targetConfiguration, paths, config, classPath)) {
+            return false;
+        }
+        if (config.isSharedLibrary()) {
+            // there is nothing to run, the library is loaded by its host
+            return true;
+        }
+        if (config.getIsolatePoolSize() > 0) {
+            System.err.println("Built the isolate pool " + paths.getAppPath().resolve(appName) +
+                    ", it handles the lines from stdin, or from a Unix socket with --socket <path>");
+            return true;
+        }
+        if (Boolean.parseBoolean(properties.getProperty("initadvisor"))) {
+            return adviseClassInit(properties, targetConfiguration, paths, config, classPath);
+        }
+        if (properties.getProperty("benchmark") != null) {
+            return benchmarkStartup(properties, config, paths, classPath);
+        }
+        System.err.println("Running...");
+        if (expected != null) {
+            long timeout = Long.parseLong(properties.getProperty("expectedtimeout",
+                    String.valueOf(OutputVerifier.DEFAULT_TIMEOUT_MILLIS)));
+            NativeProcess process = targetConfiguration.createProcess(paths.getAppPath(), appName, List.of(), null);
+            OutputVerifier.Result result = OutputVerifier.verify(appName, process, Path.of(expected), timeout);
+            System.err.println(result);
+            return result.matches();
+        } else {
+            targetConfiguration.runUntilEnd(paths.getAppPath(), appName);
+        }
+        return true;
+    }
+
+    /**
+     * Measures the startup of the binary: it runs <code>benchmark</code> times after
+     * <code>benchmarkwarmup</code> (default 3) warmup runs. With <code>benchmarkjvm=true</code> the main
+     * class is measured on the JVM of the GraalVM installation as well.
+     * The results are written to the log folder, see {@link StartupBenchmark}.
+     * @return false if a run failed
+     */
+    private static boolean benchmarkStartup(Properties properties, ProjectConfiguration config, ProcessPaths paths,
+            String classPath) throws IOException, InterruptedException {
+        int runs = Integer.parseInt(properties.getProperty("benchmark"));
+        int warmup = Integer.parseInt(properties.getProperty("benchmarkwarmup", "3"));
+        StartupBenchmark benchmark = new StartupBenchmark(warmup, runs, BENCHMARK_TIMEOUT_MILLIS);
+        System.err.println("Measuring startup, " + runs + " runs after " + warmup + " warmup runs...");
+        List<StartupBenchmark.Result> results = new ArrayList<>();
+        try {
+            BuildMetrics.time("startup-benchmark", () -> {
+                results.add(benchmark.measure("native",
+                        List.of(paths.getAppPath().resolve(config.getAppName()).toString()), paths.getAppPath()));
+                if (Boolean.parseBoolean(properties.getProperty("benchmarkjvm"))) {
+                    results.add(benchmark.measure("jvm", StartupBenchmark.jvmCommand(config.getGraalPath(), classPath,
+                            config.getMainClassName()), paths.getAppPath()));
+                }
+                return null;
+            });
+        } catch (IOException e) {
+            System.err.println("Startup benchmark failed: " + e.getMessage());
+            return false;
+        }
+        results.forEach(System.err::println);
+        benchmark.writeReport(paths.getLogPath(), results);
+        return true;
+    }
+
+    /**
+     * Proposes the classes to initialize at build time with {@link ClassInitAdvisor}, and applies them:
+     * the image is built again with these classes in the <code>buildInitList</code>. The startup of both
+     * images is measured like with <code>benchmark</code> (default 10 runs), and reported with the advice
+     * in the log folder.
+     * @return false if a build or a run failed
+     */
+    private static boolean adviseClassInit(Properties properties, TargetConfiguration targetConfiguration,
+            ProcessPaths paths, ProjectConfiguration config, String classPath) throws Exception {
+        int runs = Integer.parseInt(properties.getProperty("benchmark", "10"));
+        int warmup = Integer.parseInt(properties.getProperty("benchmarkwarmup", "3"));
+        StartupBenchmark benchmark = new StartupBenchmark(warmup, runs, BENCHMARK_TIMEOUT_MILLIS);
+        List<String> command = List.of(paths.getAppPath().resolve(config.getAppName()).toString());
+        System.err.println("Measuring startup before class initialization advice...");
+        StartupBenchmark.Result before = benchmark.measure("before", command, paths.getAppPath());
+
+        System.err.println("Recording class initialization on the JVM...");
+        ClassInitAdvisor.Advice advice = BuildMetrics.time("class-init-advice", () -> {
+            List<String> initialized = ClassInitAdvisor.recordInitializedClasses(config.getGraalPath(), classPath,
+                    config.getMainClassName(), paths.getAppPath(), BENCHMARK_TIMEOUT_MILLIS);
+            return new ClassInitAdvisor(classPath).advise(initialized, config.getDelayInitList());
+        });
+        System.err.println(advice);
+        if (advice.getBuildTime().isEmpty()) {
+            ClassInitAdvisor.writeReport(paths.getLogPath(), advice, before.getExitMicros(50), -1);
+            System.err.println("No class can be initialized at build time, the image is unchanged");
+            return true;
+        }
+
+        List<String> buildInit = new ArrayList<>(advice.getBuildTime());
+        if (config.getBuildInitList() != null) {
+            buildInit.addAll(0, config.getBuildInitList());
+        }
+        config.setBuildInitList(buildInit);
+        System.err.println("Building the image with " + advice.getBuildTime().size() + " classes initialized at build time...");
+        if (!compileAndLink(targetConfiguration, paths, config, classPath)) {
+            System.err.println("The image could not be built with the advice, see " + paths.getLogPath() +
+                    ". Move the classes it reports to the delayInitList and try again");
+            return false;
+        }
+        StartupBenchmark.Result after = benchmark.measure("after", command, paths.getAppPath());
+        System.err.println(before);
+        System.err.println(after);
+        System.err.println("Median startup: " + before.getExitMicros(50) + " us before, " +
+                after.getExitMicros(50) + " us after");
+        benchmark.writeReport(paths.getLogPath(), List.of(before, after));
+        ClassInitAdvisor.writeReport(paths.getLogPath(), advice, before.getExitMicros(50), after.getExitMicros(50));
+        return true;
+    }
+
+    /**
+     * Builds an image optimized with a profile of the application, in three steps:
+     * <ol>
+     *     <li>an instrumented image is built (<code>--pgo-instrument</code>) in <code>buildroot/pgo/instrumented</code></li>
+     *     <li>the instrumented image runs the workload: the application with the <code>pgoargs</code>
+     *     arguments, in the <code>pgoworkdir</code> folder. It writes the profile when it exits</li>
+     *     <li>the optimized image is built with the profile (<code>--pgo</code>) in <code>buildroot</code></li>
+     * </ol>
+     * Both images are compiled incrementally, and the profile is reused as long as the instrumented
+     * image and the workload don't change. This needs a GraalVM that supports profile-guided optimization.
+     * @param properties the properties of the build
+     * @return false if building an image or running the workload failed
+     * @throws Exception
+     */
+    public static boolean buildWithProfile(Properties properties) throws Exception {
+        String classPath = properties.getProperty("imagecp");
+        String buildRoot = getBuildRoot(properties);
+        ProjectConfiguration instrumentedConfig = createConfiguration(properties);
+        if (!AbstractTargetConfiguration.isPgoSupported(instrumentedConfig)) {
+            throw new IllegalArgumentException("The GraalVM at " + instrumentedConfig.getGraalPath() +
+                    " doesn't support profile-guided optimization. Use a GraalVM distribution with --pgo-instrument");
+        }
+        Triplet targetTriplet = instrumentedConfig.getTargetTriplet();
+        TargetConfiguration targetConfiguration = getTargetConfiguration(targetTriplet);
+        Path pgoPath = Path.of(buildRoot, PGO_PATH);
+        ProcessPaths instrumentedPaths = new ProcessPaths(pgoPath.resolve("instrumented").toString(),
+                targetTriplet.getArchOs());
+        instrumentedConfig.setNativeImageArgsList(List.of("--pgo-instrument"));
+        System.err.println("Building the instrumented image...");
+        if (!compileAndLink(targetConfiguration, instrumentedPaths, instrumentedConfig, classPath)) {
+            return false;
+        }
+
+        String workload = properties.getProperty("pgoargs", "").trim();
+        List<String> args = workload.isEmpty() ? List.of() : Arrays.asList(workload.split("\\s+"));
+        String workDirProperty = properties.getProperty("pgoworkdir");
+        Path workDir = workDirProperty == null || workDirProperty.isEmpty() ?
+                instrumentedPaths.getAppPath() : Path.of(workDirProperty).toAbsolutePath();
+        Path profile = collectProfile(targetConfiguration, instrumentedPaths, instrumentedConfig.getAppName(),
+                args, workDir, pgoPath);
+        if (profile == null) {
+            return false;
+        }
+
+        ProjectConfiguration config = createConfiguration(properties);
+        config.setNativeImageArgsList(List.of("--pgo=" + profile));
+        ProcessPaths paths = new ProcessPaths(buildRoot, targetTriplet.getArchOs());
+        System.err.println("Building the optimized image...");
+        return compileAndLink(targetConfiguration, paths, config, classPath);
+    }
+
+    /**
+     * Runs the workload with the instrumented image, unless a profile of the same image and
+     * workload was collected before. Profiles are stored by their digest, so a new profile
+     * changes the native-image command and the optimized image is compiled again.
+     * @return the profile, or null if the workload failed or didn't write a profile
+     */
+    private static Path collectProfile(TargetConfiguration targetConfiguration, ProcessPaths instrumentedPaths,
+            String appName, List<String> args, Path workDir, Path pgoPath) throws IOException, InterruptedException {
+        Path binary = instrumentedPaths.getAppPath().resolve(appName);
+        String fingerprint = FileOps.digest(DependencyManifest.hash(binary) + "\n" + String.join(" ", args) +
+                "\n" + workDir);
+        Path stampFile = pgoPath.resolve(PROFILE_STAMP);
+        Properties stamp = new Properties();
+        if (Files.isRegularFile(stampFile)) {
+            try (InputStream is = Files.newInputStream(stampFile)) {
+                stamp.load(is);
+            }
+            Path previous = Path.of(stamp.getProperty("profile", ""));
+            if (fingerprint.equals(stamp.getProperty("fingerprint")) && Files.isRegularFile(previous)) {
+                Logger.logInfo("Instrumented image and workload unchanged, reusing the profile " + previous);
+                return previous;
+            }
+        }
+
+        Path rawProfile = workDir.resolve(PROFILE_FILE);
+        Files.createDirectories(workDir);
+        Files.deleteIfExists(rawProfile);
+        System.err.println("Running the workload " + args + " in " + workDir + "...");
+        boolean ran = BuildMetrics.time("pgo-workload",
+                () -> targetConfiguration.runUntilEnd(instrumentedPaths.getAppPath(), appName, args, workDir));
+        if (!ran) {
+            System.err.println("The workload failed, no profile was collected");
+            return null;
+        }
+        if (!Files.isRegularFile(rawProfile)) {
+            System.err.println("The workload didn't write a profile to " + rawProfile);
+            return null;
+        }
+        Path profile = pgoPath.resolve(DependencyManifest.hash(rawProfile) + ".iprof");
+        Files.move(rawProfile, profile, StandardCopyOption.REPLACE_EXISTING);
+        stamp.setProperty("fingerprint", fingerprint);
+        stamp.setProperty("profile", profile.toString());
+        try (OutputStream os = Files.newOutputStream(stampFile)) {
+            stamp.store(os, "Profile of the instrumented image");
+        }
+        Logger.logInfo("Profile written to " + profile);
+        return profile;
+    }
+
+    /**
+     * Compiles and links the application, while the dependencies are set up.
+     * @return false if compiling or linking failed
+     */
+    private static boolean compileAndLink(TargetConfiguration targetConfiguration, ProcessPaths paths,
+            ProjectConfiguration config, String classPath) throws Exception {
+        System.err.println("Config: " + config);
+        System.err.println("Compiling...");
+        BuildMetrics.start(config);
+        long pipelineStart = System.nanoTime();
+        BackgroundTask<Boolean> dependencies = BackgroundTask.start("dependencies",
+                () -> FileDeps.setupDependencies(config));
+        boolean compile = BuildMetrics.time("compile", () -> targetConfiguration.compile(paths, config, classPath));
+        long compileMillis = (System.nanoTime() - pipelineStart) / 1_000_000;
+        if (!compile) {
+            System.err.println("COMPILE FAILED");
+            // don't leave a half extracted SDK behind when the caller exits
+            try {
+                dependencies.join();
+            } catch (IOException | RuntimeException e) {
+                Logger.logDebug("Dependency setup failed as well: " + e.getMessage());
+            }
+            writeMetrics(paths);
+            return false;
+        }
+        dependencies.join();
+        reportOverlap(dependencies, compileMillis, pipelineStart);
+        System.err.println("Linking...");
+        // the target records its own "link" phase inside this one
+        boolean linked = BuildMetrics.time("link-total", () -> targetConfiguration.link(paths, config));
+        writeMetrics(paths);
+        if (!linked) {
+            System.err.println("Linking failed");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Creates the configuration for the host from the provided properties
+     * (<code>graalvm</code>, <code>mainclass</code> and <code>appname</code>).
+     * @param properties the properties of the build
+     * @return the configuration
+     */
+    public static ProjectConfiguration createConfiguration(Properties properties) {
+        String graalVM = properties.getProperty("graalvm");
+        String mainClass = properties.getProperty("mainclass");
+        String appName = properties.getProperty("appname");
         if (graalVM == null || graalVM.isEmpty()) {
             printUsage();
             throw new IllegalArgumentException("No graalvm specified. Use -Dgraalvm=/path/to/graalvm");
@@ -87,38 +420,60 @@ public class SubstrateDispatcher {
         config.setAppName(appName);
         config.setJavaStaticSdkVersion(Constants.DEFAULT_JAVA_STATIC_SDK_VERSION);
         config.setTarget(targetTriplet);
-        TargetConfiguration targetConfiguration = getTargetConfiguration(targetTriplet);
-        Path buildRoot = Paths.get(System.getProperty("user.dir"), "build", "autoclient");
-        ProcessPaths paths = new ProcessPaths(buildRoot.toString(), targetTriplet.getArchOs());
-        System.err.println("Config: " + config);
-        System.err.println("Compiling...");
-        boolean compile = targetConfiguration.compile(paths, config, classPath);
-        if (!compile) {
-            System.err.println("COMPILE FAILED");
-            return;
+        config.setVerbose(Boolean.parseBoolean(properties.getProperty("verbose")));
+        String runtimeArgs = properties.getProperty("runtimeargs", "").trim();
+        if (!runtimeArgs.isEmpty()) {
+            config.setRuntimeArgsList(Arrays.asList(runtimeArgs.split("\\s+")));
         }
-        FileDeps.setupDependencies(config);
-        System.err.println("Linking...");
-        boolean linked = targetConfiguration.link(paths, config);
-        if (!linked) {
-            System.err.println("Linking failed");
-            System.exit(1);
+        config.setDelayInitList(getList(properties, "delayinit"));
+        config.setReflectionList(getList(properties, "reflection"));
+        config.setJniList(getList(properties, "jni"));
+        config.setResourcesList(getList(properties, "resources"));
+        config.setBundlesList(getList(properties, "bundles"));
+        config.setUseAgentConfig(Boolean.parseBoolean(properties.getProperty("agent")));
+        config.setSharedLibrary(Boolean.parseBoolean(properties.getProperty("sharedlib")));
+        config.setIsolatePoolSize(Integer.parseInt(properties.getProperty("isolatepool", "0")));
+        String poolEntryPoint = properties.getProperty("isolatepoolentry");
+        if (poolEntryPoint != null) {
+            config.setIsolatePoolEntryPoint(poolEntryPoint);
         }
-        System.err.println("Running...");
-        if (expected != null) {
-            InputStream is = targetConfiguration.run(paths.getAppPath(), appName);
-            // TODO: compare expected and actual output
+        config.setLinker(properties.getProperty("linker"));
+        config.setLinkGcSections(Boolean.parseBoolean(properties.getProperty("gcsections")));
+        config.setLinkIdenticalCodeFolding(Boolean.parseBoolean(properties.getProperty("icf")));
+        config.setLinkTimeOptimization(Boolean.parseBoolean(properties.getProperty("lto")));
+        return config;
+    }
 
-        } else {
-            targetConfiguration.runUntilEnd(paths.getAppPath(), appName);
+    /**
+     * @param properties the properties of the build
+     * @return the <code>buildroot</code> property, or build/autoclient in the working directory
+     */
+    public static String getBuildRoot(Properties properties) {
+        String buildRoot = properties.getProperty("buildroot");
+        if (buildRoot == null || buildRoot.isEmpty()) {
+            buildRoot = Paths.get(System.getProperty("user.dir"), "build", "autoclient").toString();
         }
+        return buildRoot;
+    }
+
+    // a comma separated list property, or null
+    private static List<String> getList(Properties properties, String key) {
+        String value = properties.getProperty(key, "").trim();
+        return value.isEmpty() ? null : Arrays.asList(value.split(","));
     }
 
     static void printUsage() {
-        System.err.println("Usage:\n java -Dimagecp=... -Dgraalvm=... -Dmainclass=... com.gluonhq.substrate.SubstrateDispatcher");
+        System.err.println("Usage:\n java -Dimagecp=... -Dgraalvm=... -Dmainclass=... com.gluonhq.substrate.SubstrateDispatcher\n" +
+                "Optional: -Dlinker=bfd|gold|lld|mold -Dgcsections=true -Dicf=true -Dlto=true\n" +
+                "          -Dsharedlib=true -Druntimeargs=\"-Xmx64m -Xss1m\" -Dpgo=true -Dpgoargs=\"workload arguments\" -Dpgoworkdir=...\n" +
+                "          -Disolatepool=size -Disolatepoolentry=handle\n" +
+                "          -Dbenchmark=runs -Dbenchmarkwarmup=3 -Dbenchmarkjvm=true\n" +
+                "          -Dinitadvisor=true -Ddelayinit=com.example.A,com.example.B\n" +
+                "          -Dreflection=com.example.A,com.example.B#method -Djni=... -Dresources=regex,... -Dbundles=...\n" +
+                "          -Dagent=true -Dagentargs=\"workload arguments\"");
     }
 
-    public static void nativeCompile(String buildRoot, ProjectConfiguration config, String classPath) throws Exception {
+    public static boolean nativeCompile(String buildRoot, ProjectConfiguration config, String classPath) throws Exception {
         Triplet targetTriplet  = config.getTargetTriplet();
         TargetConfiguration targetConfiguration = getTargetConfiguration(targetTriplet);
         if (targetConfiguration == null) {
@@ -128,29 +483,82 @@ public class SubstrateDispatcher {
         Logger.logInit(paths.getLogPath().toString(), "==================== COMPILE TASK ====================",
                 config.isVerbose());
         System.err.println("We will now compile your code for "+targetTriplet.toString()+". This may take some time.");
-        boolean compile = targetConfiguration.compile(paths, config, classPath);
+        BuildMetrics.start(config);
+        String key = dependenciesKey(paths, targetTriplet);
+        BackgroundTask<Boolean> previous = dependenciesTasks.remove(key);
+        if (previous != null) {
+            // a compilation without link, don't extract into the same folders twice at the same time
+            previous.join();
+        }
+        dependenciesTasks.put(key, BackgroundTask.start("dependencies", () -> FileDeps.setupDependencies(config)));
+        boolean compile = BuildMetrics.time("compile", () -> targetConfiguration.compile(paths, config, classPath));
+        writeMetrics(paths);
         if (compile) {
             System.err.println("Compilation succeeded.");
         } else {
             System.err.println("Compilation failed. The error should be printed above.");
         }
+        return compile;
     }
-    public static void nativeLink(String buildRoot, ProjectConfiguration config) throws IOException, InterruptedException {
+    public static boolean nativeLink(String buildRoot, ProjectConfiguration config) throws IOException, InterruptedException {
         Triplet targetTriplet  = config.getTargetTriplet();
         TargetConfiguration targetConfiguration = getTargetConfiguration(targetTriplet);
         if (targetConfiguration == null) {
             throw new IllegalArgumentException("We don't have a configuration to compile "+targetTriplet);
         }
         ProcessPaths paths = new ProcessPaths(buildRoot, targetTriplet.getArchOs());
-        FileDeps.setupDependencies(config);
-        targetConfiguration.link(paths, config);
+        BuildMetrics.time("await-dependencies", () -> {
+            awaitDependencies(paths, config);
+            return null;
+        });
+        // the target records its own "link" phase inside this one
+        boolean linked = BuildMetrics.time("link-total", () -> targetConfiguration.link(paths, config));
+        writeMetrics(paths);
+        return linked;
+    }
+
+    /**
+     * Waits for the dependency setup that was started during the compilation for the same build root
+     * and target, or does the setup now if it wasn't started.
+     */
+    private static void awaitDependencies(ProcessPaths paths, ProjectConfiguration config) throws IOException, InterruptedException {
+        BackgroundTask<Boolean> task = dependenciesTasks.remove(dependenciesKey(paths, config.getTargetTriplet()));
+        if (task != null) {
+            task.join();
+            Logger.logDebug("Dependency setup took " + task.getDurationMillis() + " ms, in parallel with compilation");
+        } else {
+            FileDeps.setupDependencies(config);
+        }
+    }
+
+    private static String dependenciesKey(ProcessPaths paths, Triplet triplet) {
+        return paths.getClientPath().toAbsolutePath().normalize() + "|" + triplet;
+    }
+
+    /**
+     * Writes the metrics of the current build to the log folder.
+     * Failing to write them doesn't fail the build.
+     */
+    private static void writeMetrics(ProcessPaths paths) {
+        try {
+            BuildMetrics.writeReport(paths.getLogPath());
+        } catch (IOException e) {
+            Logger.logDebug("Could not write the build metrics: " + e.getMessage());
+        }
+    }
+
+    private static void reportOverlap(BackgroundTask<?> dependencies, long compileMillis, long pipelineStart) {
+        long wallMillis = (System.nanoTime() - pipelineStart) / 1_000_000;
+        long savedMillis = Math.max(0, dependencies.getDurationMillis() + compileMillis - wallMillis);
+        Logger.logInfo("Compilation took " + compileMillis + " ms and dependency setup took " +
+                dependencies.getDurationMillis() + " ms, running them together saved " + savedMillis + " ms");
     }
 
-    public static void nativeRun(String buildRoot, ProjectConfiguration config) throws IOException, InterruptedException {
+    public static boolean nativeRun(String buildRoot, ProjectConfiguration config) throws IOException, InterruptedException {
         Triplet targetTriplet  = config.getTargetTriplet();
         TargetConfiguration targetConfiguration = getTargetConfiguration(targetTriplet);
         ProcessPaths paths = new ProcessPaths(buildRoot, targetTriplet.getArchOs());
-        targetConfiguration.runUntilEnd(paths.getAppPath(), config.getAppName());
+        return targetConfiguration.runUntilEnd(paths.getAppPath(), config.getAppName());
     }
 
     private static TargetConfiguration getTargetConfiguration(Triplet targetTriplet) {
@@ -27,10 +27,22 @@
  */
 package com.gluonhq.substrate.attach;
 
+import com.gluonhq.substrate.Constants;
+import com.gluonhq.substrate.util.Logger;
+
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
@@ -41,6 +53,12 @@ public class AttachResolver {
     public static final String DEPENDENCY_M2_GROUP = "com/gluonhq/attach/";
     public static final String UTIL_ARTIFACT = "util";
 
+    /**
+     * The services found in every Attach jar that was scanned, stored as
+     * <code>/path/to/jar=size|mtime|service1,service2</code>
+     */
+    public static final Path INDEX_FILE = Constants.USER_SUBSTRATE_PATH.resolve("attach-index.properties");
+
     /**
      * Extract Attach implementation Service classes
      * @param paths List of paths with all the jars in the classpath,
@@ -49,29 +67,130 @@ public class AttachResolver {
      *          to reflection and jni lists
      */
     public static List<String> attachServices(List<Path> paths) {
-        List<String> list = new ArrayList<>();
-        paths.stream()
+        return attachServices(paths, INDEX_FILE);
+    }
+
+    /**
+     * Extract Attach implementation Service classes. Jars that are in the index with the same
+     * size and modification time are not opened, the others are scanned in parallel and
+     * added to the index.
+     * @param paths List of paths with all the jars in the classpath,
+     *              including Attach jars
+     * @param indexFile the index of the jars that were scanned before
+     * @return a list of Service classes, that can be added
+     *          to reflection and jni lists
+     */
+    public static List<String> attachServices(List<Path> paths, Path indexFile) {
+        List<Path> jars = paths.stream()
                 .filter(s -> s.toString().contains(DEPENDENCY_GROUP) ||
                         s.toString().contains(DEPENDENCY_M2_GROUP))
-                .forEach(jar -> {
-                    try {
-                        ZipFile zf = new ZipFile(jar.toFile());
-                        zf.stream()
-                                .map(ZipEntry::getName)
-                                .filter(ze -> ze.endsWith("Service.class"))
-                                .filter(ze -> ze.contains("impl") && ! ze.contains("Dummy")
-                                        && ! ze.contains("Default"))
-                                .forEach(ze -> list.add(ze
-                                        .replaceAll("/", ".")
-                                        .replace(".class", "")));
-                    } catch (IOException ex) {
-                        System.err.println("Error: " + ex);
-ex.printStackTrace();
-                    }
-                });
-        return list.stream()
                 .distinct()
                 .collect(Collectors.toList());
+        if (jars.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Properties index = loadIndex(indexFile);
+        Map<Path, List<String>> services = new ConcurrentHashMap<>();
+        Map<Path, String> toScan = new ConcurrentHashMap<>();
+        for (Path jar : jars) {
+            String stamp = stamp(jar);
+            String entry = index.getProperty(jar.toAbsolutePath().toString());
+            if (stamp != null && entry != null && entry.startsWith(stamp + "|")) {
+                services.put(jar, parseServices(entry.substring(stamp.length() + 1)));
+            } else {
+                toScan.put(jar, stamp == null ? "" : stamp);
+            }
+        }
+        if (!toScan.isEmpty()) {
+            long start = System.nanoTime();
+            toScan.keySet().parallelStream().forEach(jar -> {
+                List<String> found = scan(jar);
+                if (found != null) {
+                    services.put(jar, found);
+                }
+            });
+            toScan.forEach((jar, stamp) -> {
+                List<String> found = services.get(jar);
+                if (found != null && !stamp.isEmpty()) {
+                    index.setProperty(jar.toAbsolutePath().toString(), stamp + "|" + String.join(",", found));
+                }
+            });
+            storeIndex(indexFile, index);
+            Logger.logDebug("Scanned " + toScan.size() + " Attach jars in " + (System.nanoTime() - start) / 1_000_000 +
+                    " ms, " + (jars.size() - toScan.size()) + " were indexed already");
+        }
+        return jars.stream()
+                .flatMap(jar -> services.getOrDefault(jar, Collections.emptyList()).stream())
+                .distinct()
+                .collect(Collectors.toList());
+    }
+
+    private static List<String> scan(Path jar) {
+        try (ZipFile zf = new ZipFile(jar.toFile())) {
+            return zf.stream()
+                    .map(ZipEntry::getName)
+                    .filter(ze -> ze.endsWith("Service.class"))
+                    .filter(ze -> ze.contains("impl") && ! ze.contains("Dummy")
+                            && ! ze.contains("Default"))
+                    .map(ze -> ze
+                            .replaceAll("/", ".")
+                            .replace(".class", ""))
+                    .collect(Collectors.toList());
+        } catch (IOException ex) {
+            System.err.println("Error: " + ex);
+            ex.printStackTrace();
+            return null;
+        }
+    }
+
+    private static String stamp(Path jar) {
+        try {
+            return Files.size(jar) + "|" + Files.getLastModifiedTime(jar).toMillis();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static List<String> parseServices(String value) {
+        return value.isEmpty() ? Collections.emptyList() : Arrays.asList(value.split(","));
+    }
+
+    private static Properties loadIndex(Path indexFile) {
+        Properties index = new Properties();
+        if (Files.isRegularFile(indexFile)) {
+            try (InputStream is = Files.newInputStream(indexFile)) {
+                index.load(is);
+            } catch (IOException | IllegalArgumentException e) {
+                Logger.logDebug("Could not read " + indexFile + ", Attach jars will be scanned again: " + e.getMessage());
+                index.clear();
+            }
+        }
+        return index;
+    }
+
+    private static void storeIndex(Path indexFile, Properties index) {
+        // forget the jars that were removed from the repository
+        index.stringPropertyNames().stream()
+                .filter(jar -> !Files.exists(Path.of(jar)))
+                .forEach(index::remove);
+        Path tmp = null;
+        try {
+            Files.createDirectories(indexFile.getParent());
+            // other builds might read the index at the same time, replace it atomically
+            tmp = Files.createTempFile(indexFile.getParent(), indexFile.getFileName().toString(), ".tmp");
+            try (OutputStream os = Files.newOutputStream(tmp)) {
+                index.store(os, "Attach services per jar");
+            }
+            Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Logger.logDebug("Could not write " + indexFile + ": " + e.getMessage());
+            try {
+                if (tmp != null) {
+                    Files.deleteIfExists(tmp);
+                }
+            } catch (IOException ignored) {
+            }
+        }
     }
 
 }
@@ -0,0 +1,487 @@
+/*
+ * Copyright (c) 2019, Gluon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL GLUON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gluonhq.substrate.batch;
+
+import com.gluonhq.substrate.Constants;
+import com.gluonhq.substrate.SubstrateDispatcher;
+import com.gluonhq.substrate.model.ProcessPaths;
+import com.gluonhq.substrate.model.ProjectConfiguration;
+import com.gluonhq.substrate.target.DarwinTargetConfiguration;
+import com.gluonhq.substrate.target.LinuxTargetConfiguration;
+import com.gluonhq.substrate.target.TargetConfiguration;
+import com.gluonhq.substrate.util.BackgroundTask;
+import com.gluonhq.substrate.util.BuildMetrics;
+import com.gluonhq.substrate.util.FileDeps;
+import com.gluonhq.substrate.util.HostResources;
+import com.gluonhq.substrate.util.Logger;
+import com.gluonhq.substrate.util.OutputVerifier;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Compiles and links many applications in one JVM.
+ *
+ * Every application is built by a worker from a pool that is bounded by the number of cores.
+ * Before native-image starts, the worker reserves the memory native-image is expected to use,
+ * so no more images are compiled at the same time than fit in the memory of the host.
+ * Each application gets its own build root, <code>batchRoot/appName</code>. The static SDKs are
+ * set up once for every distinct configuration, while the first images compile.
+ *
+ * Usage:
+ * <pre>
+ * java -Dgraalvm=... -Dbatchfile=apps.properties [-Dbuildroot=...] [-DmemoryPerImage=4096] com.gluonhq.substrate.batch.BatchBuilder
+ * </pre>
+ * where the batch file has a <code>mainclass</code> and <code>imagecp</code> entry per application:
+ * <pre>
+ * hello.mainclass=com.example.Hello
+ * hello.imagecp=/path/to/hello/classes
+ * hello.expected=/path/to/hello/expected.txt
+ * </pre>
+ * Applications with an optional <code>expected</code> file are run once all are built, and fail
+ * when their output differs, when they don't exit with 0, or when they run longer than
+ * {@link OutputVerifier#DEFAULT_TIMEOUT_MILLIS}.
+ */
+public class BatchBuilder {
+
+    public static final long DEFAULT_MEMORY_PER_IMAGE_MB = 4096;
+    public static final String REPORT_FILE = "batch-report.json";
+
+    private final int workers;
+    private final long availableMemoryMb;
+    private final long memoryPerImageMb;
+
+    /**
+     * An application to build
+     */
+    public static class App {
+        private final ProjectConfiguration config;
+        private final String classPath;
+        private final Path expected;
+
+        public App(ProjectConfiguration config, String classPath) {
+            this(config, classPath, null);
+        }
+
+        /**
+         * @param config the configuration of the application
+         * @param classPath the classpath of the application
+         * @param expected the file with the output the application should produce, or null to not run it
+         */
+        public App(ProjectConfiguration config, String classPath, Path expected) {
+            this.config = config;
+            this.classPath = classPath;
+            this.expected = expected;
+        }
+
+        public ProjectConfiguration getConfig() {
+            return config;
+        }
+
+        public String getClassPath() {
+            return classPath;
+        }
+
+        public Path getExpected() {
+            return expected;
+        }
+    }
+
+    /**
+     * The outcome of the build of one application
+     */
+    public static class Result {
+        private final String appName;
+        private long queueMillis;
+        private long compileMillis;
+        private long linkMillis;
+        private boolean success;
+        private String error;
+
+        Result(String appName) {
+            this.appName = appName;
+        }
+
+        public String getAppName() {
+            return appName;
+        }
+
+        /**
+         * @return the time between the start of the batch and the start of native-image, waiting for a worker and for memory
+         */
+        public long getQueueMillis() {
+            return queueMillis;
+        }
+
+        public long getCompileMillis() {
+            return compileMillis;
+        }
+
+        public long getLinkMillis() {
+            return linkMillis;
+        }
+
+        public boolean isSuccess() {
+            return success;
+        }
+
+        /**
+         * @return the reason of the failure, or <code>null</code>
+         */
+        public String getError() {
+            return error;
+        }
+    }
+
+    /**
+     * @param workers the maximum number of applications built at the same time
+     * @param availableMemoryMb the memory that can be used by native-image processes, in MB
+     * @param memoryPerImageMb the memory a native-image process is expected to use, in MB
+     */
+    public BatchBuilder(int workers, long availableMemoryMb, long memoryPerImageMb) {
+        this.workers = Math.max(1, workers);
+        this.availableMemoryMb = Math.max(1, availableMemoryMb);
+        // an image that needs more than the host has can still be built, alone
+        this.memoryPerImageMb = Math.max(1, Math.min(memoryPerImageMb, this.availableMemoryMb));
+    }
+
+    /**
+     * Creates a builder that uses all CPUs and memory of the host, or of the container it runs in
+     * @param memoryPerImageMb the memory a native-image process is expected to use, in MB
+     * @return the builder
+     */
+    public static BatchBuilder forHost(long memoryPerImageMb) {
+        HostResources resources = HostResources.detect();
+        Logger.logInfo("Batch uses " + resources);
+        return new BatchBuilder(resources.getCpus(), resources.getMemoryMb(), memoryPerImageMb);
+    }
+
+    /**
+     * Builds all applications, and waits until they are finished
+     * @param batchRoot the folder that contains the build root of every application
+     * @param apps the applications, their native-image heap and threads are set when they are not set yet
+     * @return the result of every application, in the same order
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public List<Result> build(Path batchRoot, List<App> apps) throws IOException, InterruptedException {
+        int threads = Math.min(workers, Math.max(1, apps.size()));
+        int concurrentImages = (int) Math.max(1, availableMemoryMb / memoryPerImageMb);
+        Logger.logInfo("Building " + apps.size() + " applications with " + threads + " workers, at most " +
+                Math.min(threads, concurrentImages) + " native-image processes at the same time (" +
+                memoryPerImageMb + " MB each, " + availableMemoryMb + " MB available)");
+        Semaphore memory = new Semaphore((int) Math.min(Integer.MAX_VALUE, availableMemoryMb));
+        // images that compile at the same time share the CPUs, and each gets the memory it reserved
+        int threadsPerImage = Math.max(1, workers / Math.min(threads, concurrentImages));
+        for (App app : apps) {
+            ProjectConfiguration config = app.getConfig();
+            if (config.getNativeImageThreads() <= 0) {
+                config.setNativeImageThreads(threadsPerImage);
+            }
+            if (config.getNativeImageMaxHeap() == null) {
+                config.setNativeImageMaxHeap(HostResources.getBuilderHeapMb(memoryPerImageMb) + "m");
+            }
+        }
+        Map<String, BackgroundTask<Boolean>> dependencies = new HashMap<>();
+        for (App app : apps) {
+            ProjectConfiguration config = app.getConfig();
+            dependencies.computeIfAbsent(dependenciesKey(config),
+                    k -> BackgroundTask.start("dependencies", () -> FileDeps.setupDependencies(config)));
+        }
+
+        long batchStart = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Result> results = new ArrayList<>();
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (App app : apps) {
+                Result result = new Result(app.getConfig().getAppName());
+                results.add(result);
+                BackgroundTask<Boolean> deps = dependencies.get(dependenciesKey(app.getConfig()));
+                futures.add(executor.submit(() -> {
+                    build(batchRoot, app, result, memory, deps, batchStart);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    // the failure is recorded in the result
+                    Logger.logDebug("Build failed: " + e.getCause());
+                }
+            }
+            awaitDependencies(dependencies.values());
+        } finally {
+            executor.shutdownNow();
+        }
+        Logger.logInfo("Batch finished in " + (System.nanoTime() - batchStart) / 1_000_000 + " ms");
+        return results;
+    }
+
+    private void build(Path batchRoot, App app, Result result, Semaphore memory,
+                       BackgroundTask<Boolean> dependencies, long batchStart) {
+        ProjectConfiguration config = app.getConfig();
+        ProcessPaths paths = null;
+        // the threads of the executor are reused, every application gets its own metrics
+        BuildMetrics.start(config);
+        try {
+            TargetConfiguration target = getTargetConfiguration(config);
+            paths = new ProcessPaths(batchRoot.resolve(config.getAppName()).toString(),
+                    config.getTargetTriplet().getArchOs());
+            memory.acquire((int) memoryPerImageMb);
+            long compileStart = System.nanoTime();
+            result.queueMillis = (compileStart - batchStart) / 1_000_000;
+            boolean compiled;
+            try {
+                compiled = target.compile(paths, config, app.getClassPath());
+            } finally {
+                memory.release((int) memoryPerImageMb);
+            }
+            result.compileMillis = (System.nanoTime() - compileStart) / 1_000_000;
+            if (!compiled) {
+                result.error = "compilation failed";
+                return;
+            }
+            dependencies.join();
+            long linkStart = System.nanoTime();
+            boolean linked = target.link(paths, config);
+            result.linkMillis = (System.nanoTime() - linkStart) / 1_000_000;
+            if (!linked) {
+                result.error = "linking failed";
+                return;
+            }
+            result.success = true;
+        } catch (InterruptedException e) {
+            result.error = "interrupted";
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            result.error = String.valueOf(e);
+        } finally {
+            if (paths != null) {
+                writeMetrics(paths);
+            }
+        }
+    }
+
+    private static void writeMetrics(ProcessPaths paths) {
+        try {
+            BuildMetrics.writeReport(paths.getLogPath());
+        } catch (IOException e) {
+            Logger.logDebug("Could not write the build metrics: " + e.getMessage());
+        }
+    }
+
+    // waits for the dependency setup that builds which failed to compile didn't wait for, so no SDK
+    // is left half extracted when the batch exits
+    private static void awaitDependencies(Collection<BackgroundTask<Boolean>> dependencies) throws InterruptedException {
+        for (BackgroundTask<Boolean> task : dependencies) {
+            try {
+                task.join();
+            } catch (IOException | RuntimeException e) {
+                Logger.logDebug("Dependency setup failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private static String dependenciesKey(ProjectConfiguration config) {
+        return config.getTargetTriplet() + "|" + config.isUseJNI() + "|" + config.getJavaStaticSdkVersion() + "|" +
+                config.isUseJavaFX() + "|" + config.getJavafxStaticSdkVersion() + "|" + config.getJavaFXRoot();
+    }
+
+    private static TargetConfiguration getTargetConfiguration(ProjectConfiguration config) {
+        String os = config.getTargetTriplet().getOs();
+        if (Constants.OS_LINUX.equals(os)) {
+            return new LinuxTargetConfiguration();
+        }
+        if (Constants.OS_DARWIN.equals(os)) {
+            return new DarwinTargetConfiguration();
+        }
+        throw new IllegalArgumentException("We don't have a configuration to compile " + config.getTargetTriplet());
+    }
+
+    /**
+     * Runs the applications that were built and have an expected output, as many at the same time as
+     * there are workers, and compares their output. Applications with other output are marked as failed.
+     * @param batchRoot the root folder of the batch
+     * @param apps the applications of the batch
+     * @param results the results of the build, in the order of the applications
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void verify(Path batchRoot, List<App> apps, List<Result> results) throws IOException, InterruptedException {
+        List<OutputVerifier.Check> checks = new ArrayList<>();
+        List<Result> checked = new ArrayList<>();
+        for (int i = 0; i < apps.size(); i++) {
+            App app = apps.get(i);
+            if (app.getExpected() == null || !results.get(i).isSuccess()) {
+                continue;
+            }
+            ProjectConfiguration config = app.getConfig();
+            TargetConfiguration target = getTargetConfiguration(config);
+            ProcessPaths paths = new ProcessPaths(batchRoot.resolve(config.getAppName()).toString(),
+                    config.getTargetTriplet().getArchOs());
+            checks.add(new OutputVerifier.Check(config.getAppName(),
+                    () -> target.createProcess(paths.getAppPath(), config.getAppName(), List.of(), null),
+                    app.getExpected()));
+            checked.add(results.get(i));
+        }
+        if (checks.isEmpty()) {
+            return;
+        }
+        Logger.logInfo("Verifying the output of " + checks.size() + " applications");
+        List<OutputVerifier.Result> verified = OutputVerifier.verifyAll(checks, workers, OutputVerifier.DEFAULT_TIMEOUT_MILLIS);
+        for (int i = 0; i < verified.size(); i++) {
+            OutputVerifier.Result result = verified.get(i);
+            if (!result.matches()) {
+                System.err.println(result);
+                checked.get(i).success = false;
+                checked.get(i).error = result.getMessage();
+            }
+        }
+    }
+
+    /**
+     * Prints the queue and run time of every application
+     * @param results the results of a batch
+     */
+    public static void printReport(List<Result> results) {
+        System.err.println(String.format("%-30s %-8s %10s %10s %10s", "application", "result", "queue ms", "compile ms", "link ms"));
+        for (Result result : results) {
+            System.err.println(String.format("%-30s %-8s %10d %10d %10d", result.getAppName(),
+                    result.isSuccess() ? "ok" : "FAILED", result.getQueueMillis(), result.getCompileMillis(),
+                    result.getLinkMillis()) + (result.getError() == null ? "" : "  " + result.getError()));
+        }
+    }
+
+    /**
+     * Writes the results of a batch as json
+     * @param file the report file
+     * @param results the results of the batch
+     * @throws IOException
+     */
+    public static void writeReport(Path file, List<Result> results) throws IOException {
+        StringBuilder sb = new StringBuilder("{\n  \"apps\": [");
+        String separator = "\n";
+        for (Result result : results) {
+            sb.append(separator).append("    {\"name\": ").append(quote(result.getAppName()))
+                    .append(", \"success\": ").append(result.isSuccess())
+                    .append(", \"queueMillis\": ").append(result.getQueueMillis())
+                    .append(", \"compileMillis\": ").append(result.getCompileMillis())
+                    .append(", \"linkMillis\": ").append(result.getLinkMillis())
+                    .append(", \"error\": ").append(result.getError() == null ? "null" : quote(result.getError()))
+                    .append("}");
+            separator = ",\n";
+        }
+        sb.append(results.isEmpty() ? "]\n}\n" : "\n  ]\n}\n");
+        Files.write(file, sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String quote(String value) {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+    }
+
+    public static void main(String[] args) throws Exception {
+        String batchFile = System.getProperty("batchfile");
+        if (batchFile == null || batchFile.isEmpty()) {
+            System.err.println("Usage:\n java -Dgraalvm=... -Dbatchfile=apps.properties [-Dbuildroot=...] " +
+                    "[-DmemoryPerImage=" + DEFAULT_MEMORY_PER_IMAGE_MB + "] com.gluonhq.substrate.batch.BatchBuilder");
+            throw new IllegalArgumentException("No batch file specified. Use -Dbatchfile=/path/to/apps.properties");
+        }
+        Properties batch = new Properties();
+        try (InputStream is = Files.newInputStream(Paths.get(batchFile))) {
+            batch.load(is);
+        }
+        List<App> apps = readApps(batch, System.getProperties());
+        Path batchRoot = Paths.get(System.getProperty("buildroot",
+                Paths.get(System.getProperty("user.dir"), "build", "batch").toString())).toAbsolutePath();
+        Files.createDirectories(batchRoot);
+        Logger.logInit(batchRoot.toString(), "==================== BATCH ====================",
+                Boolean.getBoolean("verbose"));
+        // the dependency setup shared by the applications, they have their own metrics
+        BuildMetrics.start();
+
+        BatchBuilder builder = forHost(Long.getLong("memoryPerImage", DEFAULT_MEMORY_PER_IMAGE_MB));
+        List<Result> results = builder.build(batchRoot, apps);
+        builder.verify(batchRoot, apps, results);
+        printReport(results);
+        writeReport(batchRoot.resolve(REPORT_FILE), results);
+        BuildMetrics.writeReport(batchRoot);
+        if (results.stream().anyMatch(r -> !r.isSuccess())) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Reads the applications of a batch file
+     * @param batch the entries of the batch file
+     * @param defaults the properties shared by all applications, e.g. <code>graalvm</code>
+     * @return the applications, sorted by name
+     */
+    static List<App> readApps(Properties batch, Properties defaults) {
+        TreeSet<String> names = new TreeSet<>();
+        for (String key : batch.stringPropertyNames()) {
+            int dot = key.lastIndexOf('.');
+            if (dot > 0 && key.endsWith(".mainclass")) {
+                names.add(key.substring(0, dot));
+            }
+        }
+        List<App> apps = new ArrayList<>();
+        for (String name : names) {
+            Properties properties = new Properties();
+            properties.setProperty("graalvm", batch.getProperty("graalvm", defaults.getProperty("graalvm", "")));
+            properties.setProperty("verbose", defaults.getProperty("verbose", "false"));
+            properties.setProperty("appname", name);
+            properties.setProperty("mainclass", batch.getProperty(name + ".mainclass"));
+            String classPath = batch.getProperty(name + ".imagecp");
+            if (classPath == null || classPath.isEmpty()) {
+                throw new IllegalArgumentException("No classpath specified for " + name + ". Add " + name + ".imagecp");
+            }
+            String expected = batch.getProperty(name + ".expected");
+            apps.add(new App(SubstrateDispatcher.createConfiguration(properties), classPath,
+                    expected == null || expected.isEmpty() ? null : Paths.get(expected)));
+        }
+        return apps;
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2019, Gluon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL GLUON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gluonhq.substrate.daemon;
+
+import com.gluonhq.substrate.SubstrateDispatcher;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Sends a request to the {@link SubstrateDaemon}, starting the daemon when it isn't running, and
+ * prints the output of the build.
+ *
+ * Usage:
+ * <pre>
+ * java -Dimagecp=... -Dgraalvm=... -Dmainclass=... com.gluonhq.substrate.daemon.DaemonClient [build|compile|link|run|status|stop]
+ * </pre>
+ */
+public class DaemonClient {
+
+    // paths that are resolved against the working directory of the client, not the one of the daemon
+    private static final List<String> PATH_PROPERTIES = List.of("buildroot", "expected", "pgoworkdir");
+    private static final long START_TIMEOUT_MILLIS = 30_000;
+
+    public static void main(String[] args) throws Exception {
+        String command = args.length > 0 ? args[0] : "build";
+        System.exit(send(command, createRequest(System.getProperties())));
+    }
+
+    /**
+     * @param properties the system properties of the client
+     * @return the {@link SubstrateDispatcher#BUILD_PROPERTIES} that are set, with absolute paths
+     */
+    static Properties createRequest(Properties properties) {
+        Properties request = new Properties();
+        for (String key : SubstrateDispatcher.BUILD_PROPERTIES) {
+            String value = properties.getProperty(key);
+            if (value != null) {
+                request.setProperty(key, value);
+            }
+        }
+        // the daemon has its own working directory
+        request.setProperty("buildroot", SubstrateDispatcher.getBuildRoot(request));
+        for (String key : PATH_PROPERTIES) {
+            String value = request.getProperty(key, "").trim();
+            if (!value.isEmpty()) {
+                request.setProperty(key, Paths.get(value).toAbsolutePath().toString());
+            }
+        }
+        return request;
+    }
+
+    /**
+     * Sends a request to the daemon, and prints its output to stderr
+     * @param command the command to execute
+     * @param request the properties of the build
+     * @return the result of the request, 0 for success
+     * @throws IOException when the daemon can't be reached
+     * @throws InterruptedException
+     */
+    public static int send(String command, Properties request) throws IOException, InterruptedException {
+        Properties info = SubstrateDaemon.readInfo();
+        Socket socket = info == null ? null : connect(info);
+        if (socket == null) {
+            if ("stop".equals(command) || "status".equals(command)) {
+                System.err.println("The substrate daemon is not running");
+                return "stop".equals(command) ? 0 : SubstrateDaemon.EXIT_ERROR;
+            }
+            info = startDaemon();
+            socket = connect(info);
+            if (socket == null) {
+                throw new IOException("Could not connect to the substrate daemon on port " + info.getProperty("port"));
+            }
+        }
+        try (Socket s = socket) {
+            Writer writer = new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8);
+            writeLine(writer, "token", info.getProperty("token"));
+            writeLine(writer, "command", command);
+            for (String key : request.stringPropertyNames()) {
+                writeLine(writer, key, request.getProperty(key));
+            }
+            writer.write("\n");
+            writer.flush();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(SubstrateDaemon.OUTPUT_PREFIX)) {
+                    System.err.println(line.substring(SubstrateDaemon.OUTPUT_PREFIX.length()));
+                } else if (line.startsWith(SubstrateDaemon.EXIT_PREFIX)) {
+                    int result = Integer.parseInt(line.substring(SubstrateDaemon.EXIT_PREFIX.length()));
+                    if (result == SubstrateDaemon.EXIT_REJECTED) {
+                        System.err.println("The substrate daemon rejected the request");
+                    }
+                    return result;
+                }
+            }
+        }
+        throw new IOException("The substrate daemon closed the connection before the request finished");
+    }
+
+    private static void writeLine(Writer writer, String key, String value) throws IOException {
+        if (value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+            throw new IllegalArgumentException("The value of " + key + " can't contain line breaks");
+        }
+        writer.write(key + "=" + value + "\n");
+    }
+
+    private static Socket connect(Properties info) {
+        try {
+            int port = Integer.parseInt(info.getProperty("port", ""));
+            return new Socket(InetAddress.getLoopbackAddress(), port);
+        } catch (IOException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static Properties startDaemon() throws IOException, InterruptedException {
+        Path javaBin = Paths.get(System.getProperty("java.home"), "bin", "java");
+        List<String> cmd = new ArrayList<>();
+        cmd.add(javaBin.toString());
+        long maxMemoryMb = Long.getLong("substrate.daemon.maxMemory", 512);
+        // leave room above the cap, the daemon stops itself when it is exceeded
+        cmd.add("-Xmx" + 2 * maxMemoryMb + "m");
+        for (String key : Arrays.asList("substrate.daemon.idleTimeout", "substrate.daemon.maxMemory")) {
+            String value = System.getProperty(key);
+            if (value != null) {
+                cmd.add("-D" + key + "=" + value);
+            }
+        }
+        String modulePath = System.getProperty("jdk.module.path");
+        if (modulePath != null && DaemonClient.class.getModule().isNamed()) {
+            cmd.add("-p");
+            cmd.add(modulePath);
+            cmd.add("-m");
+            cmd.add(DaemonClient.class.getModule().getName() + "/" + SubstrateDaemon.class.getName());
+        } else {
+            cmd.add("-cp");
+            cmd.add(System.getProperty("java.class.path"));
+            cmd.add(SubstrateDaemon.class.getName());
+        }
+        Path log = SubstrateDaemon.INFO_FILE.resolveSibling("daemon.log");
+        Files.createDirectories(log.getParent());
+        ProcessBuilder pb = new ProcessBuilder(cmd);
+        pb.redirectErrorStream(true);
+        pb.redirectOutput(ProcessBuilder.Redirect.appendTo(log.toFile()));
+        System.err.println("Starting the substrate daemon, its log is " + log);
+        Process process = pb.start();
+        process.getOutputStream().close();
+        long deadline = System.currentTimeMillis() + START_TIMEOUT_MILLIS;
+        while (System.currentTimeMillis() < deadline) {
+            Properties info = SubstrateDaemon.readInfo();
+            if (info != null && Long.toString(process.pid()).equals(info.getProperty("pid"))) {
+                return info;
+            }
+            if (!process.isAlive()) {
+                throw new IOException("The substrate daemon exited with " + process.exitValue() + ", see " + log);
+            }
+            Thread.sleep(100);
+        }
+        process.destroy();
+        throw new IOException("The substrate daemon didn't start within " + START_TIMEOUT_MILLIS / 1000 + " s, see " + log);
+    }
+}
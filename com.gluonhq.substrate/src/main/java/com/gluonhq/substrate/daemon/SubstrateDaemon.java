@@ -0,0 +1,338 @@
+/*
+ * Copyright (c) 2019, Gluon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL GLUON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gluonhq.substrate.daemon;
+
+import com.gluonhq.substrate.Constants;
+import com.gluonhq.substrate.SubstrateDispatcher;
+import com.gluonhq.substrate.model.ProjectConfiguration;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A long running process that executes build requests, so that the JVM, the toolchain probes
+ * and the dependency verifications stay warm between builds.
+ *
+ * The daemon listens on a loopback port. The port and a random token are written to
+ * {@link #INFO_FILE}, readable by the current user only, and every request has to present the token.
+ * A request is a list of <code>key=value</code> lines, ended by an empty line, with the same keys
+ * as the system properties of {@link SubstrateDispatcher#main(String[])} plus <code>token</code>,
+ * <code>command</code> (build, compile, link, run, status or stop) and <code>buildroot</code>.
+ * The daemon answers with <code>out:</code> lines for the output of the build, and a final
+ * <code>exit:</code> line with the result, 0 for success.
+ *
+ * Requests are executed one at a time. The daemon stops when it didn't get a request for the idle
+ * timeout (<code>-Dsubstrate.daemon.idleTimeout</code>, in minutes, 30 by default), or when its heap use
+ * after a build is above the memory cap (<code>-Dsubstrate.daemon.maxMemory</code>, in MB,
+ * 512 by default). The next client starts a fresh daemon.
+ */
+public class SubstrateDaemon {
+
+    public static final Path INFO_FILE = Constants.USER_SUBSTRATE_PATH.resolve("daemon.properties");
+
+    static final String OUTPUT_PREFIX = "out:";
+    static final String EXIT_PREFIX = "exit:";
+    static final int EXIT_ERROR = 1;
+    static final int EXIT_REJECTED = 2;
+
+    private static final int REQUEST_READ_TIMEOUT_MILLIS = 30_000;
+
+    private final long idleTimeoutMillis;
+    private final long maxMemoryBytes;
+    private final String token;
+    // the build writes to System.out, System.err and console log handlers that hold on to the stream
+    // they were created with, so these are replaced once, and redirected to the client of each request
+    private final PrintStream daemonLog = System.err;
+    private final RedirectingOutputStream output = new RedirectingOutputStream(daemonLog);
+    private final long started = System.currentTimeMillis();
+    private int requests;
+    private boolean running = true;
+
+    public SubstrateDaemon(long idleTimeoutMillis, long maxMemoryBytes) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.maxMemoryBytes = maxMemoryBytes;
+        byte[] bytes = new byte[16];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        this.token = sb.toString();
+    }
+
+    public static void main(String[] args) throws IOException {
+        long idleMinutes = Long.getLong("substrate.daemon.idleTimeout", 30);
+        long maxMemoryMb = Long.getLong("substrate.daemon.maxMemory", 512);
+        new SubstrateDaemon(TimeUnit.MINUTES.toMillis(idleMinutes), maxMemoryMb * 1024 * 1024).serve();
+    }
+
+    /**
+     * Accepts requests until the daemon is stopped, idle for too long or uses too much memory
+     * @throws IOException when the daemon can't listen
+     */
+    public void serve() throws IOException {
+        try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            server.setSoTimeout((int) Math.min(Integer.MAX_VALUE, idleTimeoutMillis));
+            PrintStream redirected = new PrintStream(output, true, StandardCharsets.UTF_8);
+            System.setErr(redirected);
+            System.setOut(redirected);
+            writeInfo(server.getLocalPort());
+            daemonLog.println("Substrate daemon listening on port " + server.getLocalPort());
+            try {
+                while (running) {
+                    Socket socket;
+                    try {
+                        socket = server.accept();
+                    } catch (SocketTimeoutException e) {
+                        daemonLog.println("No requests for " + idleTimeoutMillis / 60_000 + " minutes, stopping");
+                        break;
+                    }
+                    try (Socket s = socket) {
+                        handle(s);
+                    } catch (IOException e) {
+                        daemonLog.println("Request failed: " + e);
+                    }
+                    long used = usedMemory();
+                    if (used > maxMemoryBytes) {
+                        daemonLog.println("Heap use of " + (used >> 20) + " MB is above the cap of " +
+                                (maxMemoryBytes >> 20) + " MB, stopping");
+                        break;
+                    }
+                }
+            } finally {
+                deleteInfo(server.getLocalPort());
+            }
+        }
+    }
+
+    private void handle(Socket socket) throws IOException {
+        socket.setSoTimeout(REQUEST_READ_TIMEOUT_MILLIS);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        Properties request = new Properties();
+        String line;
+        while ((line = reader.readLine()) != null && !line.isEmpty()) {
+            int separator = line.indexOf('=');
+            if (separator > 0) {
+                request.setProperty(line.substring(0, separator), line.substring(separator + 1));
+            }
+        }
+        socket.setSoTimeout(0);
+        OutputStream socketOutput = socket.getOutputStream();
+        ClientOutputStream client = new ClientOutputStream(socketOutput);
+        String presented = request.getProperty("token", "");
+        if (!MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8), presented.getBytes(StandardCharsets.UTF_8))) {
+            client.writeLine(EXIT_PREFIX + EXIT_REJECTED);
+            return;
+        }
+        requests++;
+        int result = execute(request, client);
+        client.flushLine();
+        client.writeLine(EXIT_PREFIX + result);
+    }
+
+    private int execute(Properties request, ClientOutputStream client) {
+        String command = request.getProperty("command", "build");
+        PrintStream clientStream = System.err;
+        output.redirect(client);
+        long start = System.nanoTime();
+        try {
+            switch (command) {
+                case "build":
+                    return SubstrateDispatcher.build(request) ? 0 : EXIT_ERROR;
+                case "compile":
+                    return SubstrateDispatcher.nativeCompile(SubstrateDispatcher.getBuildRoot(request),
+                            SubstrateDispatcher.createConfiguration(request), request.getProperty("imagecp")) ? 0 : EXIT_ERROR;
+                case "link":
+                    return SubstrateDispatcher.nativeLink(SubstrateDispatcher.getBuildRoot(request),
+                            SubstrateDispatcher.createConfiguration(request)) ? 0 : EXIT_ERROR;
+                case "run":
+                    ProjectConfiguration config = SubstrateDispatcher.createConfiguration(request);
+                    return SubstrateDispatcher.nativeRun(SubstrateDispatcher.getBuildRoot(request), config) ? 0 : EXIT_ERROR;
+                case "status":
+                    printStatus(clientStream);
+                    return 0;
+                case "stop":
+                    running = false;
+                    clientStream.println("Substrate daemon stopping");
+                    return 0;
+                default:
+                    clientStream.println("Unknown command " + command);
+                    return EXIT_ERROR;
+            }
+        } catch (Exception e) {
+            e.printStackTrace(clientStream);
+            return EXIT_ERROR;
+        } finally {
+            clientStream.flush();
+            output.redirect(daemonLog);
+            daemonLog.println("Request " + requests + " (" + command + ") took " +
+                    (System.nanoTime() - start) / 1_000_000 + " ms");
+        }
+    }
+
+    private void printStatus(PrintStream stream) {
+        stream.println("Substrate daemon, up for " + (System.currentTimeMillis() - started) / 1000 + " s, " +
+                requests + " requests served");
+        stream.println("Heap: " + (usedMemory() >> 20) + " MB used, cap " + (maxMemoryBytes >> 20) + " MB");
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private void writeInfo(int port) throws IOException {
+        Files.createDirectories(INFO_FILE.getParent());
+        Path tmp = Files.createTempFile(INFO_FILE.getParent(), "daemon", ".tmp");
+        try {
+            Files.setPosixFilePermissions(tmp, PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException e) {
+            // not a posix file system, the user folder has to protect it
+        }
+        Properties info = new Properties();
+        info.setProperty("port", Integer.toString(port));
+        info.setProperty("token", token);
+        info.setProperty("pid", Long.toString(ProcessHandle.current().pid()));
+        try (OutputStream os = Files.newOutputStream(tmp)) {
+            info.store(os, "Substrate daemon");
+        }
+        Files.move(tmp, INFO_FILE, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void deleteInfo(int port) {
+        // a newer daemon might have replaced the file already
+        Properties info = readInfo();
+        if (info != null && Integer.toString(port).equals(info.getProperty("port"))) {
+            try {
+                Files.deleteIfExists(INFO_FILE);
+            } catch (IOException e) {
+                System.err.println("Could not delete " + INFO_FILE + ": " + e);
+            }
+        }
+    }
+
+    /**
+     * @return the port, token and pid of the running daemon, or <code>null</code> if there is none
+     */
+    static Properties readInfo() {
+        if (!Files.isRegularFile(INFO_FILE)) {
+            return null;
+        }
+        Properties info = new Properties();
+        try (InputStream is = Files.newInputStream(INFO_FILE)) {
+            info.load(is);
+        } catch (IOException e) {
+            return null;
+        }
+        return info;
+    }
+
+    /**
+     * Sends every line that is written to the client, prefixed with {@link #OUTPUT_PREFIX}
+     */
+    private static class ClientOutputStream extends OutputStream {
+
+        private final OutputStream socket;
+        private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+
+        ClientOutputStream(OutputStream socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public synchronized void write(int b) throws IOException {
+            if (b == '\n') {
+                writeLine(OUTPUT_PREFIX + pending.toString(StandardCharsets.UTF_8));
+                pending.reset();
+            } else {
+                pending.write(b);
+            }
+        }
+
+        synchronized void flushLine() throws IOException {
+            if (pending.size() > 0) {
+                write('\n');
+            }
+        }
+
+        synchronized void writeLine(String text) throws IOException {
+            socket.write((text + "\n").getBytes(StandardCharsets.UTF_8));
+            socket.flush();
+        }
+    }
+
+    /**
+     * Writes to the client of the current request, or to the log of the daemon between requests
+     */
+    private static class RedirectingOutputStream extends OutputStream {
+
+        private volatile OutputStream target;
+
+        RedirectingOutputStream(OutputStream target) {
+            this.target = target;
+        }
+
+        void redirect(OutputStream target) {
+            this.target = target;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            target.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            target.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            target.flush();
+        }
+    }
+}
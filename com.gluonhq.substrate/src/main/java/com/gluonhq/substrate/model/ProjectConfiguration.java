@@ -49,6 +49,16 @@ public class ProjectConfiguration {
     private boolean useJNI = true;
     private boolean useJavaFX = false;
     private boolean enableCheckHash = true;
+    private boolean keepDependencyZips = false;
+    private String nativeImageMaxHeap;
+    private int nativeImageThreads = 0;
+    private String linker;
+    private boolean linkGcSections = false;
+    private boolean linkIdenticalCodeFolding = false;
+    private boolean linkTimeOptimization = false;
+    private boolean sharedLibrary = false;
+    private int isolatePoolSize = 0;
+    private String isolatePoolEntryPoint = "handle";
     private boolean verbose = false;
 
     private Triplet targetTriplet;
@@ -59,8 +69,11 @@ public class ProjectConfiguration {
     private List<String> reflectionList;
     private List<String> jniList;
     private List<String> delayInitList;
+    private List<String> buildInitList;
+    private boolean useAgentConfig = false;
     private List<String> runtimeArgsList;
     private List<String> releaseSymbolsList;
+    private List<String> nativeImageArgsList;
 
     private String appName;
     private String mainClassName;
@@ -226,6 +239,132 @@ public class ProjectConfiguration {
         this.enableCheckHash = enableCheckHash;
     }
 
+    public boolean isKeepDependencyZips() {
+        return keepDependencyZips;
+    }
+
+    /**
+     * Keeps the zip files of downloaded dependencies under ~/.gluon/substrate after they are extracted.
+     * By default they are extracted while they are downloaded, and never stored.
+     * @param keepDependencyZips true to keep the zip files
+     */
+    public void setKeepDependencyZips(boolean keepDependencyZips) {
+        this.keepDependencyZips = keepDependencyZips;
+    }
+
+    public String getNativeImageMaxHeap() {
+        return nativeImageMaxHeap;
+    }
+
+    /**
+     * Sets the maximum heap of the native-image builder, e.g. "6g" or "4096m".
+     * By default it is derived from the memory of the host or container.
+     * @param nativeImageMaxHeap the maximum heap, or null to derive it
+     */
+    public void setNativeImageMaxHeap(String nativeImageMaxHeap) {
+        this.nativeImageMaxHeap = nativeImageMaxHeap;
+    }
+
+    public int getNativeImageThreads() {
+        return nativeImageThreads;
+    }
+
+    /**
+     * Sets the number of threads the native-image builder uses.
+     * By default it is the number of CPUs available to the host or container.
+     * @param nativeImageThreads the number of threads, or 0 to derive it
+     */
+    public void setNativeImageThreads(int nativeImageThreads) {
+        this.nativeImageThreads = nativeImageThreads;
+    }
+
+    public String getLinker() {
+        return linker;
+    }
+
+    /**
+     * Selects the linker gcc uses (Linux only): "bfd", "gold", "lld" or "mold".
+     * When the linker isn't installed, the default linker is used.
+     * @param linker the name of the linker, or null for the default linker
+     */
+    public void setLinker(String linker) {
+        this.linker = linker;
+    }
+
+    public boolean isLinkGcSections() {
+        return linkGcSections;
+    }
+
+    /**
+     * Removes unused sections from the binary (--gc-sections, or -dead_strip on macOS)
+     * @param linkGcSections true to remove unused sections
+     */
+    public void setLinkGcSections(boolean linkGcSections) {
+        this.linkGcSections = linkGcSections;
+    }
+
+    public boolean isLinkIdenticalCodeFolding() {
+        return linkIdenticalCodeFolding;
+    }
+
+    /**
+     * Folds identical functions into one (--icf=safe). Requires the gold, lld or mold linker.
+     * @param linkIdenticalCodeFolding true to fold identical functions
+     */
+    public void setLinkIdenticalCodeFolding(boolean linkIdenticalCodeFolding) {
+        this.linkIdenticalCodeFolding = linkIdenticalCodeFolding;
+    }
+
+    public boolean isLinkTimeOptimization() {
+        return linkTimeOptimization;
+    }
+
+    /**
+     * Compiles the C sources of the launcher with -flto, and optimizes them when linking
+     * @param linkTimeOptimization true to enable link time optimization
+     */
+    public void setLinkTimeOptimization(boolean linkTimeOptimization) {
+        this.linkTimeOptimization = linkTimeOptimization;
+    }
+
+    public boolean isSharedLibrary() {
+        return sharedLibrary;
+    }
+
+    /**
+     * Links a shared library with a C header for the @CEntryPoint methods, instead of an executable
+     * @param sharedLibrary true to link a shared library
+     */
+    public void setSharedLibrary(boolean sharedLibrary) {
+        this.sharedLibrary = sharedLibrary;
+    }
+
+    public int getIsolatePoolSize() {
+        return isolatePoolSize;
+    }
+
+    /**
+     * Generates a launcher with a pool of isolates, one per worker thread, that handles the lines read
+     * from stdin or a Unix socket with the entry point {@link #getIsolatePoolEntryPoint()}
+     * @param isolatePoolSize the number of isolates, or 0 for the launcher of the main method
+     */
+    public void setIsolatePoolSize(int isolatePoolSize) {
+        this.isolatePoolSize = isolatePoolSize;
+    }
+
+    public String getIsolatePoolEntryPoint() {
+        return isolatePoolEntryPoint;
+    }
+
+    /**
+     * Sets the name of the @CEntryPoint that handles a work unit in the isolate pool:
+     * int name(IsolateThread thread, CCharPointer unit, int length)
+     * @param isolatePoolEntryPoint the name of the entry point, "handle" by default
+     */
+    public void setIsolatePoolEntryPoint(String isolatePoolEntryPoint) {
+        this.isolatePoolEntryPoint = isolatePoolEntryPoint;
+    }
+
     public Triplet getTargetTriplet() {
         return targetTriplet;
     }
@@ -318,6 +457,32 @@ public class ProjectConfiguration {
         this.delayInitList = delayInitList;
     }
 
+    public List<String> getBuildInitList() {
+        return buildInitList;
+    }
+
+    /**
+     * Sets the classes that are initialized when the image is built, e.g. the advice of
+     * {@link com.gluonhq.substrate.util.ClassInitAdvisor}
+     * @param buildInitList a list of classes with static initializers that have no side effects
+     */
+    public void setBuildInitList(List<String> buildInitList) {
+        this.buildInitList = buildInitList;
+    }
+
+    public boolean isUseAgentConfig() {
+        return useAgentConfig;
+    }
+
+    /**
+     * Passes the configuration recorded by native-image-agent to native-image, along with the
+     * configuration generated from the lists, see {@link com.gluonhq.substrate.util.ConfigGenerator}
+     * @param useAgentConfig true to use the configuration of the agent
+     */
+    public void setUseAgentConfig(boolean useAgentConfig) {
+        this.useAgentConfig = useAgentConfig;
+    }
+
     public List<String> getRuntimeArgsList() {
         return runtimeArgsList;
     }
@@ -335,13 +500,26 @@ public class ProjectConfiguration {
     }
 
     /**
-     * Sets additional lists
-     * @param runtimeArgsList a list of classes that will be added to the default runtime args list
+     * Sets the runtime arguments of the isolate, like -Xmx64m, -Xmn16m or -Xss1m. They are embedded
+     * in the launcher, so changing them only requires linking again.
+     * @param runtimeArgsList a list of arguments that are passed before the arguments of the program
      */
     public void setRuntimeArgsList(List<String> runtimeArgsList) {
         this.runtimeArgsList = runtimeArgsList;
     }
 
+    public List<String> getNativeImageArgsList() {
+        return nativeImageArgsList;
+    }
+
+    /**
+     * Sets additional arguments for native-image, like --pgo-instrument
+     * @param nativeImageArgsList a list of arguments that will be passed to native-image
+     */
+    public void setNativeImageArgsList(List<String> nativeImageArgsList) {
+        this.nativeImageArgsList = nativeImageArgsList;
+    }
+
     public String getAppName() {
         return appName;
     }
@@ -378,6 +556,16 @@ public class ProjectConfiguration {
                 ", useJNI=" + useJNI +
                 ", useJavaFX=" + useJavaFX +
                 ", enableCheckHash=" + enableCheckHash +
+                ", keepDependencyZips=" + keepDependencyZips +
+                ", nativeImageMaxHeap='" + nativeImageMaxHeap + '\'' +
+                ", nativeImageThreads=" + nativeImageThreads +
+                ", linker='" + linker + '\'' +
+                ", linkGcSections=" + linkGcSections +
+                ", linkIdenticalCodeFolding=" + linkIdenticalCodeFolding +
+                ", linkTimeOptimization=" + linkTimeOptimization +
+                ", sharedLibrary=" + sharedLibrary +
+                ", isolatePoolSize=" + isolatePoolSize +
+                ", isolatePoolEntryPoint='" + isolatePoolEntryPoint + '\'' +
                 ", verbose=" + verbose +
                 ", targetTriplet=" + targetTriplet +
                 ", hostTriplet=" + hostTriplet +
@@ -387,8 +575,11 @@ public class ProjectConfiguration {
                 ", reflectionList=" + reflectionList +
                 ", jniList=" + jniList +
                 ", delayInitList=" + delayInitList +
+                ", buildInitList=" + buildInitList +
+                ", useAgentConfig=" + useAgentConfig +
                 ", runtimeArgsList=" + runtimeArgsList +
                 ", releaseSymbolsList=" + releaseSymbolsList +
+                ", nativeImageArgsList=" + nativeImageArgsList +
                 ", appName='" + appName + '\'' +
                 ", mainClassName='" + mainClassName + '\'' +
                 '}';
@@ -31,18 +31,51 @@ import com.gluonhq.substrate.Constants;
 import com.gluonhq.substrate.model.ProcessPaths;
 import com.gluonhq.substrate.model.ProjectConfiguration;
 import com.gluonhq.substrate.model.Triplet;
+import com.gluonhq.substrate.util.ArtifactRegistry;
+import com.gluonhq.substrate.util.BackgroundTask;
+import com.gluonhq.substrate.util.BuildMetrics;
+import com.gluonhq.substrate.util.CEntryPointHeader;
+import com.gluonhq.substrate.util.CompileManifest;
+import com.gluonhq.substrate.util.ConfigGenerator;
 import com.gluonhq.substrate.util.FileOps;
+import com.gluonhq.substrate.util.HostResources;
+import com.gluonhq.substrate.util.Logger;
+import com.gluonhq.substrate.util.NativeProcess;
+import com.gluonhq.substrate.util.ObjectCache;
+import com.gluonhq.substrate.util.ProcessRunner;
 
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public abstract class AbstractTargetConfiguration implements TargetConfiguration {
 
+    static final String LAUNCHER_SOURCE = "launcher.c";
+    static final String HOST_SOURCE = "host.c";
+    static final String POOL_SOURCE = "pool.c";
+    static final String ENTRY_POINT_PREFIX = "IsolateEnterStub__JavaMainWrapper__run__";
+
+    private static String compilerVersion;
+    private static final Map<String, Boolean> linkers = new HashMap<>();
+    private static final Map<String, Boolean> pgoSupport = new HashMap<>();
 
     @Override
     public boolean compile(ProcessPaths paths, ProjectConfiguration config, String cp) throws IOException, InterruptedException {
@@ -55,11 +88,7 @@ public abstract class AbstractTargetConfiguration implements TargetConfiguration
         } else {
             throw new IllegalArgumentException("No support yet for "+target.getOs());
         }
-        if (!compileAdditionalSources(paths, config) ) {
-            return false;
-        }
         Path gvmPath = paths.getGvmPath();
-        FileOps.rmdir(paths.getTmpPath());
         String tmpDir = paths.getTmpPath().toFile().getAbsolutePath();
         String mainClassName = config.getMainClassName();
         if (mainClassName == null || mainClassName.isEmpty()) {
@@ -68,45 +97,531 @@ public abstract class AbstractTargetConfiguration implements TargetConfiguration
         if (cp == null || cp.isEmpty()) {
             throw new IllegalArgumentException("No classpath specified. Cannot compile");
         }
+        // the additional sources don't depend on the native-image output, compile them alongside.
+        // The launcher calls the entry point of the image, it is generated and compiled afterwards
+        BackgroundTask<Boolean> additionalSources = BackgroundTask.start("additional-sources",
+                () -> compileAdditionalSources(paths, config));
         String nativeImage = getNativeImagePath(config);
-        ProcessBuilder compileBuilder = new ProcessBuilder(nativeImage);
-        compileBuilder.command().add("-H:+ExitAfterRelocatableImageWrite");
-        compileBuilder.command().add("-H:TempDirectory="+tmpDir);
-        compileBuilder.command().add("-H:+SharedLibrary");
-        compileBuilder.command().add("-Dsvm.platform=org.graalvm.nativeimage.Platform$"+jniPlatform);
-        compileBuilder.command().add("-cp");
-        compileBuilder.command().add(cp);
-        compileBuilder.command().add(mainClassName);
-        compileBuilder.redirectErrorStream(true);
-        Process compileProcess = compileBuilder.start();
-        InputStream inputStream = compileProcess.getInputStream();
-        int result = compileProcess.waitFor();
-        // we will print the output of the process only if we don't have the resulting objectfile
+        ProcessRunner compileRunner = new ProcessRunner(nativeImage);
+        compileRunner.addArg("-H:+ExitAfterRelocatableImageWrite");
+        compileRunner.addArg("-H:TempDirectory="+tmpDir);
+        compileRunner.addArg("-H:+SharedLibrary");
+        compileRunner.addArg("-Dsvm.platform=org.graalvm.nativeimage.Platform$"+jniPlatform);
+        compileRunner.addArgs(ConfigGenerator.generate(paths.getGenPath(), config, cp));
+        if (config.getBuildInitList() != null && !config.getBuildInitList().isEmpty()) {
+            compileRunner.addArg("--initialize-at-build-time=" + String.join(",", config.getBuildInitList()));
+        }
+        if (config.getDelayInitList() != null && !config.getDelayInitList().isEmpty()) {
+            compileRunner.addArg("--initialize-at-run-time=" + String.join(",", config.getDelayInitList()));
+        }
+        if (config.getNativeImageArgsList() != null) {
+            compileRunner.addArgs(config.getNativeImageArgsList());
+        }
+        compileRunner.addArg("-cp");
+        compileRunner.addArg(cp);
+        compileRunner.addArg(mainClassName);
+
+        CompileManifest manifest = CompileManifest.of(config, compileRunner.getCmdList(), cp);
+        CompileManifest previous = CompileManifest.read(gvmPath);
+        List<String> changes = manifest.getChangesFrom(previous);
+        if (changes.isEmpty()) {
+            Logger.logInfo("Inputs unchanged since the last compilation, reusing " + previous.getObjectFile());
+            ArtifactRegistry.register(paths, ArtifactRegistry.OBJECT_FILE, previous.getObjectFile());
+            return additionalSources.join() && compileEntryPoint(paths, config, cp, previous.getObjectFile());
+        }
+        Logger.logInfo("Native compilation required: " + String.join(", ", changes));
+        CompileManifest.invalidate(gvmPath);
+        FileOps.rmdir(paths.getTmpPath());
+        compileRunner.getCmdList().addAll(1, getBuilderOptions(config));
+
+        // the output is streamed to the log while native-image runs, the last lines are
+        // printed again only if we don't have the resulting objectfile
+        compileRunner.setInfo(true);
+        long nativeImageStart = System.nanoTime();
+        int result = BuildMetrics.time("native-image", () -> compileRunner.runProcess("native-image"));
+        long nativeImageMillis = (System.nanoTime() - nativeImageStart) / 1_000_000;
 
         boolean failure = result != 0;
         String extraMessage = null;
+        Path p = null;
         if (!failure) {
             String nameSearch = mainClassName.toLowerCase()+".o";
-            Path p = FileOps.findFile(gvmPath, nameSearch);
+            p = locateObjectFile(paths, nameSearch);
             if (p == null) {
                 failure = true;
                 extraMessage = "Objectfile should be called "+nameSearch+" but we didn't find that under "+gvmPath.toString();
+            } else {
+                ArtifactRegistry.register(paths, ArtifactRegistry.OBJECT_FILE, p);
+                manifest.setObjectFile(p);
+                manifest.write(gvmPath);
             }
         }
         if (failure) {
             System.err.println("Compilation failed with result = " + result);
-            printFromInputStream(inputStream);
+            compileRunner.printResponses();
 
             if (extraMessage!= null) {
                 System.err.println("Additional information: "+extraMessage);
             }
         }
-        return !failure;
+        if (!additionalSources.join()) {
+            return false;
+        }
+        Logger.logDebug("Additional sources compiled in " + additionalSources.getDurationMillis() +
+                " ms while native-image ran for " + nativeImageMillis + " ms");
+        return !failure && compileEntryPoint(paths, config, cp, p);
+    }
+
+
+    /**
+     * The heap and number of threads of the native-image builder: the values of the configuration, or
+     * derived from the memory and CPUs of the host or container. They don't change the resulting image,
+     * so they are not part of the {@link CompileManifest}.
+     * @param config the project configuration
+     * @return the native-image options
+     */
+    static List<String> getBuilderOptions(ProjectConfiguration config) {
+        HostResources resources = HostResources.detect();
+        String maxHeap = config.getNativeImageMaxHeap();
+        if (maxHeap == null || maxHeap.isEmpty()) {
+            maxHeap = resources.getBuilderHeapMb() + "m";
+        }
+        int threads = config.getNativeImageThreads() > 0 ? config.getNativeImageThreads() : resources.getCpus();
+        Logger.logInfo("native-image builder uses a heap of " + maxHeap + " and " + threads +
+                " threads, available are " + resources);
+        BuildMetrics.setProperty("builderMaxHeap", maxHeap);
+        BuildMetrics.setProperty("builderThreads", Integer.toString(threads));
+        BuildMetrics.setProperty("resources", resources.toString());
+        return Arrays.asList("-J-Xmx" + maxHeap, "-H:NumberOfThreads=" + threads);
+    }
+
+    /**
+     * Compiles the C sources of the launcher. Each source is compiled by its own gcc process,
+     * unless the objectfile for the same source, compiler, flags and target is in the {@link ObjectCache}.
+     * @param paths
+     * @param projectConfiguration
+     * @return true if all sources are compiled, false otherwise
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public boolean compileAdditionalSources(ProcessPaths paths, ProjectConfiguration projectConfiguration)
+            throws IOException, InterruptedException {
+        return BuildMetrics.time("additional-sources",
+                () -> compileAdditionalSourcesInWorkDir(paths, projectConfiguration));
+    }
+
+    private boolean compileAdditionalSourcesInWorkDir(ProcessPaths paths, ProjectConfiguration projectConfiguration)
+            throws IOException, InterruptedException {
+        Path workDir = paths.getGvmPath().resolve(projectConfiguration.getAppName());
+        Files.createDirectories(workDir);
+        List<BackgroundTask<Boolean>> jobs = new ArrayList<>();
+        for (String source : getAdditionalSources()) {
+            byte[] content = readResource(getAdditionalSourcesLocation() + source);
+            jobs.add(BackgroundTask.start("gcc-" + source,
+                    () -> compileSource(source, content, workDir, projectConfiguration)));
+        }
+        boolean success = true;
+        for (BackgroundTask<Boolean> job : jobs) {
+            success &= job.join();
+        }
+        return success;
+    }
+
+    /**
+     * Prepares what calls into the image: the launcher of an executable, or the header of a shared library
+     */
+    private boolean compileEntryPoint(ProcessPaths paths, ProjectConfiguration config, String cp, Path objectFile)
+            throws IOException, InterruptedException {
+        return config.isSharedLibrary() ? writeHeaders(paths, config, cp, objectFile) : compileLauncher(paths, config, objectFile);
+    }
+
+    /**
+     * Writes the C headers of a shared library to the folder of the objectfiles. The headers native-image
+     * wrote next to the objectfile are used when there are any, otherwise a header is generated for the
+     * <code>@CEntryPoint</code> methods in the classpath, see {@link CEntryPointHeader}.
+     * @param paths
+     * @param projectConfiguration
+     * @param cp the classpath of the image
+     * @param objectFile the objectfile created by native-image
+     * @return true if the headers are written
+     * @throws IOException
+     */
+    boolean writeHeaders(ProcessPaths paths, ProjectConfiguration projectConfiguration, String cp, Path objectFile)
+            throws IOException {
+        String appName = projectConfiguration.getAppName();
+        Path workDir = paths.getGvmPath().resolve(appName);
+        Files.createDirectories(workDir);
+        List<Path> headers;
+        try (Stream<Path> files = Files.list(objectFile.getParent())) {
+            headers = files.filter(f -> f.toString().endsWith(".h")).collect(Collectors.toList());
+        }
+        if (headers.isEmpty()) {
+            Files.write(workDir.resolve(appName + ".h"),
+                    CEntryPointHeader.generate(cp, appName).getBytes(StandardCharsets.UTF_8));
+        } else {
+            for (Path header : headers) {
+                Files.copy(header, workDir.resolve(header.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Generates the launcher for the entry point in the objectfile of the image, and compiles it.
+     * The launcher passes the runtime arguments of the configuration to the isolate, before the
+     * arguments of the program. With an isolate pool size, the launcher is generated from the pool
+     * template instead, see {@link #generatePoolLauncher(String, int)}.
+     * @param paths
+     * @param projectConfiguration
+     * @param objectFile the objectfile created by native-image
+     * @return true if the launcher is compiled, false otherwise
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    boolean compileLauncher(ProcessPaths paths, ProjectConfiguration projectConfiguration, Path objectFile)
+            throws IOException, InterruptedException {
+        return BuildMetrics.time("launcher", () -> generateAndCompileLauncher(paths, projectConfiguration, objectFile));
+    }
+
+    private boolean generateAndCompileLauncher(ProcessPaths paths, ProjectConfiguration projectConfiguration,
+            Path objectFile) throws IOException, InterruptedException {
+        Path workDir = paths.getGvmPath().resolve(projectConfiguration.getAppName());
+        Files.createDirectories(workDir);
+        int poolSize = projectConfiguration.getIsolatePoolSize();
+        if (poolSize > 0) {
+            String poolEntryPoint = projectConfiguration.getIsolatePoolEntryPoint();
+            if (!hasSymbol(objectFile, poolEntryPoint)) {
+                System.err.println("Compilation of the isolate pool failed, there is no @CEntryPoint " +
+                        poolEntryPoint + " in " + objectFile);
+                return false;
+            }
+            Logger.logDebug("Isolate pool of " + poolSize + " isolates, with entry point " + poolEntryPoint);
+            String pool = generatePoolLauncher(poolEntryPoint, poolSize);
+            return compileSource(LAUNCHER_SOURCE, pool.getBytes(StandardCharsets.UTF_8), workDir, projectConfiguration);
+        }
+        String entryPoint = findEntryPoint(objectFile);
+        if (entryPoint == null) {
+            System.err.println("Compilation of the launcher failed, there is no entry point " +
+                    ENTRY_POINT_PREFIX + "* in " + objectFile);
+            return false;
+        }
+        Logger.logDebug("Entry point of the image: " + entryPoint);
+        String template = new String(readResource(getAdditionalSourcesLocation() + LAUNCHER_SOURCE),
+                StandardCharsets.UTF_8);
+        String launcher = template
+                .replace("${ENTRY_POINT}", entryPoint)
+                .replace("${RUNTIME_ARGS}", toCStrings(projectConfiguration.getRuntimeArgsList()));
+        return compileSource(LAUNCHER_SOURCE, launcher.getBytes(StandardCharsets.UTF_8), workDir, projectConfiguration);
     }
 
+    /**
+     * Compiles a C source with its own gcc process, unless the objectfile for the same source,
+     * compiler, flags and target is in the {@link ObjectCache}.
+     * @return true if the objectfile is there
+     */
+    private boolean compileSource(String source, byte[] content, Path workDir, ProjectConfiguration projectConfiguration)
+            throws IOException, InterruptedException {
+        List<String> flags = getAdditionalSourcesFlags(projectConfiguration);
+        String key = ObjectCache.key(content, getCompilerVersion(), flags,
+                projectConfiguration.getTargetTriplet().toString());
+        Path objectFile = workDir.resolve(source.replaceAll("\\.c$", ".o"));
+        if (ObjectCache.restore(key, objectFile)) {
+            Logger.logDebug("Using cached " + objectFile.getFileName() + " for " + source);
+            return true;
+        }
+        Files.write(workDir.resolve(source), content);
+        ProcessRunner processRunner = new ProcessRunner("gcc");
+        processRunner.addArgs(flags);
+        processRunner.addArg(source);
+        processRunner.setDirectory(workDir);
+        int result = processRunner.runProcess("gcc " + source);
+        if (result != 0 || !Files.exists(objectFile)) {
+            System.err.println("Compilation of " + source + " failed with result = " + result);
+            processRunner.printResponses();
+            return false;
+        }
+        ObjectCache.store(key, objectFile);
+        return true;
+    }
 
-    public abstract boolean compileAdditionalSources(ProcessPaths paths, ProjectConfiguration projectConfiguration)
-            throws IOException, InterruptedException;
+    /**
+     * Finds the entry point of the image: the <code>IsolateEnterStub</code> of <code>JavaMainWrapper.run</code>.
+     * Its name contains hashes of the image, so it is read from the symbols of the objectfile.
+     * @param objectFile the objectfile created by native-image
+     * @return the name of the entry point, as used in C, or null if it isn't found
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    static String findEntryPoint(Path objectFile) throws IOException, InterruptedException {
+        return findSymbol(objectFile, symbol -> symbol.startsWith(ENTRY_POINT_PREFIX));
+    }
+
+    /**
+     * @return true if the objectfile defines the global function, e.g. a named @CEntryPoint
+     */
+    static boolean hasSymbol(Path objectFile, String name) throws IOException, InterruptedException {
+        return findSymbol(objectFile, name::equals) != null;
+    }
+
+    // the first global function of the objectfile that matches, as used in C
+    private static String findSymbol(Path objectFile, Predicate<String> matcher) throws IOException, InterruptedException {
+        ProcessBuilder nm = new ProcessBuilder("nm", "-g", objectFile.toString());
+        nm.redirectError(ProcessBuilder.Redirect.DISCARD);
+        Process process = nm.start();
+        String found = null;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while (found == null && (line = reader.readLine()) != null) {
+                String[] fields = line.trim().split("\\s+");
+                if (fields.length == 3 && "T".equals(fields[1])) {
+                    String symbol = fields[2];
+                    if (matcher.test(symbol)) {
+                        found = symbol;
+                    } else if (symbol.startsWith("_") && matcher.test(symbol.substring(1))) {
+                        // Mach-O symbols have a leading underscore that C doesn't use
+                        found = symbol.substring(1);
+                    }
+                }
+            }
+        } finally {
+            process.destroy();
+            process.waitFor();
+        }
+        return found;
+    }
+
+    /**
+     * Generates the source of the isolate pool launcher: <code>poolSize</code> worker threads, each with its
+     * own isolate, that call the entry point for every work unit.
+     * @param entryPoint the name of the @CEntryPoint that handles a work unit
+     * @param poolSize the number of isolates
+     * @return the C source
+     * @throws IOException
+     */
+    String generatePoolLauncher(String entryPoint, int poolSize) throws IOException {
+        String template = new String(readResource(getAdditionalSourcesLocation() + POOL_SOURCE), StandardCharsets.UTF_8);
+        return template
+                .replace("${ENTRY_POINT}", entryPoint)
+                .replace("${POOL_SIZE}", Integer.toString(poolSize));
+    }
+
+    // a C array initializer for the strings, e.g. "-Xmx64m", "-Xss1m",
+    static String toCStrings(List<String> values) {
+        StringBuilder sb = new StringBuilder();
+        if (values != null) {
+            for (String value : values) {
+                sb.append('"');
+                for (char c : value.toCharArray()) {
+                    if (c == '"' || c == '\\') {
+                        sb.append('\\');
+                    }
+                    sb.append(c);
+                }
+                sb.append("\", ");
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the names of the C sources that are compiled alongside native-image, the launcher is
+     * generated and compiled afterwards, see {@link #compileLauncher(ProcessPaths, ProjectConfiguration, Path)}
+     */
+    List<String> getAdditionalSources() {
+        return Arrays.asList("thread.c");
+    }
+
+    /**
+     * @return the resource folder that contains the C sources of the launcher
+     */
+    String getAdditionalSourcesLocation() {
+        return "/native/linux/";
+    }
+
+    List<String> getAdditionalSourcesFlags(ProjectConfiguration projectConfiguration) {
+        List<String> flags = new ArrayList<>();
+        flags.add("-c");
+        String graalPath = projectConfiguration.getGraalPath();
+        Triplet target = projectConfiguration.getTargetTriplet();
+        if (graalPath != null && target != null) {
+            // thread.c implements JVM entry points with the jni.h of the GraalVM JDK
+            Path include = Path.of(graalPath, "include");
+            flags.add("-I" + include);
+            flags.add("-I" + include.resolve(target.getOs()));
+        }
+        if (projectConfiguration.isVerbose()) {
+            flags.add("-DGVM_VERBOSE");
+        }
+        if (projectConfiguration.isLinkGcSections() || projectConfiguration.isLinkIdenticalCodeFolding()) {
+            // a section per function and variable, so the linker can drop or fold them one by one
+            flags.add("-ffunction-sections");
+            flags.add("-fdata-sections");
+        }
+        if (projectConfiguration.isLinkTimeOptimization()) {
+            flags.add("-flto");
+        }
+        if (projectConfiguration.isSharedLibrary()) {
+            flags.add("-fPIC");
+        }
+        return flags;
+    }
+
+    /**
+     * @param projectConfiguration the project configuration
+     * @return the flags that select the linker and its optimizations
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    List<String> getLinkerFlags(ProjectConfiguration projectConfiguration) throws IOException, InterruptedException {
+        List<String> flags = new ArrayList<>();
+        String linker = projectConfiguration.getLinker();
+        boolean foldingSupported = false;
+        if (linker != null && !linker.isEmpty()) {
+            if (isLinkerAvailable(linker)) {
+                flags.add("-fuse-ld=" + linker);
+                foldingSupported = !"bfd".equals(linker);
+            } else {
+                System.err.println("WARNING: the " + linker + " linker is not available, using the default linker");
+            }
+        }
+        if (projectConfiguration.isLinkGcSections()) {
+            flags.add("-Wl,--gc-sections");
+        }
+        if (projectConfiguration.isLinkIdenticalCodeFolding()) {
+            if (foldingSupported) {
+                flags.add("-Wl,--icf=safe");
+            } else {
+                System.err.println("WARNING: identical code folding needs the gold, lld or mold linker, it is skipped");
+            }
+        }
+        if (projectConfiguration.isLinkTimeOptimization()) {
+            flags.add("-flto");
+        }
+        return flags;
+    }
+
+    /**
+     * @param linker the name of the linker, e.g. gold
+     * @return true if gcc can link with this linker, probed once per JVM
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    static synchronized boolean isLinkerAvailable(String linker) throws IOException, InterruptedException {
+        Boolean available = linkers.get(linker);
+        if (available == null) {
+            ProcessRunner runner = new ProcessRunner("gcc", "-fuse-ld=" + linker, "-Wl,--version");
+            runner.setTimeout(30, TimeUnit.SECONDS);
+            available = runner.runProcess("linker-" + linker) == 0;
+            Logger.logDebug("Linker " + linker + (available ? ": " + runner.getResponses().stream().findFirst().orElse("")
+                    : " is not available"));
+            linkers.put(linker, available);
+        }
+        return available;
+    }
+
+    /**
+     * @param config the project configuration
+     * @return true if the native-image of the GraalVM installation supports profile-guided
+     * optimization, probed once per installation
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static synchronized boolean isPgoSupported(ProjectConfiguration config) throws IOException, InterruptedException {
+        String nativeImage = getNativeImagePath(config);
+        Boolean supported = pgoSupport.get(nativeImage);
+        if (supported == null) {
+            ProcessRunner runner = new ProcessRunner(nativeImage, "--help");
+            runner.setTimeout(60, TimeUnit.SECONDS);
+            // the option can be anywhere in the help, not only in the tail that the runner keeps
+            AtomicBoolean listed = new AtomicBoolean();
+            runner.setOutputListener(line -> {
+                if (line.contains("--pgo-instrument")) {
+                    listed.set(true);
+                }
+            });
+            supported = runner.runProcess("native-image-help") == 0 && listed.get();
+            Logger.logDebug("Profile-guided optimization " + (supported ? "is" : "is not") + " supported by " + nativeImage);
+            pgoSupport.put(nativeImage, supported);
+        }
+        return supported;
+    }
+
+    @Override
+    public InputStream run(Path appPath, String appName) throws IOException {
+        return run(appPath, appName, List.of(), null);
+    }
+
+    @Override
+    public InputStream run(Path appPath, String appName, List<String> args, Path workDir) throws IOException {
+        ProcessBuilder runBuilder = new ProcessBuilder(getAppCommand(appPath, appName, args));
+        if (workDir != null) {
+            runBuilder.directory(workDir.toFile());
+        }
+        runBuilder.redirectErrorStream(true);
+        return runBuilder.start().getInputStream();
+    }
+
+    @Override
+    public boolean runUntilEnd(Path appPath, String appName) throws IOException, InterruptedException {
+        return runUntilEnd(appPath, appName, List.of(), null);
+    }
+
+    @Override
+    public boolean runUntilEnd(Path appPath, String appName, List<String> args, Path workDir)
+            throws IOException, InterruptedException {
+        NativeProcess process = createProcess(appPath, appName, args, workDir);
+        process.setMergeErrors(true);
+        process.setOutputListener(System.err::println);
+        process.start();
+        try {
+            // the output is printed once, by the listener, before the result is reported
+            NativeProcess.Result result = process.waitFor();
+            Logger.logDebug(appName + " finished: " + result);
+            return result.isSuccess();
+        } catch (InterruptedException e) {
+            process.cancel();
+            throw e;
+        }
+    }
+
+    @Override
+    public NativeProcess createProcess(Path appPath, String appName, List<String> args, Path workDir) {
+        NativeProcess process = new NativeProcess(getAppCommand(appPath, appName, args));
+        process.setDirectory(workDir);
+        return process;
+    }
+
+    private static List<String> getAppCommand(Path appPath, String appName, List<String> args) {
+        List<String> command = new ArrayList<>();
+        command.add(appPath.resolve(appName).toString());
+        command.addAll(args);
+        return command;
+    }
+
+    /**
+     * @return the first line of <code>gcc --version</code>, probed once per JVM
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    static synchronized String getCompilerVersion() throws IOException, InterruptedException {
+        if (compilerVersion == null) {
+            ProcessRunner runner = new ProcessRunner("gcc", "--version");
+            runner.setTimeout(30, TimeUnit.SECONDS);
+            runner.runProcess("gcc-version");
+            List<String> responses = runner.getResponses();
+            compilerVersion = responses.isEmpty() ? "" : responses.get(0);
+        }
+        return compilerVersion;
+    }
+
+    private static byte[] readResource(String resource) throws IOException {
+        try (InputStream is = FileOps.resourceAsStream(resource)) {
+            if (is == null) {
+                throw new IOException("Could not read resource named " + resource + " as it doesn't exist");
+            }
+            return is.readAllBytes();
+        }
+    }
 
 
     @Override
@@ -121,65 +636,122 @@ public abstract class AbstractTargetConfiguration implements TargetConfiguration
         String objectFilename = projectConfiguration.getMainClassName().toLowerCase()+".o";
         Triplet target = projectConfiguration.getTargetTriplet();
         Path gvmPath = paths.getGvmPath();
-        Path objectFile = FileOps.findFile(gvmPath, objectFilename);
+        Path objectFile = ArtifactRegistry.lookup(paths, ArtifactRegistry.OBJECT_FILE);
+        if (objectFile == null || !objectFile.getFileName().toString().equals(objectFilename)) {
+            objectFile = locateObjectFile(paths, objectFilename);
+        }
         if (objectFile == null) {
             throw new IllegalArgumentException("Linking failed, since there is no objectfile named "+objectFilename+" under "
                     +gvmPath.toString());
         }
-        ProcessBuilder linkBuilder = new ProcessBuilder("gcc");
+        boolean sharedLibrary = projectConfiguration.isSharedLibrary();
+        String output = sharedLibrary ? getSharedLibraryName(appName) : appName;
+        ProcessRunner linkRunner = new ProcessRunner("gcc");
         Path linux = gvmPath.resolve(appName);
 
-        linkBuilder.command().add("-o");
-        linkBuilder.command().add(paths.getAppPath().toString() + "/" + appName);
-        linkBuilder.command().add(linux.toString() + "/launcher.o");
-        linkBuilder.command().add(linux.toString() + "/thread.o");
-        linkBuilder.command().add(objectFile.toString());
-        linkBuilder.command().add("-L" + projectConfiguration.getJavaStaticLibsPath());
-        linkBuilder.command().add("-L"+projectConfiguration.getGraalPath()+"/lib/svm/clibraries/"+target.getOsArch2());// darwin-amd64");
-        linkBuilder.command().add("-ljava");
-        linkBuilder.command().add("-ljvm");
-        linkBuilder.command().add("-llibchelper");
-        linkBuilder.command().add("-lnio");
-        linkBuilder.command().add("-lzip");
-        linkBuilder.command().add("-lnet");
-        linkBuilder.command().add("-lpthread");
-        linkBuilder.command().add("-lz");
-        linkBuilder.command().add("-ldl");
-        linkBuilder.command().addAll(getTargetSpecificLinkFlags());
-        linkBuilder.redirectErrorStream(true);
-        Process compileProcess = linkBuilder.start();
-        InputStream inputStream = compileProcess.getInputStream();
-        int result = compileProcess.waitFor();
+        linkRunner.addArg("-o");
+        linkRunner.addArg(paths.getAppPath().toString() + "/" + output);
+        if (sharedLibrary) {
+            linkRunner.addArgs(getSharedLibraryFlags(output));
+        } else {
+            linkRunner.addArg(linux.toString() + "/launcher.o");
+        }
+        linkRunner.addArg(linux.toString() + "/thread.o");
+        linkRunner.addArg(objectFile.toString());
+        linkRunner.addArg("-L" + projectConfiguration.getJavaStaticLibsPath());
+        linkRunner.addArg("-L"+projectConfiguration.getGraalPath()+"/lib/svm/clibraries/"+target.getOsArch2());// darwin-amd64");
+        linkRunner.addArg("-ljava");
+        linkRunner.addArg("-ljvm");
+        linkRunner.addArg("-llibchelper");
+        linkRunner.addArg("-lnio");
+        linkRunner.addArg("-lzip");
+        linkRunner.addArg("-lnet");
+        linkRunner.addArg("-lpthread");
+        linkRunner.addArg("-lz");
+        linkRunner.addArg("-ldl");
+        linkRunner.addArgs(getLinkerFlags(projectConfiguration));
+        linkRunner.addArgs(getTargetSpecificLinkFlags());
+        int result = BuildMetrics.time("link", () -> linkRunner.runProcess("link"));
         if (result != 0 ) {
             System.err.println("Linking failed. Details from linking below:");
-            printFromInputStream(inputStream);
+            linkRunner.printResponses();
+            return false;
+        }
+        long binarySize = Files.size(paths.getAppPath().resolve(output));
+        BuildMetrics.setProperty("binarySize", Long.toString(binarySize));
+        Logger.logDebug("Linked " + output + ", " + binarySize + " bytes");
+        return !sharedLibrary || installSharedLibrary(paths, projectConfiguration, output);
+    }
+
+    /**
+     * Copies the headers of the shared library next to it, and compiles the test host: a C program
+     * that loads the library and calls an entry point in a loop, see <code>host.c</code>.
+     * @return true if the test host is compiled
+     */
+    private boolean installSharedLibrary(ProcessPaths paths, ProjectConfiguration projectConfiguration, String library)
+            throws IOException, InterruptedException {
+        String appName = projectConfiguration.getAppName();
+        Path appPath = paths.getAppPath();
+        try (Stream<Path> files = Files.list(paths.getGvmPath().resolve(appName))) {
+            for (Path header : files.filter(f -> f.toString().endsWith(".h")).collect(Collectors.toList())) {
+                Files.copy(header, appPath.resolve(header.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Path host = FileOps.copyResource(getAdditionalSourcesLocation() + HOST_SOURCE,
+                paths.getGvmPath().resolve(appName).resolve(HOST_SOURCE));
+        ProcessRunner hostRunner = new ProcessRunner("gcc", "-O2", "-o", appPath.resolve(appName + "-host").toString(),
+                host.toString(), "-ldl");
+        if (hostRunner.runProcess("host") != 0) {
+            System.err.println("Compilation of the test host failed");
+            hostRunner.printResponses();
             return false;
         }
+        System.err.println("Shared library: " + appPath.resolve(library) + "\nTest host: " +
+                appPath.resolve(appName + "-host") + " " + appPath.resolve(library) + " <entry point> [calls]");
         return true;
     }
 
+    /**
+     * @param appName the name of the application
+     * @return the file name of the shared library
+     */
+    String getSharedLibraryName(String appName) {
+        return "lib" + appName + ".so";
+    }
+
+    /**
+     * @param library the file name of the shared library
+     * @return the flags to link a shared library
+     */
+    List<String> getSharedLibraryFlags(String library) {
+        return Arrays.asList("-shared", "-Wl,-soname," + library);
+    }
+
     abstract List<String> getTargetSpecificLinkFlags();
 
-    void asynPrintFromInputStream (InputStream inputStream) throws IOException {
-        Thread t = new Thread() {
-            @Override public void run() {
-                try {
-                    printFromInputStream(inputStream);
-                } catch (IOException e) {
-                    e.printStackTrace();
+    /**
+     * Finds the objectfile that native-image created. It is written in a <code>SVM-*</code> folder
+     * directly under the tmp folder, so only those are checked. As a fallback, the gvm folder is
+     * searched a few levels deep, without entering the tmp folder (that can hold many thousands of files).
+     * @param paths
+     * @param objectFilename the name of the objectfile
+     * @return the objectfile, or <code>null</code> if it isn't found
+     * @throws IOException
+     */
+    Path locateObjectFile(ProcessPaths paths, String objectFilename) throws IOException {
+        Path tmpPath = paths.getTmpPath();
+        if (Files.isDirectory(tmpPath)) {
+            try (Stream<Path> dirs = Files.list(tmpPath)) {
+                Optional<Path> objectFile = dirs
+                        .map(dir -> dir.resolve(objectFilename))
+                        .filter(Files::isRegularFile)
+                        .max(Comparator.comparing(p -> p.toFile().lastModified()));
+                if (objectFile.isPresent()) {
+                    return objectFile.get();
                 }
             }
-        };
-        t.start();
-    }
-
-    void printFromInputStream(InputStream inputStream) throws IOException {
-        BufferedReader br = new BufferedReader(new InputStreamReader(inputStream));
-        String l = br.readLine();
-        while (l != null) {
-            System.err.println(l);
-            l = br.readLine();
         }
+        return FileOps.findFile(paths.getGvmPath(), objectFilename, 3, tmpPath);
     }
 
     static String getNativeImagePath (ProjectConfiguration configuration) {
@@ -29,47 +29,20 @@ package com.gluonhq.substrate.target;
 
 import com.gluonhq.substrate.model.ProcessPaths;
 import com.gluonhq.substrate.model.ProjectConfiguration;
-import com.gluonhq.substrate.util.FileOps;
 
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 
 public class DarwinTargetConfiguration extends AbstractTargetConfiguration {
 
-    public boolean compileAdditionalSources(ProcessPaths paths, ProjectConfiguration projectConfiguration)
-            throws IOException, InterruptedException {
-        String appName = projectConfiguration.getAppName();
-        Path workDir = paths.getGvmPath().resolve(appName);
-        Files.createDirectories(workDir);
-        FileOps.copyResource("/native/linux/launcher.c", workDir.resolve("launcher.c"));
-        FileOps.copyResource("/native/linux/thread.c", workDir.resolve("thread.c"));
-        ProcessBuilder processBuilder = new ProcessBuilder("gcc");
-        processBuilder.command().add("-c");
-        if (projectConfiguration.isVerbose()) {
-            processBuilder.command().add("-DGVM_VERBOSE");
-        }
-        processBuilder.command().add("launcher.c");
-        processBuilder.command().add("thread.c");
-        processBuilder.directory(workDir.toFile());
-        String cmds = String.join(" ", processBuilder.command());
-        processBuilder.redirectErrorStream(true);
-        Process p = processBuilder.start();
-        InputStream inputStream = p.getInputStream();
-        int result = p.waitFor();
-        if (result != 0) {
-            System.err.println("Compilation of additional sources failed with result = " + result);
-            printFromInputStream(inputStream);
-            return false;
-        } // we need more checks (e.g. do launcher.o and thread.o exist?)
-        return true;
-    }
 //
 //    @Override
 //    public boolean link(ProcessPaths paths, ProjectConfiguration projectConfiguration) throws IOException, InterruptedException {
@@ -120,36 +93,35 @@ public class DarwinTargetConfiguration extends AbstractTargetConfiguration {
 //    }
 
     @Override
-    List<String> getTargetSpecificLinkFlags() {
-        LinkedList<String> answer = new LinkedList<>();
-        answer.add("-Wl,-framework,Foundation");
-        return answer;
+    String getSharedLibraryName(String appName) {
+        return "lib" + appName + ".dylib";
     }
 
-
     @Override
-    public InputStream run(Path appPath, String appName) throws IOException, InterruptedException {
-        ProcessBuilder runBuilder = new ProcessBuilder(appPath.toString() + "/" + appName);
-        runBuilder.redirectErrorStream(true);
-        Process runProcess = runBuilder.start();
-        InputStream is = runProcess.getInputStream();
-        return is;
+    List<String> getSharedLibraryFlags(String library) {
+        return Arrays.asList("-dynamiclib", "-Wl,-install_name,@rpath/" + library);
     }
 
-
     @Override
-    public boolean runUntilEnd(Path appPath, String appName) throws IOException, InterruptedException {
-        ProcessBuilder runBuilder = new ProcessBuilder(appPath.toString() + "/" + appName);
-        runBuilder.redirectErrorStream(true);
-        Process runProcess = runBuilder.start();
-        InputStream is = runProcess.getInputStream();
-        asynPrintFromInputStream(is);
-        int result = runProcess.waitFor();
-        if (result != 0 ) {
-            printFromInputStream(is);
-            return false;
+    List<String> getLinkerFlags(ProjectConfiguration projectConfiguration) {
+        // the Xcode toolchain has a single linker, without identical code folding
+        List<String> flags = new ArrayList<>();
+        if (projectConfiguration.getLinker() != null || projectConfiguration.isLinkIdenticalCodeFolding()) {
+            System.err.println("WARNING: the linker can't be selected on macOS, and identical code folding is skipped");
         }
-        return true;
+        if (projectConfiguration.isLinkGcSections()) {
+            flags.add("-Wl,-dead_strip");
+        }
+        if (projectConfiguration.isLinkTimeOptimization()) {
+            flags.add("-flto");
+        }
+        return flags;
     }
 
+    @Override
+    List<String> getTargetSpecificLinkFlags() {
+        LinkedList<String> answer = new LinkedList<>();
+        answer.add("-Wl,-framework,Foundation");
+        return answer;
+    }
 }
@@ -29,10 +29,12 @@ package com.gluonhq.substrate.target;
 
 import com.gluonhq.substrate.model.ProcessPaths;
 import com.gluonhq.substrate.model.ProjectConfiguration;
+import com.gluonhq.substrate.util.NativeProcess;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Path;
+import java.util.List;
 
 public interface TargetConfiguration {
 
@@ -51,4 +53,39 @@ public interface TargetConfiguration {
     boolean runUntilEnd(Path workDir, String appName) throws IOException, InterruptedException;
 
     InputStream run(Path workDir, String appName) throws IOException, InterruptedException;
+
+    /**
+     * Starts the application
+     * @param appPath the folder that contains the application
+     * @param appName the name of the application
+     * @param args the arguments of the application
+     * @param workDir the working directory of the application, or null for the current directory
+     * @return the output of the application, with stdout and stderr combined
+     * @throws IOException
+     * @see #createProcess(Path, String, List, Path) to keep control over the process
+     */
+    InputStream run(Path appPath, String appName, List<String> args, Path workDir) throws IOException;
+
+    /**
+     * Runs the application and prints its output
+     * @param appPath the folder that contains the application
+     * @param appName the name of the application
+     * @param args the arguments of the application
+     * @param workDir the working directory of the application, or null for the current directory
+     * @return true if the application exited with 0
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    boolean runUntilEnd(Path appPath, String appName, List<String> args, Path workDir) throws IOException, InterruptedException;
+
+    /**
+     * Creates a handle to run the application, with lifecycle control: listeners for its output,
+     * stdin, a timeout, cancellation and the resources it used. It is started with {@link NativeProcess#start()}.
+     * @param appPath the folder that contains the application
+     * @param appName the name of the application
+     * @param args the arguments of the application
+     * @param workDir the working directory of the application, or null for the current directory
+     * @return the process, not started yet
+     */
+    NativeProcess createProcess(Path appPath, String appName, List<String> args, Path workDir);
 }
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2019, Gluon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL GLUON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gluonhq.substrate.util;
+
+import com.gluonhq.substrate.model.ProcessPaths;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+/**
+ * Records the exact location of the files produced by the build steps, so later steps (that
+ * might run in another JVM) find them without searching the build directory.
+ *
+ * The registry is stored as <code>gvm/artifacts.properties</code>.
+ */
+public class ArtifactRegistry {
+
+    public static final String OBJECT_FILE = "objectfile";
+
+    private static final String REGISTRY_FILE = "artifacts.properties";
+
+    /**
+     * Records the location of an artifact
+     * @param paths the paths of the build
+     * @param name the name of the artifact, e.g. {@link #OBJECT_FILE}
+     * @param file the location of the artifact
+     * @throws IOException
+     */
+    public static synchronized void register(ProcessPaths paths, String name, Path file) throws IOException {
+        Properties properties = load(paths);
+        properties.setProperty(name, file.toAbsolutePath().toString());
+        try (OutputStream os = Files.newOutputStream(paths.getGvmPath().resolve(REGISTRY_FILE))) {
+            properties.store(os, "Artifacts produced by the build steps");
+        }
+    }
+
+    /**
+     * Returns the location of an artifact
+     * @param paths the paths of the build
+     * @param name the name of the artifact
+     * @return the location, or <code>null</code> if the artifact wasn't registered or doesn't exist anymore
+     */
+    public static synchronized Path lookup(ProcessPaths paths, String name) {
+        String location = load(paths).getProperty(name);
+        if (location == null) {
+            return null;
+        }
+        Path file = Path.of(location);
+        return Files.isRegularFile(file) ? file : null;
+    }
+
+    private static Properties load(ProcessPaths paths) {
+        Properties properties = new Properties();
+        Path file = paths.getGvmPath().resolve(REGISTRY_FILE);
+        if (Files.isRegularFile(file)) {
+            try (InputStream is = Files.newInputStream(file)) {
+                properties.load(is);
+            } catch (IOException e) {
+                Logger.logDebug("Could not read " + file + ": " + e.getMessage());
+            }
+        }
+        return properties;
+    }
+}
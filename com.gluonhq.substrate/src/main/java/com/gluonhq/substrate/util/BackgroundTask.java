@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2019, Gluon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL GLUON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gluonhq.substrate.util;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A step of the build that runs on its own thread while the caller continues with other work.
+ * @param <T> the type of the result of the step
+ */
+public class BackgroundTask<T> {
+
+    private final String name;
+    private final FutureTask<T> task;
+    private final long startTime;
+    private volatile long endTime;
+
+    private BackgroundTask(String name, Callable<T> callable) {
+        this.name = name;
+        this.startTime = System.nanoTime();
+        this.task = new FutureTask<>(() -> {
+            try {
+                return callable.call();
+            } finally {
+                endTime = System.nanoTime();
+            }
+        });
+    }
+
+    /**
+     * Starts the provided step on a new daemon thread
+     * @param name the name of the step, used for the thread and in log messages
+     * @param callable the step
+     * @param <T> the type of the result of the step
+     * @return the running task
+     */
+    public static <T> BackgroundTask<T> start(String name, Callable<T> callable) {
+        BackgroundTask<T> answer = new BackgroundTask<>(name, callable);
+        Thread thread = new Thread(answer.task, "substrate-" + name);
+        thread.setDaemon(true);
+        thread.start();
+        return answer;
+    }
+
+    /**
+     * Waits until the step is finished, and returns its result.
+     * Exceptions thrown by the step are rethrown here.
+     * @return the result of the step
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public T join() throws IOException, InterruptedException {
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException("Task " + name + " failed", cause);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the time the step took, or has taken so far, in milliseconds
+     */
+    public long getDurationMillis() {
+        long end = task.isDone() ? endTime : System.nanoTime();
+        return (end - startTime) / 1_000_000;
+    }
+}
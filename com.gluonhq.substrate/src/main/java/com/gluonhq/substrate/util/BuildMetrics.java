@@ -0,0 +1,328 @@
+/*
+ * Copyright (c) 2019, Gluon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL GLUON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gluonhq.substrate.util;
+
+import com.gluonhq.substrate.model.ProjectConfiguration;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects timing and resource metrics of the build: the wall time of every phase, the CPU time
+ * and peak memory of every external tool, and the number of bytes downloaded and extracted.
+ *
+ * The metrics are written as <code>build-metrics.json</code> in the log folder, and every
+ * measurement is emitted as a JFR event as well, so it shows up in a flight recording of the build.
+ * Every build that runs on its own thread has its own metrics, see {@link #start()}.
+ */
+public class BuildMetrics {
+
+    public static final String REPORT_FILE = "build-metrics.json";
+
+    // the metrics of the current build of a thread, inherited by the threads it starts
+    private static final InheritableThreadLocal<BuildMetrics> current = new InheritableThreadLocal<>();
+    // the metrics of threads that didn't start a build
+    private static final BuildMetrics shared = new BuildMetrics();
+
+    private final List<PhaseRecord> phases = new ArrayList<>();
+    private final List<ProcessRecord> processes = new ArrayList<>();
+    private final Map<String, String> properties = new TreeMap<>();
+    private final AtomicLong bytesDownloaded = new AtomicLong();
+    private final AtomicLong bytesExtracted = new AtomicLong();
+    private final long buildStart = System.currentTimeMillis();
+
+    private BuildMetrics() {
+    }
+
+    /**
+     * Starts the metrics of a new build. Everything the current thread records from now on goes to
+     * these metrics, and so does everything recorded by the threads it starts afterwards, so builds
+     * that run on different threads don't mix their metrics.
+     */
+    public static void start() {
+        current.set(new BuildMetrics());
+    }
+
+    /**
+     * Starts the metrics of a new build, see {@link #start()}, with the settings of the configuration
+     * @param config the configuration of the build
+     */
+    public static void start(ProjectConfiguration config) {
+        start();
+        setProperty("appName", String.valueOf(config.getAppName()));
+        setProperty("mainClass", String.valueOf(config.getMainClassName()));
+        setProperty("target", String.valueOf(config.getTargetTriplet()));
+        setProperty("graalPath", String.valueOf(config.getGraalPath()));
+        setProperty("linker", config.getLinker() == null ? "default" : config.getLinker());
+        setProperty("linkOptions", "gcSections=" + config.isLinkGcSections() +
+                ",icf=" + config.isLinkIdenticalCodeFolding() + ",lto=" + config.isLinkTimeOptimization());
+    }
+
+    private static BuildMetrics current() {
+        BuildMetrics metrics = current.get();
+        return metrics == null ? shared : metrics;
+    }
+
+    /**
+     * Runs a phase of the build, and records its wall time, also when it fails.
+     * Exceptions other than IOException and InterruptedException are wrapped in a RuntimeException.
+     * @param name the name of the phase
+     * @param phase the work of the phase
+     * @param <T> the type of the result of the phase
+     * @return the result of the phase
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static <T> T time(String name, Callable<T> phase) throws IOException, InterruptedException {
+        BuildMetrics metrics = current();
+        BuildPhaseEvent event = new BuildPhaseEvent();
+        event.phase = name;
+        event.begin();
+        long start = System.currentTimeMillis();
+        long startNanos = System.nanoTime();
+        try {
+            return phase.call();
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("Phase " + name + " failed", e);
+        } finally {
+            event.end();
+            event.commit();
+            long wallMillis = (System.nanoTime() - startNanos) / 1_000_000;
+            synchronized (metrics) {
+                metrics.phases.add(new PhaseRecord(name, start - metrics.buildStart, wallMillis));
+            }
+            Logger.logDebug("Phase " + name + " took " + wallMillis + " ms");
+        }
+    }
+
+    /**
+     * Records an external tool that has finished
+     * @param name the name of the tool
+     * @param wallMillis the time it ran
+     * @param cpuMillis the CPU time it and its descendants used
+     * @param peakRssKb its peak resident memory, or -1 when unknown
+     * @param exitCode its exit code
+     */
+    public static void recordProcess(String name, long wallMillis, long cpuMillis, long peakRssKb, int exitCode) {
+        ToolProcessEvent event = new ToolProcessEvent();
+        event.tool = name;
+        event.wallTime = wallMillis;
+        event.cpuTime = cpuMillis;
+        event.peakRss = peakRssKb < 0 ? 0 : peakRssKb * 1024;
+        event.exitCode = exitCode;
+        event.commit();
+        BuildMetrics metrics = current();
+        synchronized (metrics) {
+            metrics.processes.add(new ProcessRecord(name, wallMillis, cpuMillis, peakRssKb, exitCode));
+        }
+    }
+
+    public static void addBytesDownloaded(long bytes) {
+        current().bytesDownloaded.addAndGet(bytes);
+    }
+
+    public static void addBytesExtracted(long bytes) {
+        current().bytesExtracted.addAndGet(bytes);
+    }
+
+    /**
+     * Adds a setting of the build to the report, so measurements can be compared against it
+     * @param key the name of the setting
+     * @param value its value
+     */
+    public static void setProperty(String key, String value) {
+        BuildMetrics metrics = current();
+        synchronized (metrics) {
+            metrics.properties.put(key, value);
+        }
+    }
+
+    /**
+     * Writes the metrics of the current build
+     * @param logPath the log folder
+     * @return the report file
+     * @throws IOException
+     */
+    public static Path writeReport(Path logPath) throws IOException {
+        BuildMetrics metrics = current();
+        TransferEvent event = new TransferEvent();
+        event.downloaded = metrics.bytesDownloaded.get();
+        event.extracted = metrics.bytesExtracted.get();
+        event.commit();
+        Path report = logPath.resolve(REPORT_FILE);
+        Files.write(report, metrics.toJson().getBytes(StandardCharsets.UTF_8));
+        Logger.logDebug("Build metrics written to " + report);
+        return report;
+    }
+
+    synchronized String toJson() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        sb.append("  \"buildStart\": ").append(buildStart).append(",\n");
+        sb.append("  \"properties\": {");
+        String separator = "\n";
+        for (Map.Entry<String, String> e : properties.entrySet()) {
+            sb.append(separator).append("    ").append(quote(e.getKey())).append(": ").append(quote(e.getValue()));
+            separator = ",\n";
+        }
+        sb.append(properties.isEmpty() ? "},\n" : "\n  },\n");
+        sb.append("  \"phases\": [");
+        separator = "\n";
+        for (PhaseRecord phase : phases) {
+            sb.append(separator).append("    {\"name\": ").append(quote(phase.name))
+                    .append(", \"startMillis\": ").append(phase.startMillis)
+                    .append(", \"wallMillis\": ").append(phase.wallMillis).append("}");
+            separator = ",\n";
+        }
+        sb.append(phases.isEmpty() ? "],\n" : "\n  ],\n");
+        sb.append("  \"processes\": [");
+        separator = "\n";
+        for (ProcessRecord process : processes) {
+            sb.append(separator).append("    {\"name\": ").append(quote(process.name))
+                    .append(", \"wallMillis\": ").append(process.wallMillis)
+                    .append(", \"cpuMillis\": ").append(process.cpuMillis)
+                    .append(", \"peakRssKb\": ").append(process.peakRssKb)
+                    .append(", \"exitCode\": ").append(process.exitCode).append("}");
+            separator = ",\n";
+        }
+        sb.append(processes.isEmpty() ? "],\n" : "\n  ],\n");
+        sb.append("  \"bytesDownloaded\": ").append(bytesDownloaded.get()).append(",\n");
+        sb.append("  \"bytesExtracted\": ").append(bytesExtracted.get()).append("\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    static String quote(String value) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private static class PhaseRecord {
+        final String name;
+        final long startMillis;
+        final long wallMillis;
+
+        PhaseRecord(String name, long startMillis, long wallMillis) {
+            this.name = name;
+            this.startMillis = startMillis;
+            this.wallMillis = wallMillis;
+        }
+    }
+
+    private static class ProcessRecord {
+        final String name;
+        final long wallMillis;
+        final long cpuMillis;
+        final long peakRssKb;
+        final int exitCode;
+
+        ProcessRecord(String name, long wallMillis, long cpuMillis, long peakRssKb, int exitCode) {
+            this.name = name;
+            this.wallMillis = wallMillis;
+            this.cpuMillis = cpuMillis;
+            this.peakRssKb = peakRssKb;
+            this.exitCode = exitCode;
+        }
+    }
+
+    @Name("com.gluonhq.substrate.BuildPhase")
+    @Label("Build Phase")
+    @Category("Substrate")
+    static class BuildPhaseEvent extends Event {
+        @Label("Phase")
+        String phase;
+    }
+
+    @Name("com.gluonhq.substrate.ToolProcess")
+    @Label("Tool Process")
+    @Category("Substrate")
+    static class ToolProcessEvent extends Event {
+        @Label("Tool")
+        String tool;
+
+        @Label("Wall Time")
+        @Timespan(Timespan.MILLISECONDS)
+        long wallTime;
+
+        @Label("CPU Time")
+        @Timespan(Timespan.MILLISECONDS)
+        long cpuTime;
+
+        @Label("Peak Resident Memory")
+        @DataAmount
+        long peakRss;
+
+        @Label("Exit Code")
+        int exitCode;
+    }
+
+    @Name("com.gluonhq.substrate.Transfer")
+    @Label("Dependency Transfer")
+    @Category("Substrate")
+    static class TransferEvent extends Event {
+        @Label("Downloaded")
+        @DataAmount
+        long downloaded;
+
+        @Label("Extracted")
+        @DataAmount
+        long extracted;
+    }
+}
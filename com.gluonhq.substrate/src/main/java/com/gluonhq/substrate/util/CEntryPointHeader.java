@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2019, Gluon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL GLUON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gluonhq.substrate.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Generates the C header of a shared library: the isolate API of GraalVM, and a declaration for every
+ * method annotated with <code>@CEntryPoint(name = ...)</code> in the classpath.
+ *
+ * Entry points without a name get a generated symbol that can't be predicted, they are listed
+ * in a comment only.
+ */
+public class CEntryPointHeader {
+
+    static final String C_ENTRY_POINT = "Lorg/graalvm/nativeimage/c/function/CEntryPoint;";
+
+    private static final Map<String, String> WORD_TYPES = Map.of(
+            "org/graalvm/nativeimage/IsolateThread", "graal_isolatethread_t*",
+            "org/graalvm/nativeimage/Isolate", "graal_isolate_t*",
+            "org/graalvm/nativeimage/c/type/CCharPointer", "char*",
+            "org/graalvm/nativeimage/c/type/CCharPointerPointer", "char**",
+            "org/graalvm/nativeimage/c/type/CIntPointer", "int*",
+            "org/graalvm/nativeimage/c/type/CLongPointer", "long long*",
+            "org/graalvm/nativeimage/c/type/CDoublePointer", "double*",
+            "org/graalvm/nativeimage/c/type/CFloatPointer", "float*",
+            "org/graalvm/nativeimage/c/type/CShortPointer", "short*");
+
+    /**
+     * @param classPath the classpath of the image
+     * @param libraryName the name of the library, used for the include guard
+     * @return the contents of the header
+     * @throws IOException when the classpath can't be read
+     */
+    public static String generate(String classPath, String libraryName) throws IOException {
+        List<String> declarations = new ArrayList<>();
+        List<String> unnamed = new ArrayList<>();
+        for (ClassFileReader.ClassFile classFile : ClassFileReader.readClassPath(classPath)) {
+            for (ClassFileReader.Method method : classFile.getMethods()) {
+                Map<String, Object> entryPoint = method.getAnnotations().get(C_ENTRY_POINT);
+                if (entryPoint == null) {
+                    continue;
+                }
+                String javaName = classFile.getName().replace('/', '.') + "." + method.getName();
+                Object name = entryPoint.get("name");
+                if (name == null || name.toString().isEmpty()) {
+                    unnamed.add(javaName);
+                } else {
+                    declarations.add("// " + javaName + "\n" + declaration(name.toString(), method.getDescriptor()));
+                }
+            }
+        }
+        String guard = libraryName.toUpperCase(Locale.ROOT).replaceAll("[^A-Z0-9]", "_") + "_H";
+        StringBuilder sb = new StringBuilder();
+        sb.append("// Generated by substrate, do not edit\n");
+        sb.append("#ifndef ").append(guard).append("\n#define ").append(guard).append("\n\n");
+        sb.append("#ifdef __cplusplus\nextern \"C\" {\n#endif\n\n");
+        sb.append("typedef struct __graal_isolate_t graal_isolate_t;\n");
+        sb.append("typedef struct __graal_isolatethread_t graal_isolatethread_t;\n");
+        sb.append("typedef struct __graal_create_isolate_params_t graal_create_isolate_params_t;\n\n");
+        sb.append("// params may be NULL for the default isolate parameters, returns 0 on success\n");
+        sb.append("int graal_create_isolate(graal_create_isolate_params_t* params, graal_isolate_t** isolate, graal_isolatethread_t** thread);\n");
+        sb.append("int graal_attach_thread(graal_isolate_t* isolate, graal_isolatethread_t** thread);\n");
+        sb.append("graal_isolatethread_t* graal_get_current_thread(graal_isolate_t* isolate);\n");
+        sb.append("graal_isolate_t* graal_get_isolate(graal_isolatethread_t* thread);\n");
+        sb.append("int graal_detach_thread(graal_isolatethread_t* thread);\n");
+        sb.append("int graal_tear_down_isolate(graal_isolatethread_t* thread);\n\n");
+        for (String declaration : declarations) {
+            sb.append(declaration).append("\n\n");
+        }
+        if (!unnamed.isEmpty()) {
+            sb.append("// Entry points without a name, add @CEntryPoint(name = ...) to call them from C:\n");
+            unnamed.forEach(javaName -> sb.append("//   ").append(javaName).append("\n"));
+            sb.append("\n");
+        }
+        sb.append("#ifdef __cplusplus\n}\n#endif\n\n#endif\n");
+        Logger.logDebug("Generated header " + libraryName + ".h with " + declarations.size() + " entry points");
+        return sb.toString();
+    }
+
+    static String declaration(String name, String descriptor) {
+        List<String> parameters = new ArrayList<>();
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            int end = typeEnd(descriptor, i);
+            parameters.add(cType(descriptor.substring(i, end)) + " arg" + parameters.size());
+            i = end;
+        }
+        String returnType = cType(descriptor.substring(i + 1));
+        return returnType + " " + name + "(" + (parameters.isEmpty() ? "void" : String.join(", ", parameters)) + ");";
+    }
+
+    private static int typeEnd(String descriptor, int start) {
+        int i = start;
+        while (descriptor.charAt(i) == '[') {
+            i++;
+        }
+        return descriptor.charAt(i) == 'L' ? descriptor.indexOf(';', i) + 1 : i + 1;
+    }
+
+    static String cType(String type) {
+        switch (type) {
+            case "V": return "void";
+            case "Z": return "int";
+            case "B": return "signed char";
+            case "C": return "unsigned short";
+            case "S": return "short";
+            case "I": return "int";
+            case "J": return "long long";
+            case "F": return "float";
+            case "D": return "double";
+            default:
+                // other word types, like PointerBase or structures, are passed as pointers
+                String className = type.startsWith("L") ? type.substring(1, type.length() - 1) : type;
+                return WORD_TYPES.getOrDefault(className, "void*");
+        }
+    }
+}
@@ -0,0 +1,469 @@
+/*
+ * Copyright (c) 2019, Gluon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL GLUON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gluonhq.substrate.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A minimal reader of class files: the name and super class of the class, its field names, the
+ * name, descriptor, annotations and bytecode of its methods, and its bootstrap methods. Annotation
+ * values are only kept when they are constants.
+ */
+public class ClassFileReader {
+
+    private static final int MAGIC = 0xCAFEBABE;
+
+    /**
+     * A class that was read
+     */
+    public static class ClassFile {
+        private final String name;
+        private String superName;
+        private final Object[] constants;
+        private final List<String> fields = new ArrayList<>();
+        private final List<Method> methods = new ArrayList<>();
+        private final List<int[]> bootstrapMethods = new ArrayList<>();
+
+        private ClassFile(String name, Object[] constants) {
+            this.name = name;
+            this.constants = constants;
+        }
+
+        /**
+         * @return the internal name of the class, e.g. <code>com/example/Hello</code>
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the internal name of the super class, or null for <code>java/lang/Object</code>
+         */
+        public String getSuperName() {
+            return superName;
+        }
+
+        /**
+         * @return the names of the fields declared by the class
+         */
+        public List<String> getFields() {
+            return fields;
+        }
+
+        public List<Method> getMethods() {
+            return methods;
+        }
+
+        /**
+         * Resolves a Fieldref, Methodref or InterfaceMethodref entry of the constant pool
+         * @param index the index of the entry
+         * @return the owner, name and descriptor, or null if the entry isn't a member reference
+         */
+        public String[] getMemberRef(int index) {
+            Object entry = index > 0 && index < constants.length ? constants[index] : null;
+            if (!(entry instanceof MemberRef)) {
+                return null;
+            }
+            MemberRef ref = (MemberRef) entry;
+            int[] nameAndType = (int[]) constants[ref.nameAndType];
+            return new String[] {className(ref.owner), (String) constants[nameAndType[0]], (String) constants[nameAndType[1]]};
+        }
+
+        /**
+         * @param index the index of a Class entry of the constant pool
+         * @return the internal name of the class, or null if the entry isn't a class
+         */
+        public String getClassRef(int index) {
+            return index > 0 && index < constants.length && constants[index] instanceof ClassRef ? className(index) : null;
+        }
+
+        /**
+         * Resolves an InvokeDynamic entry of the constant pool, with its bootstrap method
+         * @param index the index of the entry
+         * @return the call site, or null if the entry isn't an InvokeDynamic entry
+         */
+        public InvokeDynamic getInvokeDynamic(int index) {
+            Object entry = index > 0 && index < constants.length ? constants[index] : null;
+            if (!(entry instanceof IndyRef) || ((IndyRef) entry).bootstrap >= bootstrapMethods.size()) {
+                return null;
+            }
+            IndyRef ref = (IndyRef) entry;
+            int[] nameAndType = (int[]) constants[ref.nameAndType];
+            int[] bootstrap = bootstrapMethods.get(ref.bootstrap);
+            List<String[]> arguments = new ArrayList<>();
+            for (int i = 1; i < bootstrap.length; i++) {
+                arguments.add(getMethodHandle(bootstrap[i]));
+            }
+            return new InvokeDynamic((String) constants[nameAndType[0]], (String) constants[nameAndType[1]],
+                    getMethodHandle(bootstrap[0]), arguments);
+        }
+
+        private String[] getMethodHandle(int index) {
+            Object entry = index > 0 && index < constants.length ? constants[index] : null;
+            return entry instanceof MethodHandleRef ? getMemberRef(((MethodHandleRef) entry).reference) : null;
+        }
+
+        private String className(int index) {
+            return (String) constants[((ClassRef) constants[index]).name];
+        }
+    }
+
+    /**
+     * A method of a class
+     */
+    public static class Method {
+        private final int access;
+        private final String name;
+        private final String descriptor;
+        private final Map<String, Map<String, Object>> annotations = new HashMap<>();
+        private byte[] code;
+
+        private Method(int access, String name, String descriptor) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+        }
+
+        public int getAccess() {
+            return access;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getDescriptor() {
+            return descriptor;
+        }
+
+        /**
+         * @return the annotations of the method by type descriptor, e.g.
+         * <code>Lorg/graalvm/nativeimage/c/function/CEntryPoint;</code>, with their constant values
+         */
+        public Map<String, Map<String, Object>> getAnnotations() {
+            return annotations;
+        }
+
+        /**
+         * @return the bytecode of the method, or null if it is abstract or native
+         */
+        public byte[] getCode() {
+            return code;
+        }
+    }
+
+    /**
+     * An invokedynamic call site: a lambda, a string concatenation, ...
+     */
+    public static class InvokeDynamic {
+        private final String name;
+        private final String descriptor;
+        private final String[] bootstrapMethod;
+        private final List<String[]> arguments;
+
+        private InvokeDynamic(String name, String descriptor, String[] bootstrapMethod, List<String[]> arguments) {
+            this.name = name;
+            this.descriptor = descriptor;
+            this.bootstrapMethod = bootstrapMethod;
+            this.arguments = arguments;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getDescriptor() {
+            return descriptor;
+        }
+
+        /**
+         * @return the owner, name and descriptor of the bootstrap method
+         */
+        public String[] getBootstrapMethod() {
+            return bootstrapMethod;
+        }
+
+        /**
+         * @return the static arguments of the bootstrap method: the owner, name and descriptor of the
+         * method handles, null for the other constants. The implementation of a lambda is the second one.
+         */
+        public List<String[]> getArguments() {
+            return arguments;
+        }
+    }
+
+    private static class ClassRef {
+        final int name;
+
+        ClassRef(int name) {
+            this.name = name;
+        }
+    }
+
+    private static class MemberRef {
+        final int owner;
+        final int nameAndType;
+
+        MemberRef(int owner, int nameAndType) {
+            this.owner = owner;
+            this.nameAndType = nameAndType;
+        }
+    }
+
+    private static class MethodHandleRef {
+        final int reference;
+
+        MethodHandleRef(int reference) {
+            this.reference = reference;
+        }
+    }
+
+    private static class IndyRef {
+        final int bootstrap;
+        final int nameAndType;
+
+        IndyRef(int bootstrap, int nameAndType) {
+            this.bootstrap = bootstrap;
+            this.nameAndType = nameAndType;
+        }
+    }
+
+    /**
+     * Reads a class file
+     * @param is the contents of the class file
+     * @return the class
+     * @throws IOException when the class file can't be read or is not valid
+     */
+    public static ClassFile read(InputStream is) throws IOException {
+        DataInputStream in = new DataInputStream(is);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a class file");
+        }
+        in.readUnsignedShort();
+        in.readUnsignedShort();
+        Object[] constants = new Object[in.readUnsignedShort()];
+        for (int i = 1; i < constants.length; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case 1: constants[i] = in.readUTF(); break;
+                case 3: constants[i] = in.readInt(); break;
+                case 4: constants[i] = in.readFloat(); break;
+                case 5: constants[i++] = in.readLong(); break;
+                case 6: constants[i++] = in.readDouble(); break;
+                case 7: constants[i] = new ClassRef(in.readUnsignedShort()); break;
+                case 8: constants[i] = new int[] {in.readUnsignedShort()}; break;
+                case 9: case 10: case 11:
+                    constants[i] = new MemberRef(in.readUnsignedShort(), in.readUnsignedShort()); break;
+                case 12: constants[i] = new int[] {in.readUnsignedShort(), in.readUnsignedShort()}; break;
+                case 15: in.readUnsignedByte(); constants[i] = new MethodHandleRef(in.readUnsignedShort()); break;
+                case 16: case 19: case 20: in.readUnsignedShort(); break;
+                case 17: in.readInt(); break;
+                case 18: constants[i] = new IndyRef(in.readUnsignedShort(), in.readUnsignedShort()); break;
+                default: throw new IOException("Unknown constant pool tag " + tag);
+            }
+        }
+        in.readUnsignedShort();
+        ClassFile classFile = new ClassFile((String) constants[((ClassRef) constants[in.readUnsignedShort()]).name], constants);
+        classFile.superName = classFile.getClassRef(in.readUnsignedShort());
+        skip(in, 2L * in.readUnsignedShort());
+        int fields = in.readUnsignedShort();
+        for (int i = 0; i < fields; i++) {
+            in.readUnsignedShort();
+            classFile.fields.add((String) constants[in.readUnsignedShort()]);
+            in.readUnsignedShort();
+            skipAttributes(in);
+        }
+        int methods = in.readUnsignedShort();
+        for (int i = 0; i < methods; i++) {
+            Method method = new Method(in.readUnsignedShort(), (String) constants[in.readUnsignedShort()],
+                    (String) constants[in.readUnsignedShort()]);
+            int attributes = in.readUnsignedShort();
+            for (int a = 0; a < attributes; a++) {
+                String name = (String) constants[in.readUnsignedShort()];
+                byte[] content = new byte[in.readInt()];
+                in.readFully(content);
+                if ("Code".equals(name)) {
+                    DataInputStream code = new DataInputStream(new ByteArrayInputStream(content));
+                    skip(code, 4);
+                    method.code = new byte[code.readInt()];
+                    code.readFully(method.code);
+                } else if ("RuntimeVisibleAnnotations".equals(name) || "RuntimeInvisibleAnnotations".equals(name)) {
+                    DataInputStream annotations = new DataInputStream(new ByteArrayInputStream(content));
+                    int count = annotations.readUnsignedShort();
+                    for (int n = 0; n < count; n++) {
+                        String type = (String) constants[annotations.readUnsignedShort()];
+                        method.annotations.put(type, readAnnotationValues(annotations, constants));
+                    }
+                }
+            }
+            classFile.methods.add(method);
+        }
+        int attributes = in.readUnsignedShort();
+        for (int a = 0; a < attributes; a++) {
+            String name = (String) constants[in.readUnsignedShort()];
+            int length = in.readInt();
+            if ("BootstrapMethods".equals(name)) {
+                int count = in.readUnsignedShort();
+                for (int n = 0; n < count; n++) {
+                    // the method handle, then its arguments
+                    int method = in.readUnsignedShort();
+                    int[] bootstrap = new int[1 + in.readUnsignedShort()];
+                    bootstrap[0] = method;
+                    for (int i = 1; i < bootstrap.length; i++) {
+                        bootstrap[i] = in.readUnsignedShort();
+                    }
+                    classFile.bootstrapMethods.add(bootstrap);
+                }
+            } else {
+                skip(in, length & 0xFFFFFFFFL);
+            }
+        }
+        return classFile;
+    }
+
+    private static Map<String, Object> readAnnotationValues(DataInputStream in, Object[] constants) throws IOException {
+        Map<String, Object> values = new HashMap<>();
+        int pairs = in.readUnsignedShort();
+        for (int i = 0; i < pairs; i++) {
+            String name = (String) constants[in.readUnsignedShort()];
+            Object value = readElementValue(in, constants);
+            if (value != null) {
+                values.put(name, value);
+            }
+        }
+        return values;
+    }
+
+    // returns the value of constants, skips the others
+    private static Object readElementValue(DataInputStream in, Object[] constants) throws IOException {
+        int tag = in.readUnsignedByte();
+        switch (tag) {
+            case 'B': case 'C': case 'D': case 'F': case 'I': case 'J': case 'S': case 'Z': case 's':
+                return constants[in.readUnsignedShort()];
+            case 'e':
+                skip(in, 4);
+                return null;
+            case 'c':
+                skip(in, 2);
+                return null;
+            case '@':
+                skip(in, 2);
+                readAnnotationValues(in, constants);
+                return null;
+            case '[':
+                int count = in.readUnsignedShort();
+                for (int i = 0; i < count; i++) {
+                    readElementValue(in, constants);
+                }
+                return null;
+            default:
+                throw new IOException("Unknown annotation element tag " + (char) tag);
+        }
+    }
+
+    // skipBytes may skip less, readByte fails at the end of the stream
+    private static void skip(DataInputStream in, long n) throws IOException {
+        while (n > 0) {
+            int skipped = in.skipBytes((int) Math.min(n, Integer.MAX_VALUE));
+            if (skipped <= 0) {
+                in.readByte();
+                skipped = 1;
+            }
+            n -= skipped;
+        }
+    }
+
+    private static void skipAttributes(DataInputStream in) throws IOException {
+        int attributes = in.readUnsignedShort();
+        for (int i = 0; i < attributes; i++) {
+            skip(in, 2);
+            skip(in, in.readInt() & 0xFFFFFFFFL);
+        }
+    }
+
+    /**
+     * Reads all classes of a classpath, from directories and jars. Classes that can't be read are skipped.
+     * @param classPath the classpath
+     * @return the classes
+     * @throws IOException when a classpath entry can't be read
+     */
+    public static List<ClassFile> readClassPath(String classPath) throws IOException {
+        List<ClassFile> classes = new ArrayList<>();
+        for (String entry : classPath.split(File.pathSeparator)) {
+            if (entry.isEmpty()) {
+                continue;
+            }
+            Path path = Path.of(entry);
+            if (Files.isDirectory(path)) {
+                List<Path> files;
+                try (Stream<Path> walk = Files.walk(path)) {
+                    files = walk.filter(p -> p.toString().endsWith(".class")).collect(Collectors.toList());
+                }
+                for (Path file : files) {
+                    try (InputStream is = Files.newInputStream(file)) {
+                        add(classes, is, file.toString());
+                    }
+                }
+            } else if (Files.isRegularFile(path) && entry.endsWith(".jar")) {
+                try (ZipFile zip = new ZipFile(path.toFile())) {
+                    List<ZipEntry> classEntries = zip.stream()
+                            .filter(e -> e.getName().endsWith(".class") && !e.getName().startsWith("META-INF/"))
+                            .collect(Collectors.toList());
+                    for (ZipEntry zipEntry : classEntries) {
+                        try (InputStream is = zip.getInputStream(zipEntry)) {
+                            add(classes, is, entry + "!" + zipEntry.getName());
+                        }
+                    }
+                }
+            }
+        }
+        return classes;
+    }
+
+    private static void add(List<ClassFile> classes, InputStream is, String location) {
+        try {
+            classes.add(read(is));
+        } catch (IOException | RuntimeException e) {
+            Logger.logDebug("Skipping " + location + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,515 @@
+/*
+ * Copyright (c) 2019, Gluon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL GLUON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gluonhq.substrate.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Proposes which classes of the application can be initialized when the image is built.
+ *
+ * The application runs once on the JVM with <code>-Xlog:class+init</code> to record the classes it
+ * initializes. The static initializer of each of these classes is then scanned, with the methods it calls:
+ * it is pure when it only creates objects and calls methods of the application and a list of JDK methods
+ * without side effects (strings, boxes, math and collections), and only writes its own static fields.
+ * JDK methods that take a callback, like <code>forEach</code> or <code>computeIfAbsent</code>, are not pure.
+ * Lambdas and method references are scanned as if they were called, string concatenations only when they
+ * don't call <code>toString()</code> of an object. Any other call, invokedynamic, I/O, synchronization or
+ * exception makes it run-time initialized, as do the classes of the <code>delayInitList</code>.
+ * Virtual calls are checked against the declared method, and <code>hashCode</code>, <code>equals</code> and
+ * <code>compareTo</code> of the elements of collections are assumed pure, so the scan is an approximation
+ * that errs on the side of run-time initialization for unknown code.
+ */
+public class ClassInitAdvisor {
+
+    public static final String REPORT_FILE = "class-init.json";
+    private static final String CLINIT = "<clinit>";
+    private static final Pattern INITIALIZING = Pattern.compile("Initializing '([^']+)'");
+    private static final String LAMBDA_FACTORY = "java/lang/invoke/LambdaMetafactory";
+    private static final String CONCAT_FACTORY = "java/lang/invoke/StringConcatFactory";
+
+    private static final Set<String> COLLECTION_METHODS = Set.of("<init>", "add", "addAll", "get", "set", "remove",
+            "contains", "containsAll", "containsKey", "containsValue", "put", "putAll", "putIfAbsent", "getOrDefault",
+            "size", "isEmpty", "clear", "iterator", "keySet", "values", "entrySet", "indexOf", "lastIndexOf", "subList",
+            "toArray", "of", "copyOf", "hashCode", "equals", "addFirst", "addLast", "getFirst", "getLast",
+            "removeFirst", "removeLast", "push", "pop", "peek", "poll", "offer", "firstKey", "lastKey");
+    private static final Set<String> BOX_METHODS = Set.of("<init>", "valueOf", "hashCode", "equals", "compare",
+            "compareTo", "toString", "booleanValue", "byteValue", "charValue", "shortValue", "intValue", "longValue",
+            "floatValue", "doubleValue", "parseBoolean", "parseByte", "parseShort", "parseInt", "parseLong",
+            "parseFloat", "parseDouble", "isNaN", "isInfinite", "max", "min", "sum", "isDigit", "isLetter",
+            "isLetterOrDigit", "isWhitespace", "isUpperCase", "isLowerCase", "toUpperCase", "toLowerCase", "digit");
+
+    // JDK methods that are safe to call in a build time initializer, by class. Their static fields can be read
+    private static final Map<String, Set<String>> PURE_JDK_METHODS = Map.ofEntries(
+            Map.entry("java/lang/Object", Set.of("<init>", "getClass", "hashCode", "equals")),
+            Map.entry("java/lang/String", Set.of("<init>", "valueOf", "length", "charAt", "isEmpty", "isBlank",
+                    "substring", "indexOf", "lastIndexOf", "equals", "equalsIgnoreCase", "hashCode", "compareTo",
+                    "startsWith", "endsWith", "contains", "trim", "strip", "toLowerCase", "toUpperCase", "replace",
+                    "split", "join", "concat", "intern", "toCharArray", "getBytes", "toString")),
+            Map.entry("java/lang/StringBuilder", Set.of("<init>", "append", "insert", "toString", "length", "charAt",
+                    "setLength", "reverse", "delete", "deleteCharAt")),
+            Map.entry("java/lang/CharSequence", Set.of("length", "charAt")),
+            Map.entry("java/lang/Boolean", BOX_METHODS), Map.entry("java/lang/Byte", BOX_METHODS),
+            Map.entry("java/lang/Character", BOX_METHODS), Map.entry("java/lang/Short", BOX_METHODS),
+            Map.entry("java/lang/Integer", BOX_METHODS), Map.entry("java/lang/Long", BOX_METHODS),
+            Map.entry("java/lang/Float", BOX_METHODS), Map.entry("java/lang/Double", BOX_METHODS),
+            Map.entry("java/lang/Number", BOX_METHODS),
+            Map.entry("java/lang/Math", Set.of("abs", "max", "min", "floor", "ceil", "round", "rint", "sqrt", "cbrt",
+                    "pow", "exp", "log", "log10", "sin", "cos", "tan", "asin", "acos", "atan", "atan2", "hypot",
+                    "signum", "floorDiv", "floorMod", "addExact", "subtractExact", "multiplyExact", "toIntExact")),
+            Map.entry("java/lang/Enum", Set.of("<init>", "valueOf", "name", "ordinal", "compareTo", "equals",
+                    "hashCode", "toString", "getDeclaringClass")),
+            Map.entry("java/math/BigInteger", Set.of("<init>", "valueOf", "add", "subtract", "multiply", "divide",
+                    "mod", "remainder", "pow", "negate", "abs", "compareTo", "equals", "hashCode", "intValue",
+                    "longValue", "toString")),
+            Map.entry("java/math/BigDecimal", Set.of("<init>", "valueOf", "add", "subtract", "multiply", "divide",
+                    "remainder", "pow", "negate", "abs", "compareTo", "equals", "hashCode", "intValue", "longValue",
+                    "doubleValue", "setScale", "toString")),
+            Map.entry("java/util/Arrays", Set.of("asList", "copyOf", "copyOfRange", "fill", "equals", "hashCode",
+                    "sort", "binarySearch")),
+            Map.entry("java/util/Collections", Set.of("unmodifiableList", "unmodifiableSet", "unmodifiableMap",
+                    "unmodifiableCollection", "emptyList", "emptySet", "emptyMap", "singletonList", "singleton",
+                    "singletonMap", "addAll", "sort", "reverse")),
+            Map.entry("java/util/Objects", Set.of("requireNonNull", "equals", "hash", "hashCode", "isNull", "nonNull")),
+            Map.entry("java/util/Optional", Set.of("of", "ofNullable", "empty", "isPresent", "isEmpty", "get",
+                    "orElse")),
+            Map.entry("java/util/Iterator", Set.of("hasNext", "next", "remove")),
+            Map.entry("java/util/Map$Entry", Set.of("getKey", "getValue", "setValue")),
+            Map.entry("java/util/Collection", COLLECTION_METHODS), Map.entry("java/util/List", COLLECTION_METHODS),
+            Map.entry("java/util/Set", COLLECTION_METHODS), Map.entry("java/util/Map", COLLECTION_METHODS),
+            Map.entry("java/util/ArrayList", COLLECTION_METHODS), Map.entry("java/util/LinkedList", COLLECTION_METHODS),
+            Map.entry("java/util/ArrayDeque", COLLECTION_METHODS), Map.entry("java/util/HashMap", COLLECTION_METHODS),
+            Map.entry("java/util/LinkedHashMap", COLLECTION_METHODS),
+            Map.entry("java/util/TreeMap", COLLECTION_METHODS),
+            Map.entry("java/util/EnumMap", COLLECTION_METHODS), Map.entry("java/util/HashSet", COLLECTION_METHODS),
+            Map.entry("java/util/LinkedHashSet", COLLECTION_METHODS),
+            Map.entry("java/util/TreeSet", COLLECTION_METHODS),
+            Map.entry("java/util/regex/Pattern", Set.of("compile", "matcher", "matches", "pattern", "split", "quote")),
+            Map.entry("java/util/regex/Matcher", Set.of("matches", "find", "lookingAt", "group", "groupCount",
+                    "start", "end", "replaceAll", "replaceFirst")));
+
+    // parameter types of JDK methods that call back into code that wasn't scanned
+    private static final List<String> CALLBACK_TYPES = List.of("Ljava/util/function/", "Ljava/util/Comparator;",
+            "Ljava/lang/Runnable;", "Ljava/util/concurrent/Callable;");
+    // the objects of which toString() is known to be pure, in string concatenations and String.valueOf
+    private static final Set<String> PURE_TO_STRING = Set.of("java/lang/String", "java/lang/Boolean",
+            "java/lang/Byte", "java/lang/Character", "java/lang/Short", "java/lang/Integer", "java/lang/Long",
+            "java/lang/Float", "java/lang/Double");
+    private static final Pattern OBJECT_PARAMETER = Pattern.compile("L([^;]+);");
+
+    private static final int GETSTATIC = 178;
+    private static final int PUTSTATIC = 179;
+    private static final int GETFIELD = 180;
+    private static final int PUTFIELD = 181;
+    private static final int INVOKEVIRTUAL = 182;
+    private static final int INVOKESTATIC = 184;
+    private static final int INVOKEINTERFACE = 185;
+    private static final int INVOKEDYNAMIC = 186;
+    private static final int NEW = 187;
+    private static final int ATHROW = 191;
+    private static final int MONITORENTER = 194;
+
+    private final Map<String, ClassFileReader.ClassFile> classes = new HashMap<>();
+    // the side effect of the initialization of a class, "" when it is pure
+    private final Map<String, String> sideEffects = new HashMap<>();
+
+    /**
+     * @param classPath the classpath of the application
+     * @throws IOException when the classpath can't be read
+     */
+    public ClassInitAdvisor(String classPath) throws IOException {
+        for (ClassFileReader.ClassFile classFile : ClassFileReader.readClassPath(classPath)) {
+            classes.putIfAbsent(classFile.getName(), classFile);
+        }
+    }
+
+    /**
+     * The advice: the classes to initialize at build time, and the reason why the others stay at run time
+     */
+    public static class Advice {
+        private final List<String> buildTime = new ArrayList<>();
+        private final Map<String, String> runTime = new LinkedHashMap<>();
+
+        /**
+         * @return the classes to initialize when the image is built, in the order they were initialized
+         */
+        public List<String> getBuildTime() {
+            return buildTime;
+        }
+
+        /**
+         * @return the classes that are initialized at run time, with the side effect that was found
+         */
+        public Map<String, String> getRunTime() {
+            return runTime;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(buildTime.size()).append(" classes can be initialized at build time, ")
+                    .append(runTime.size()).append(" are initialized at run time");
+            buildTime.forEach(c -> sb.append("\n  build time: ").append(c));
+            runTime.forEach((c, reason) -> sb.append("\n  run time:   ").append(c).append(" (").append(reason).append(')'));
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Runs the application on the JVM and records the classes it initializes
+     * @param javaHome the JDK to run the application with, e.g. the GraalVM installation
+     * @param classPath the classpath of the application
+     * @param mainClass the main class
+     * @param workDir the working directory of the application
+     * @param timeoutMillis the time after which the application is stopped
+     * @return the internal names of the initialized classes, in the order they were initialized
+     * @throws IOException when the application can't be started or fails
+     * @throws InterruptedException
+     */
+    public static List<String> recordInitializedClasses(String javaHome, String classPath, String mainClass,
+            Path workDir, long timeoutMillis) throws IOException, InterruptedException {
+        Path log = Files.createTempFile("class-init", ".log");
+        try {
+            List<String> command = StartupBenchmark.jvmCommand(javaHome, classPath, mainClass);
+            command.add(1, "-Xlog:class+init=info:file=" + log);
+            NativeProcess process = new NativeProcess(command);
+            process.setDirectory(workDir);
+            process.setMergeErrors(true);
+            process.setOutputListener(line -> Logger.logDebug("[class-init] " + line));
+            process.setTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+            NativeProcess.Result result = process.start().waitFor();
+            if (!result.isSuccess()) {
+                throw new IOException("Recording the class initialization of " + mainClass + " failed: " + result);
+            }
+            List<String> initialized = new ArrayList<>();
+            for (String line : Files.readAllLines(log, StandardCharsets.UTF_8)) {
+                Matcher matcher = INITIALIZING.matcher(line);
+                if (matcher.find()) {
+                    initialized.add(matcher.group(1));
+                }
+            }
+            return initialized;
+        } finally {
+            Files.deleteIfExists(log);
+        }
+    }
+
+    /**
+     * Proposes the initialization policy of the classes of the application that were initialized
+     * @param initialized the internal names of the initialized classes, classes that are not on the
+     *                    classpath of the application are ignored
+     * @param delayInitList classes that are always initialized at run time, with their binary names
+     * @return the advice, with binary names
+     */
+    public Advice advise(List<String> initialized, List<String> delayInitList) {
+        // classes that use a delayed class can't be initialized at build time either
+        (delayInitList == null ? Collections.<String>emptyList() : delayInitList).forEach(name -> sideEffects.put(name.replace('.', '/'), "in delayInitList"));
+        List<String> candidates = new ArrayList<>();
+        for (String name : initialized) {
+            if (classes.containsKey(name) && !candidates.contains(name)) {
+                candidates.add(name);
+            }
+        }
+        // classes in a cycle are assumed pure while the cycle is scanned. Side effects that are found are
+        // real, so scan again until no new ones are found
+        long impure;
+        do {
+            impure = sideEffects.values().stream().filter(s -> !s.isEmpty()).count();
+            sideEffects.values().removeIf(String::isEmpty);
+            candidates.forEach(this::getSideEffect);
+        } while (sideEffects.values().stream().filter(s -> !s.isEmpty()).count() > impure);
+
+        Advice advice = new Advice();
+        for (String name : candidates) {
+            String binaryName = name.replace('/', '.');
+            String sideEffect = getSideEffect(name);
+            if (sideEffect.isEmpty()) {
+                advice.buildTime.add(binaryName);
+            } else {
+                advice.runTime.put(binaryName, sideEffect);
+            }
+        }
+        return advice;
+    }
+
+    /**
+     * Writes the advice, with the startup time before and after it was applied
+     * @param logPath the folder to write the report to
+     * @param advice the advice
+     * @param beforeMicros the median startup time without the advice, or -1
+     * @param afterMicros the median startup time with the advice, or -1
+     * @return the report file
+     * @throws IOException
+     */
+    public static Path writeReport(Path logPath, Advice advice, long beforeMicros, long afterMicros) throws IOException {
+        StringBuilder sb = new StringBuilder("{\n");
+        sb.append("  \"startupMicrosBefore\": ").append(beforeMicros).append(",\n");
+        sb.append("  \"startupMicrosAfter\": ").append(afterMicros).append(",\n");
+        sb.append("  \"buildTime\": [");
+        String separator = "\n";
+        for (String name : advice.buildTime) {
+            sb.append(separator).append("    ").append(BuildMetrics.quote(name));
+            separator = ",\n";
+        }
+        sb.append(advice.buildTime.isEmpty() ? "],\n" : "\n  ],\n");
+        sb.append("  \"runTime\": {");
+        separator = "\n";
+        for (Map.Entry<String, String> e : advice.runTime.entrySet()) {
+            sb.append(separator).append("    ").append(BuildMetrics.quote(e.getKey())).append(": ")
+                    .append(BuildMetrics.quote(e.getValue()));
+            separator = ",\n";
+        }
+        sb.append(advice.runTime.isEmpty() ? "}\n" : "\n  }\n");
+        sb.append("}\n");
+        Path report = logPath.resolve(REPORT_FILE);
+        Files.write(report, sb.toString().getBytes(StandardCharsets.UTF_8));
+        Logger.logInfo("Class initialization advice written to " + report);
+        return report;
+    }
+
+    /**
+     * @param name the internal name of a class
+     * @return the first side effect found in the initialization of the class and its super classes,
+     * or an empty string when it is pure
+     */
+    String getSideEffect(String name) {
+        String known = sideEffects.get(name);
+        if (known != null) {
+            return known;
+        }
+        // a cycle is pure as long as the rest of the cycle is
+        sideEffects.put(name, "");
+        String sideEffect = findSideEffect(name);
+        sideEffects.put(name, sideEffect);
+        return sideEffect;
+    }
+
+    private String findSideEffect(String name) {
+        ClassFileReader.ClassFile classFile = classes.get(name);
+        if (classFile == null) {
+            return PURE_JDK_METHODS.containsKey(name) ? "" : "is a JDK class that isn't known to be pure";
+        }
+        String superName = classFile.getSuperName();
+        if (superName != null && !getSideEffect(superName).isEmpty()) {
+            return "extends " + superName.replace('/', '.');
+        }
+        for (ClassFileReader.Method method : classFile.getMethods()) {
+            if (CLINIT.equals(method.getName())) {
+                return scan(classFile, method, name, new HashSet<>());
+            }
+        }
+        return "";
+    }
+
+    // scans a method that runs as part of the initialization of the class initializing
+    private String scan(ClassFileReader.ClassFile owner, ClassFileReader.Method method, String initializing,
+            Set<String> visited) {
+        if (!visited.add(owner.getName() + "." + method.getName() + method.getDescriptor())) {
+            return "";
+        }
+        byte[] code = method.getCode();
+        if (code == null) {
+            return "calls " + describe(owner.getName(), method.getName()) + ", which has no bytecode";
+        }
+        int pc = 0;
+        while (pc < code.length) {
+            int opcode = code[pc] & 0xff;
+            if (opcode >= GETSTATIC && opcode <= INVOKEINTERFACE) {
+                String[] ref = owner.getMemberRef(readShort(code, pc + 1));
+                String sideEffect = ref == null ? "" : checkMember(opcode, ref, initializing, visited);
+                if (!sideEffect.isEmpty()) {
+                    return sideEffect;
+                }
+            } else if (opcode == INVOKEDYNAMIC) {
+                String sideEffect = checkInvokeDynamic(owner.getInvokeDynamic(readShort(code, pc + 1)),
+                        describe(owner.getName(), method.getName()), initializing, visited);
+                if (!sideEffect.isEmpty()) {
+                    return sideEffect;
+                }
+            } else if (opcode == NEW) {
+                String type = owner.getClassRef(readShort(code, pc + 1));
+                if (type != null && !type.equals(initializing) && !getSideEffect(type).isEmpty()) {
+                    return "initializes " + type.replace('/', '.');
+                }
+            } else if (opcode == ATHROW) {
+                return describe(owner.getName(), method.getName()) + " may throw an exception";
+            } else if (opcode == MONITORENTER) {
+                return describe(owner.getName(), method.getName()) + " synchronizes";
+            }
+            pc += instructionLength(code, pc);
+        }
+        return "";
+    }
+
+    private String checkMember(int opcode, String[] ref, String initializing, Set<String> visited) {
+        String type = ref[0];
+        if (opcode == PUTSTATIC) {
+            return type.equals(initializing) ? "" : "writes the static field " + describe(type, ref[1]);
+        }
+        if (opcode == GETFIELD || opcode == PUTFIELD || type.startsWith("[")) {
+            // fields of objects, and methods of arrays like clone()
+            return "";
+        }
+        if (!classes.containsKey(type)) {
+            if (opcode == GETSTATIC) {
+                return PURE_JDK_METHODS.containsKey(type) ? "" : "reads " + describe(type, ref[1]);
+            }
+            return checkJdkMethod(type, ref[1], ref[2]);
+        }
+        if (!type.equals(initializing) && !getSideEffect(type).isEmpty()) {
+            return "initializes " + type.replace('/', '.');
+        }
+        if (opcode == GETSTATIC) {
+            return "";
+        }
+        // the declared method, or the one it inherits
+        for (String declaring = type; declaring != null; ) {
+            ClassFileReader.ClassFile classFile = classes.get(declaring);
+            if (classFile == null) {
+                return checkJdkMethod(declaring, ref[1], ref[2]);
+            }
+            for (ClassFileReader.Method method : classFile.getMethods()) {
+                if (method.getName().equals(ref[1]) && method.getDescriptor().equals(ref[2])) {
+                    return scan(classFile, method, initializing, visited);
+                }
+            }
+            declaring = classFile.getSuperName();
+        }
+        // a default method of an interface
+        return "calls " + describe(type, ref[1]) + ", which can't be resolved";
+    }
+
+    private static String checkJdkMethod(String type, String name, String descriptor) {
+        Set<String> pure = PURE_JDK_METHODS.get(type);
+        if (pure == null || !pure.contains(name)) {
+            return "calls " + describe(type, name);
+        }
+        String parameters = descriptor.substring(0, descriptor.indexOf(')') + 1);
+        for (String callback : CALLBACK_TYPES) {
+            if (parameters.contains(callback)) {
+                return "calls " + describe(type, name) + descriptor + ", which calls back into other code";
+            }
+        }
+        if (type.equals("java/lang/String") || type.equals("java/lang/StringBuilder")) {
+            // e.g. String.valueOf(Object) or StringBuilder.append(Object)
+            String toString = findToString(parameters);
+            if (toString != null) {
+                return "calls " + describe(type, name) + descriptor + ", which calls toString() of " + toString;
+            }
+        }
+        return "";
+    }
+
+    // the first parameter of which toString() might not be pure, or null
+    private static String findToString(String parameters) {
+        Matcher objects = OBJECT_PARAMETER.matcher(parameters);
+        while (objects.find()) {
+            String type = objects.group(1);
+            if (!PURE_TO_STRING.contains(type) && !type.equals("java/lang/CharSequence")) {
+                return type.replace('/', '.');
+            }
+        }
+        return null;
+    }
+
+    // a lambda is scanned as if it is called, a string concatenation calls toString() of the objects
+    private String checkInvokeDynamic(ClassFileReader.InvokeDynamic indy, String caller, String initializing,
+            Set<String> visited) {
+        if (indy == null || indy.getBootstrapMethod() == null) {
+            return caller + " uses invokedynamic";
+        }
+        String factory = indy.getBootstrapMethod()[0];
+        if (LAMBDA_FACTORY.equals(factory) && indy.getArguments().size() >= 2 && indy.getArguments().get(1) != null) {
+            return checkMember(INVOKESTATIC, indy.getArguments().get(1), initializing, visited);
+        }
+        if (CONCAT_FACTORY.equals(factory)) {
+            String toString = findToString(indy.getDescriptor().substring(0, indy.getDescriptor().indexOf(')') + 1));
+            return toString == null ? "" : caller + " calls toString() of " + toString + " in a string concatenation";
+        }
+        return caller + " uses invokedynamic with " + describe(factory, indy.getBootstrapMethod()[1]);
+    }
+
+    private static String describe(String type, String member) {
+        return type.replace('/', '.') + "." + member;
+    }
+
+    private static int readShort(byte[] code, int pc) {
+        return ((code[pc] & 0xff) << 8) | (code[pc + 1] & 0xff);
+    }
+
+    private static int readInt(byte[] code, int pc) {
+        return (readShort(code, pc) << 16) | readShort(code, pc + 2);
+    }
+
+    // the length of the instruction at pc, in bytes
+    static int instructionLength(byte[] code, int pc) {
+        int opcode = code[pc] & 0xff;
+        switch (opcode) {
+            case 16: case 18: case 21: case 22: case 23: case 24: case 25:
+            case 54: case 55: case 56: case 57: case 58: case 169: case 188:
+                return 2;
+            case 17: case 19: case 20: case 132: case 178: case 179: case 180: case 181: case 182: case 183:
+            case 184: case 187: case 189: case 192: case 193: case 198: case 199:
+                return 3;
+            case 197:
+                return 4;
+            case 185: case 186: case 200: case 201:
+                return 5;
+            case 196:
+                // wide
+                return (code[pc + 1] & 0xff) == 132 ? 6 : 4;
+            case 170: {
+                // tableswitch, padded to a multiple of 4
+                int base = (pc + 4) & ~3;
+                int low = readInt(code, base + 4);
+                int high = readInt(code, base + 8);
+                return base - pc + 12 + 4 * (high - low + 1);
+            }
+            case 171: {
+                // lookupswitch
+                int base = (pc + 4) & ~3;
+                return base - pc + 8 + 8 * readInt(code, base + 4);
+            }
+            default:
+                return opcode >= 153 && opcode <= 168 ? 3 : 1;
+        }
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2019, Gluon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL GLUON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gluonhq.substrate.util;
+
+import com.gluonhq.substrate.model.ProjectConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Fingerprint of all the inputs of a native-image compilation: the classpath entries, the main class,
+ * the compilation related fields of the {@link ProjectConfiguration}, the native-image command, the
+ * configuration files it reads and the GraalVM installation.
+ *
+ * When the fingerprint of a new compilation matches the one stored after the last successful
+ * compilation, the existing objectfile can be reused.
+ */
+public class CompileManifest {
+
+    private static final String MANIFEST_FILE = "compile.manifest";
+    private static final String OBJECT_KEY = "object";
+
+    private static final String CLASSPATH_PREFIX = "cp:";
+    private static final String CONFIG_FILE_PREFIX = "configfile:";
+    private static final String CONFIG_FILES_OPTION = "ConfigurationFiles=";
+
+    private final Map<String, String> entries = new TreeMap<>();
+    private Path objectFile;
+
+    private CompileManifest() {}
+
+    /**
+     * Creates the fingerprint for a compilation
+     * @param config the project configuration
+     * @param command the native-image command that will be executed
+     * @param classPath the classpath that will be compiled
+     * @return the manifest describing the inputs of this compilation
+     * @throws IOException when the classpath entries can't be read
+     */
+    public static CompileManifest of(ProjectConfiguration config, List<String> command, String classPath) throws IOException {
+        CompileManifest manifest = new CompileManifest();
+        manifest.entries.put("graalvm", graalVersion(config.getGraalPath()));
+        manifest.entries.put("mainclass", Objects.toString(config.getMainClassName()));
+        manifest.entries.put("target", Objects.toString(config.getTargetTriplet()));
+        manifest.entries.put("config", FileOps.digest(compileSettings(config)));
+        manifest.entries.put("command", FileOps.digest(String.join(" ", command)));
+        for (String entry : classPath.split(File.pathSeparator)) {
+            if (!entry.isEmpty()) {
+                manifest.entries.put(CLASSPATH_PREFIX + entry, digestPath(Path.of(entry)));
+            }
+        }
+        // the configuration files are passed by name, their content is an input as well. The generated
+        // files are written for every compilation, so their content is digested rather than their time stamp
+        for (String arg : command) {
+            int files = arg.indexOf(CONFIG_FILES_OPTION);
+            if (arg.startsWith("-H:") && files > 0) {
+                for (String file : arg.substring(files + CONFIG_FILES_OPTION.length()).split(",")) {
+                    Path path = Path.of(file);
+                    manifest.entries.put(CONFIG_FILE_PREFIX + file,
+                            Files.isRegularFile(path) ? FileOps.digest(Files.readAllBytes(path)) : "missing");
+                }
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * Reads the manifest of the last successful compilation
+     * @param gvmPath the directory where the manifest is stored
+     * @return the manifest, or <code>null</code> if there is none or it can't be read
+     */
+    public static CompileManifest read(Path gvmPath) {
+        Path file = gvmPath.resolve(MANIFEST_FILE);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (InputStream is = Files.newInputStream(file)) {
+            properties.load(is);
+        } catch (IOException e) {
+            Logger.logDebug("Could not read " + file + ": " + e.getMessage());
+            return null;
+        }
+        CompileManifest manifest = new CompileManifest();
+        properties.stringPropertyNames().forEach(key -> {
+            if (OBJECT_KEY.equals(key)) {
+                manifest.objectFile = Path.of(properties.getProperty(key));
+            } else {
+                manifest.entries.put(key, properties.getProperty(key));
+            }
+        });
+        return manifest;
+    }
+
+    /**
+     * Removes the stored manifest, so a failed or interrupted compilation is never reused.
+     * @param gvmPath the directory where the manifest is stored
+     * @throws IOException
+     */
+    public static void invalidate(Path gvmPath) throws IOException {
+        Files.deleteIfExists(gvmPath.resolve(MANIFEST_FILE));
+    }
+
+    public void write(Path gvmPath) throws IOException {
+        Properties properties = new Properties();
+        properties.putAll(entries);
+        if (objectFile != null) {
+            properties.setProperty(OBJECT_KEY, objectFile.toString());
+        }
+        try (OutputStream os = Files.newOutputStream(gvmPath.resolve(MANIFEST_FILE))) {
+            properties.store(os, "Inputs of the last successful native-image compilation");
+        }
+    }
+
+    public Path getObjectFile() {
+        return objectFile;
+    }
+
+    public void setObjectFile(Path objectFile) {
+        this.objectFile = objectFile;
+    }
+
+    /**
+     * Explains why a compilation with this manifest can't reuse the result of a previous compilation
+     * @param previous the manifest of the previous compilation, possibly <code>null</code>
+     * @return a list of human readable reasons, empty if nothing changed
+     */
+    public List<String> getChangesFrom(CompileManifest previous) {
+        List<String> changes = new ArrayList<>();
+        if (previous == null) {
+            changes.add("no previous successful compilation");
+            return changes;
+        }
+        entries.forEach((key, value) -> {
+            String old = previous.entries.get(key);
+            if (old == null) {
+                changes.add(describe(key) + " was added");
+            } else if (!old.equals(value)) {
+                changes.add(describe(key) + " changed");
+            }
+        });
+        previous.entries.keySet().stream()
+                .filter(key -> !entries.containsKey(key))
+                .forEach(key -> changes.add(describe(key) + " was removed"));
+        if (previous.objectFile == null || !Files.isRegularFile(previous.objectFile)) {
+            changes.add("objectfile " + previous.objectFile + " is missing");
+        }
+        return changes;
+    }
+
+    private static String describe(String key) {
+        if (key.startsWith(CLASSPATH_PREFIX)) {
+            return "classpath entry " + key.substring(CLASSPATH_PREFIX.length());
+        }
+        return key.startsWith(CONFIG_FILE_PREFIX) ?
+                "configuration file " + key.substring(CONFIG_FILE_PREFIX.length()) : key;
+    }
+
+    private static String compileSettings(ProjectConfiguration config) {
+        return "graalPath=" + config.getGraalPath() +
+                ", backend=" + config.getBackend() +
+                ", useJNI=" + config.isUseJNI() +
+                ", useJavaFX=" + config.isUseJavaFX() +
+                ", bundlesList=" + config.getBundlesList() +
+                ", resourcesList=" + config.getResourcesList() +
+                ", reflectionList=" + config.getReflectionList() +
+                ", jniList=" + config.getJniList() +
+                ", delayInitList=" + config.getDelayInitList() +
+                ", buildInitList=" + config.getBuildInitList();
+    }
+
+    // the release file contains the exact version of the GraalVM build, the native-image
+    // launcher itself changes when the installation is replaced
+    private static String graalVersion(String graalPath) throws IOException {
+        if (graalPath == null) {
+            return "none";
+        }
+        Path root = Path.of(graalPath);
+        StringBuilder sb = new StringBuilder();
+        Path release = root.resolve("release");
+        if (Files.isRegularFile(release)) {
+            sb.append(Files.readString(release));
+        }
+        Path nativeImage = root.resolve("bin").resolve("native-image");
+        if (Files.exists(nativeImage)) {
+            sb.append(Files.size(nativeImage)).append(Files.getLastModifiedTime(nativeImage).toMillis());
+        }
+        return FileOps.digest(sb.toString());
+    }
+
+    // not looking for security, a change of name, size or modification time of any file is enough
+    private static String digestPath(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return "missing";
+        }
+        if (!Files.isDirectory(path)) {
+            return FileOps.digest(fileSignature(path, path));
+        }
+        try (Stream<Path> files = Files.walk(path)) {
+            List<Path> sorted = files.filter(Files::isRegularFile)
+                    .sorted()
+                    .collect(Collectors.toList());
+            StringBuilder sb = new StringBuilder();
+            for (Path file : sorted) {
+                sb.append(fileSignature(path.relativize(file), file)).append('\n');
+            }
+            return FileOps.digest(sb.toString());
+        }
+    }
+
+    private static String fileSignature(Path name, Path file) throws IOException {
+        return name + ":" + Files.size(file) + ":" + Files.getLastModifiedTime(file).toMillis();
+    }
+}
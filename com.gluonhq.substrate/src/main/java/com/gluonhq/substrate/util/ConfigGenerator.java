@@ -0,0 +1,358 @@
+/*
+ * Copyright (c) 2019, Gluon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL GLUON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gluonhq.substrate.util;
+
+import com.gluonhq.substrate.attach.AttachResolver;
+import com.gluonhq.substrate.model.ProjectConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Generates the reflection, JNI and resource configuration of native-image from the lists of the
+ * {@link ProjectConfiguration} and the Attach services on the classpath.
+ *
+ * An entry of the reflection and JNI lists is either a class, which registers all its constructors,
+ * methods and fields, or <code>class#member</code>, which registers only the constructors
+ * (<code>#&lt;init&gt;</code>), methods or field with that name. Members are resolved on the classpath.
+ * Attach services get their default constructor for reflection. For JNI they get all their members, because
+ * their native code can call back any of them, and a missing one only fails at run time. A service that is
+ * in the JNI list with <code>class#member</code> entries keeps only these members.
+ * The configuration recorded by <code>native-image-agent</code> is passed along with the generated one,
+ * native-image merges them.
+ */
+public class ConfigGenerator {
+
+    public static final String REFLECT_CONFIG = "reflect-config.json";
+    public static final String JNI_CONFIG = "jni-config.json";
+    public static final String RESOURCE_CONFIG = "resource-config.json";
+    public static final String PROXY_CONFIG = "proxy-config.json";
+
+    /**
+     * The folder in the gen folder where <code>native-image-agent</code> writes its configuration
+     */
+    public static final String AGENT_PATH = "agent";
+
+    private static final String MEMBER_SEPARATOR = "#";
+    private static final String CONSTRUCTOR = "<init>";
+
+    private final String classPath;
+    private Map<String, ClassFileReader.ClassFile> classes;
+
+    private ConfigGenerator(String classPath) {
+        this.classPath = classPath;
+    }
+
+    // the registration of a class
+    private static class ClassConfig {
+        final String name;
+        boolean all;
+        // method name and descriptor, in the order they were added
+        final Set<String> methods = new LinkedHashSet<>();
+        final Set<String> fields = new LinkedHashSet<>();
+
+        ClassConfig(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * Writes the configuration files to the gen folder, and removes those that have no entries
+     * @param genPath the gen folder of the application
+     * @param config the project configuration
+     * @param classPath the classpath that will be compiled
+     * @return the native-image arguments that pass the generated files, and the files of the agent
+     * when {@link ProjectConfiguration#isUseAgentConfig()} is set
+     * @throws IOException
+     */
+    public static List<String> generate(Path genPath, ProjectConfiguration config, String classPath) throws IOException {
+        ConfigGenerator generator = new ConfigGenerator(classPath);
+        List<Path> jars = Arrays.stream(classPath.split(File.pathSeparator))
+                .filter(entry -> entry.endsWith(".jar"))
+                .map(Path::of)
+                .collect(Collectors.toList());
+        List<String> services = AttachResolver.attachServices(jars);
+
+        Map<String, ClassConfig> reflection = new LinkedHashMap<>();
+        generator.addAll(reflection, config.getReflectionList());
+        for (String service : services) {
+            reflection.computeIfAbsent(service, ClassConfig::new).methods.add(CONSTRUCTOR + "()V");
+        }
+        Map<String, ClassConfig> jni = generator.jniConfigs(config.getJniList(), services);
+
+        Path agentPath = genPath.resolve(AGENT_PATH);
+        boolean agent = config.isUseAgentConfig();
+        if (agent && !Files.isDirectory(agentPath)) {
+            System.err.println("WARNING: there is no configuration of native-image-agent in " + agentPath);
+        }
+        List<String> args = new ArrayList<>();
+        addArg(args, "-H:ReflectionConfigurationFiles=",
+                write(genPath.resolve(REFLECT_CONFIG), reflection.isEmpty() ? null : toJson(reflection)),
+                agent ? agentPath.resolve(REFLECT_CONFIG) : null);
+        addArg(args, "-H:JNIConfigurationFiles=",
+                write(genPath.resolve(JNI_CONFIG), jni.isEmpty() ? null : toJson(jni)),
+                agent ? agentPath.resolve(JNI_CONFIG) : null);
+        addArg(args, "-H:ResourceConfigurationFiles=",
+                write(genPath.resolve(RESOURCE_CONFIG), resourcesJson(config.getResourcesList(), config.getBundlesList())),
+                agent ? agentPath.resolve(RESOURCE_CONFIG) : null);
+        addArg(args, "-H:DynamicProxyConfigurationFiles=", null, agent ? agentPath.resolve(PROXY_CONFIG) : null);
+        Logger.logDebug("Generated configuration: " + reflection.size() + " classes for reflection, " +
+                jni.size() + " for JNI, " + services.size() + " Attach services");
+        return args;
+    }
+
+    /**
+     * Runs the application on the JVM with <code>native-image-agent</code>, which records the use of
+     * reflection, JNI, resources and proxies into the <code>agent</code> folder of the gen folder.
+     * The configuration is written when the application exits, so it has to exit by itself.
+     * @param genPath the gen folder of the application
+     * @param config the project configuration, with the GraalVM installation and main class
+     * @param classPath the classpath of the application
+     * @param args the arguments of the application
+     * @return true if the application exited with 0
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static boolean runAgent(Path genPath, ProjectConfiguration config, String classPath, List<String> args)
+            throws IOException, InterruptedException {
+        Path agentPath = genPath.resolve(AGENT_PATH);
+        FileOps.rmdir(agentPath);
+        Files.createDirectories(agentPath);
+        List<String> command = StartupBenchmark.jvmCommand(config.getGraalPath(), classPath, config.getMainClassName());
+        command.add(1, "-agentlib:native-image-agent=config-output-dir=" + agentPath);
+        command.addAll(args);
+        NativeProcess process = new NativeProcess(command);
+        process.setMergeErrors(true);
+        process.setOutputListener(line -> Logger.logInfo("[agent] " + line));
+        NativeProcess.Result result = process.start().waitFor();
+        if (!result.isSuccess()) {
+            System.err.println("Running the application with native-image-agent failed: " + result);
+        }
+        return result.isSuccess();
+    }
+
+    private void addAll(Map<String, ClassConfig> configs, List<String> entries) throws IOException {
+        if (entries == null) {
+            return;
+        }
+        for (String entry : entries) {
+            int separator = entry.indexOf(MEMBER_SEPARATOR);
+            String name = (separator < 0 ? entry : entry.substring(0, separator)).trim();
+            ClassConfig classConfig = configs.computeIfAbsent(name, ClassConfig::new);
+            if (separator < 0) {
+                classConfig.all = true;
+            } else if (!addMember(classConfig, entry.substring(separator + 1).trim())) {
+                System.err.println("WARNING: " + entry + " can't be resolved on the classpath, all members of " + name +
+                        " are registered");
+                classConfig.all = true;
+            }
+        }
+    }
+
+    // adds the methods or field with that name, false if there are none
+    private boolean addMember(ClassConfig classConfig, String member) throws IOException {
+        ClassFileReader.ClassFile classFile = findClass(classConfig.name);
+        if (classFile == null) {
+            return false;
+        }
+        boolean found = false;
+        for (ClassFileReader.Method method : classFile.getMethods()) {
+            if (method.getName().equals(member)) {
+                classConfig.methods.add(method.getName() + method.getDescriptor());
+                found = true;
+            }
+        }
+        if (classFile.getFields().contains(member)) {
+            classConfig.fields.add(member);
+            found = true;
+        }
+        return found;
+    }
+
+    // the JNI list, and the Attach services with all their members unless the list has members of them
+    private Map<String, ClassConfig> jniConfigs(List<String> jniList, List<String> services) throws IOException {
+        Map<String, ClassConfig> jni = new LinkedHashMap<>();
+        addAll(jni, jniList);
+        for (String service : services) {
+            ClassConfig classConfig = jni.computeIfAbsent(service, ClassConfig::new);
+            if (classConfig.methods.isEmpty() && classConfig.fields.isEmpty()) {
+                classConfig.all = true;
+            }
+        }
+        return jni;
+    }
+
+    /**
+     * @return the JNI configuration of the provided list and Attach services, as native-image reads it
+     */
+    static String jniJson(String classPath, List<String> jniList, List<String> services) throws IOException {
+        return toJson(new ConfigGenerator(classPath).jniConfigs(jniList, services));
+    }
+
+    private ClassFileReader.ClassFile findClass(String name) throws IOException {
+        if (classes == null) {
+            classes = new LinkedHashMap<>();
+            for (ClassFileReader.ClassFile classFile : ClassFileReader.readClassPath(classPath)) {
+                classes.putIfAbsent(classFile.getName(), classFile);
+            }
+        }
+        return classes.get(name.replace('.', '/'));
+    }
+
+    private static void addArg(List<String> args, String option, Path generated, Path agentFile) {
+        List<String> files = new ArrayList<>();
+        if (generated != null) {
+            files.add(generated.toAbsolutePath().toString());
+        }
+        if (agentFile != null && Files.isRegularFile(agentFile)) {
+            files.add(agentFile.toAbsolutePath().toString());
+        }
+        if (!files.isEmpty()) {
+            args.add(option + String.join(",", files));
+        }
+    }
+
+    // writes the file, or removes it when there is no content
+    private static Path write(Path file, String json) throws IOException {
+        if (json == null) {
+            Files.deleteIfExists(file);
+            return null;
+        }
+        Files.write(file, json.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static String toJson(Map<String, ClassConfig> configs) {
+        StringBuilder sb = new StringBuilder("[");
+        String separator = "\n";
+        for (ClassConfig config : configs.values()) {
+            sb.append(separator).append("  {\n    \"name\": ").append(BuildMetrics.quote(config.name));
+            if (config.all) {
+                sb.append(",\n    \"allDeclaredConstructors\": true");
+                sb.append(",\n    \"allDeclaredMethods\": true");
+                sb.append(",\n    \"allDeclaredFields\": true");
+            } else {
+                if (!config.methods.isEmpty()) {
+                    sb.append(",\n    \"methods\": [");
+                    String inner = "\n";
+                    for (String method : config.methods) {
+                        int descriptor = method.indexOf('(');
+                        sb.append(inner).append("      {\"name\": ").append(BuildMetrics.quote(method.substring(0, descriptor)))
+                                .append(", \"parameterTypes\": [")
+                                .append(parameterTypes(method.substring(descriptor)).stream()
+                                        .map(BuildMetrics::quote).collect(Collectors.joining(", ")))
+                                .append("]}");
+                        inner = ",\n";
+                    }
+                    sb.append("\n    ]");
+                }
+                if (!config.fields.isEmpty()) {
+                    sb.append(",\n    \"fields\": [");
+                    sb.append(config.fields.stream().map(f -> "{\"name\": " + BuildMetrics.quote(f) + "}")
+                            .collect(Collectors.joining(", ")));
+                    sb.append("]");
+                }
+            }
+            sb.append("\n  }");
+            separator = ",\n";
+        }
+        return sb.append(configs.isEmpty() ? "]\n" : "\n]\n").toString();
+    }
+
+    static String resourcesJson(List<String> resources, List<String> bundles) {
+        boolean noResources = resources == null || resources.isEmpty();
+        boolean noBundles = bundles == null || bundles.isEmpty();
+        if (noResources && noBundles) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder("{\n  \"resources\": [");
+        if (!noResources) {
+            sb.append(resources.stream().map(r -> "\n    {\"pattern\": " + BuildMetrics.quote(r) + "}")
+                    .collect(Collectors.joining(","))).append("\n  ");
+        }
+        sb.append("],\n  \"bundles\": [");
+        if (!noBundles) {
+            sb.append(bundles.stream().map(b -> "\n    {\"name\": " + BuildMetrics.quote(b) + "}")
+                    .collect(Collectors.joining(","))).append("\n  ");
+        }
+        return sb.append("]\n}\n").toString();
+    }
+
+    /**
+     * @param descriptor a method descriptor, e.g. <code>(I[Ljava/lang/String;)V</code>
+     * @return the parameter types as native-image expects them, e.g. <code>int, java.lang.String[]</code>
+     */
+    static List<String> parameterTypes(String descriptor) {
+        List<String> types = new ArrayList<>();
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            int dimensions = 0;
+            while (descriptor.charAt(i) == '[') {
+                dimensions++;
+                i++;
+            }
+            String type;
+            char c = descriptor.charAt(i);
+            if (c == 'L') {
+                int end = descriptor.indexOf(';', i);
+                type = descriptor.substring(i + 1, end).replace('/', '.');
+                i = end + 1;
+            } else {
+                type = primitive(c);
+                i++;
+            }
+            types.add(type + "[]".repeat(dimensions));
+        }
+        return types;
+    }
+
+    private static String primitive(char c) {
+        switch (c) {
+            case 'Z': return "boolean";
+            case 'B': return "byte";
+            case 'C': return "char";
+            case 'S': return "short";
+            case 'I': return "int";
+            case 'J': return "long";
+            case 'F': return "float";
+            case 'D': return "double";
+            default: throw new IllegalArgumentException("Unknown type " + c);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2019, Gluon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL GLUON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gluonhq.substrate.util;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Records the size, modification time and MD5 digest of the files of a downloaded dependency.
+ *
+ * The manifest is a text file with one line per file:
+ * <pre>
+ * # substrate dependency manifest v1
+ * libjava.a	1234567	1570000000000	0123456789abcdef0123456789abcdef
+ * </pre>
+ *
+ * Files with the recorded size and modification time are trusted without being read,
+ * the others are hashed in parallel.
+ */
+public class DependencyManifest {
+
+    private static final String HEADER = "# substrate dependency manifest v1";
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final Path manifestFile;
+    private final Map<String, Entry> entries = new TreeMap<>();
+
+    private static class Entry {
+        final long size;
+        final long modified;
+        final String digest;
+
+        Entry(long size, long modified, String digest) {
+            this.size = size;
+            this.modified = modified;
+            this.digest = digest;
+        }
+    }
+
+    public DependencyManifest(Path manifestFile) {
+        this.manifestFile = manifestFile;
+    }
+
+    /**
+     * Reads a manifest
+     * @param manifestFile the manifest file
+     * @return the manifest, or <code>null</code> if it doesn't exist or can't be parsed
+     */
+    public static DependencyManifest read(Path manifestFile) {
+        if (!Files.isRegularFile(manifestFile)) {
+            return null;
+        }
+        DependencyManifest manifest = new DependencyManifest(manifestFile);
+        try {
+            List<String> lines = Files.readAllLines(manifestFile, StandardCharsets.UTF_8);
+            if (lines.isEmpty() || !HEADER.equals(lines.get(0))) {
+                return null;
+            }
+            for (String line : lines.subList(1, lines.size())) {
+                String[] fields = line.split("\t");
+                if (fields.length != 4) {
+                    return null;
+                }
+                manifest.entries.put(fields[0],
+                        new Entry(Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[3]));
+            }
+        } catch (IOException | NumberFormatException e) {
+            Logger.logDebug("Could not read " + manifestFile + ": " + e.getMessage());
+            return null;
+        }
+        return manifest;
+    }
+
+    public void write() throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(manifestFile, StandardCharsets.UTF_8)) {
+            writer.write(HEADER);
+            writer.newLine();
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                Entry entry = e.getValue();
+                writer.write(e.getKey() + "\t" + entry.size + "\t" + entry.modified + "\t" + entry.digest);
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * Records a file, using its current size and modification time
+     * @param file the file
+     * @param digest the MD5 digest of the file, as a hexadecimal String
+     * @throws IOException
+     */
+    public void add(Path file, String digest) throws IOException {
+        entries.put(file.getFileName().toString(),
+                new Entry(Files.size(file), Files.getLastModifiedTime(file).toMillis(), digest));
+    }
+
+    /**
+     * Verifies the files in the provided directory against this manifest. Files that were touched
+     * but still have the recorded digest are updated in the manifest, so they are not hashed again.
+     * @param dir the directory containing the files
+     * @param names the names of the files to verify
+     * @return true if all files are recorded and have the recorded contents
+     * @throws IOException
+     */
+    public boolean verify(Path dir, List<String> names) throws IOException {
+        long start = System.nanoTime();
+        List<String> toHash = new ArrayList<>();
+        for (String name : names) {
+            Entry entry = entries.get(name);
+            Path file = dir.resolve(name);
+            if (entry == null || !Files.isRegularFile(file) || Files.size(file) != entry.size) {
+                Logger.logDebug(name + " is missing or has the wrong size");
+                return false;
+            }
+            if (Files.getLastModifiedTime(file).toMillis() != entry.modified) {
+                toHash.add(name);
+            }
+        }
+        boolean valid;
+        try {
+            valid = toHash.parallelStream()
+                    .allMatch(name -> entries.get(name).digest.equals(hash(dir.resolve(name))));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (valid && !toHash.isEmpty()) {
+            for (String name : toHash) {
+                add(dir.resolve(name), entries.get(name).digest);
+            }
+            write();
+        }
+        Logger.logDebug("Verified " + names.size() + " files in " + dir + " in " +
+                (System.nanoTime() - start) / 1_000_000 + " ms, " + toHash.size() + " of them were hashed");
+        return valid;
+    }
+
+    /**
+     * Calculates the MD5 digest of a file.
+     * @param file the file
+     * @return the digest, as a hexadecimal String
+     * @throws UncheckedIOException when the file can't be read
+     */
+    public static String hash(Path file) {
+        return FileOps.toHex(digest(file));
+    }
+
+    static byte[] digest(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // not looking for security, just a checksum. MD5 should be faster than SHA
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                md.update(buffer);
+                buffer.clear();
+            }
+            return md.digest();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("MD5 not available", e);
+        }
+    }
+}
@@ -0,0 +1,515 @@
+/*
+ * Copyright (c) 2019, Gluon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL GLUON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gluonhq.substrate.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Downloads files over HTTP. Large files are split in ranges that are downloaded concurrently into a
+ * single <code>.part</code> file, each range at its own position, while the file is read in order:
+ * the bytes are processed as soon as they arrive, without copying the file or reading it again.
+ *
+ * The progress of the ranges is kept in a <code>.part.state</code> file with the ETag or Last-Modified
+ * date of the file, so an interrupted download is resumed only if the file didn't change on the server.
+ * The range requests are sent with <code>If-Range</code> to detect changes during the download.
+ * When a range fails the other ranges are stopped.
+ *
+ * Servers that don't support range requests are handled with a single request that starts from zero.
+ */
+public class Downloader {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long MIN_RANGE_SIZE = 8 * 1024 * 1024;
+    private static final long STATE_INTERVAL = 4 * 1024 * 1024;
+    private static final int MAX_CONNECTIONS = 4;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final int TIMEOUT_MILLIS = 30_000;
+
+    private final URL url;
+    private final long length;
+    private final boolean acceptsRanges;
+    private final String validator;
+
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong resumed = new AtomicLong();
+    private volatile int lastReportedPercentage;
+
+    private Downloader(URL url, long length, boolean acceptsRanges, String validator) {
+        this.url = url;
+        this.length = length;
+        this.acceptsRanges = acceptsRanges;
+        this.validator = validator;
+    }
+
+    /**
+     * Asks the server for the size of the file, whether it supports range requests, and its ETag or
+     * Last-Modified date
+     * @param url the url of the file
+     * @return a downloader for the file
+     * @throws IOException
+     */
+    public static Downloader probe(URL url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setRequestMethod("HEAD");
+            connection.setConnectTimeout(TIMEOUT_MILLIS);
+            connection.setReadTimeout(TIMEOUT_MILLIS);
+            int code = connection.getResponseCode();
+            if (code != HttpURLConnection.HTTP_OK) {
+                Logger.logDebug("HEAD " + url + " returned " + code + ", ranges will not be used");
+                return new Downloader(url, -1, false, null);
+            }
+            long length = connection.getContentLengthLong();
+            boolean ranges = "bytes".equalsIgnoreCase(connection.getHeaderField("Accept-Ranges"));
+            String etag = connection.getHeaderField("ETag");
+            // a weak ETag can't be used in If-Range
+            String validator = etag != null && !etag.startsWith("W/") ? etag : connection.getHeaderField("Last-Modified");
+            return new Downloader(url, length, ranges && length > 0, validator);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * @return true if the download can be split in ranges
+     */
+    public boolean isAcceptsRanges() {
+        return acceptsRanges;
+    }
+
+    /**
+     * @return the size of the file, or -1 if the server didn't tell
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Starts downloading the file with concurrent range requests. A download of the same file that
+     * was interrupted is resumed.
+     *
+     * The returned stream reads the file in order, waiting for the ranges that didn't arrive yet. When
+     * it is read to the end, the file is moved to the destination. When it is closed before, or a range
+     * fails, the download stops and the <code>.part</code> files are kept so the next attempt can resume.
+     * @param destination the file to create
+     * @return the contents of the file
+     * @throws IOException when the download can't be started
+     */
+    public InputStream download(Path destination) throws IOException {
+        if (!acceptsRanges) {
+            throw new IOException("Server for " + url + " does not support range requests");
+        }
+        return new RangeDownload(destination);
+    }
+
+    /**
+     * Opens a stream for the whole file, with a single request
+     * @return the stream
+     * @throws IOException
+     */
+    public InputStream openStream() throws IOException {
+        return new CountingInputStream(url.openStream());
+    }
+
+    /**
+     * @return the number of bytes received so far
+     */
+    public long getReceived() {
+        return received.get();
+    }
+
+    private void progress(int n) {
+        long total = received.addAndGet(n);
+        BuildMetrics.addBytesDownloaded(n);
+        if (length > 0) {
+            int percentage = (int) (total * 100 / length);
+            if (percentage / 10 > lastReportedPercentage / 10) {
+                lastReportedPercentage = percentage;
+                Logger.logInfo("Downloading " + url.getPath() + ": " + percentage + "% of " + (length >> 20) + " MB");
+            }
+        }
+    }
+
+    void logThroughput(long start, int connections) {
+        double seconds = Math.max(1, System.nanoTime() - start) / 1e9;
+        double megabytes = (received.get() - resumed.get()) / (1024.0 * 1024.0);
+        Logger.logInfo(String.format("Downloaded %s: %.1f MB in %.1f s (%.1f MB/s, %d connection%s)",
+                url, megabytes, seconds, megabytes / seconds, connections, connections == 1 ? "" : "s"));
+    }
+
+    /**
+     * The ranges of a download, written to one file, and the stream that reads them in order
+     */
+    private class RangeDownload extends InputStream {
+
+        private final long start = System.nanoTime();
+        private final Path destination;
+        private final Path part;
+        private final Path stateFile;
+        private final FileChannel channel;
+        private final long rangeSize;
+        // the bytes written of every range, guarded by this
+        private final long[] done;
+        private final long[] saved;
+        private final List<BackgroundTask<Void>> tasks = new ArrayList<>();
+        private final Set<HttpURLConnection> connections = ConcurrentHashMap.newKeySet();
+        private IOException failure;
+        private boolean stopped;
+        private long position;
+
+        RangeDownload(Path destination) throws IOException {
+            this.destination = destination;
+            part = destination.resolveSibling(destination.getFileName() + ".part");
+            stateFile = destination.resolveSibling(destination.getFileName() + ".part.state");
+            int count = (int) Math.max(1, Math.min(MAX_CONNECTIONS, length / MIN_RANGE_SIZE));
+            rangeSize = (length + count - 1) / count;
+            done = readState(count);
+            saved = done.clone();
+            channel = FileChannel.open(part, CREATE, READ, WRITE);
+            for (int i = 0; i < count; i++) {
+                received.addAndGet(done[i]);
+                resumed.addAndGet(done[i]);
+                int range = i;
+                tasks.add(BackgroundTask.start("download-" + i, () -> {
+                    try {
+                        downloadRange(range);
+                    } catch (IOException e) {
+                        fail(e);
+                        throw e;
+                    }
+                    return null;
+                }));
+            }
+        }
+
+        // the progress of an interrupted download of the same file, or nothing
+        private long[] readState(int count) throws IOException {
+            long[] progress = new long[count];
+            if (Files.exists(stateFile) && Files.exists(part) && validator != null) {
+                Properties state = new Properties();
+                try (InputStream is = Files.newInputStream(stateFile)) {
+                    state.load(is);
+                }
+                if (validator.equals(state.getProperty("validator")) &&
+                        String.valueOf(length).equals(state.getProperty("length")) &&
+                        String.valueOf(count).equals(state.getProperty("ranges"))) {
+                    for (int i = 0; i < count; i++) {
+                        progress[i] = Math.min(Long.parseLong(state.getProperty("range." + i, "0")), rangeLength(i));
+                    }
+                    Logger.logDebug("Resuming " + part.getFileName() + " at " + Arrays.stream(progress).sum() + " bytes");
+                    return progress;
+                }
+                Logger.logDebug(url + " changed on the server, " + part.getFileName() + " is downloaded again");
+            }
+            Files.deleteIfExists(stateFile);
+            Files.deleteIfExists(part);
+            return progress;
+        }
+
+        private synchronized void writeState() throws IOException {
+            if (validator == null) {
+                return;
+            }
+            Properties state = new Properties();
+            state.setProperty("validator", validator);
+            state.setProperty("length", String.valueOf(length));
+            state.setProperty("ranges", String.valueOf(done.length));
+            for (int i = 0; i < done.length; i++) {
+                state.setProperty("range." + i, String.valueOf(done[i]));
+                saved[i] = done[i];
+            }
+            try (OutputStream os = Files.newOutputStream(stateFile)) {
+                state.store(os, url.toString());
+            }
+        }
+
+        private long rangeLength(int range) {
+            return Math.min(length, (range + 1) * rangeSize) - range * rangeSize;
+        }
+
+        private void downloadRange(int range) throws IOException {
+            long from = range * rangeSize;
+            long to = from + rangeLength(range) - 1;
+            IOException lastFailure = null;
+            for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+                long offset = from + progressOf(range);
+                if (offset > to) {
+                    return;
+                }
+                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+                connection.setConnectTimeout(TIMEOUT_MILLIS);
+                connection.setReadTimeout(TIMEOUT_MILLIS);
+                connection.setRequestProperty("Range", "bytes=" + offset + "-" + to);
+                if (validator != null) {
+                    connection.setRequestProperty("If-Range", validator);
+                }
+                connections.add(connection);
+                try {
+                    if (isStopped()) {
+                        return;
+                    }
+                    int code = connection.getResponseCode();
+                    if (code == HttpURLConnection.HTTP_OK) {
+                        // the whole file instead of the range: it changed since the download started
+                        throw new ChangedException(url + " changed on the server during the download");
+                    }
+                    String contentRange = connection.getHeaderField("Content-Range");
+                    if (code != HttpURLConnection.HTTP_PARTIAL || contentRange == null ||
+                            !contentRange.startsWith("bytes " + offset + "-")) {
+                        throw new IOException("Range request for " + url + " returned " + code + " " + contentRange);
+                    }
+                    try (InputStream is = connection.getInputStream()) {
+                        byte[] buffer = new byte[BUFFER_SIZE];
+                        int n;
+                        while (!isStopped() && offset <= to &&
+                                (n = is.read(buffer, 0, (int) Math.min(buffer.length, to - offset + 1))) != -1) {
+                            ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, n);
+                            while (bytes.hasRemaining()) {
+                                channel.write(bytes, offset + bytes.position());
+                            }
+                            offset += n;
+                            progress(n);
+                            written(range, n);
+                        }
+                    }
+                    if (isStopped() || offset > to) {
+                        return;
+                    }
+                    throw new IOException("Range request for " + url + " ended at " + offset + " instead of " + (to + 1));
+                } catch (ChangedException e) {
+                    throw e;
+                } catch (IOException | RuntimeException e) {
+                    // a connection that is disconnected by another thread can fail with any exception
+                    if (isStopped()) {
+                        return;
+                    }
+                    lastFailure = e instanceof IOException ? (IOException) e : new IOException(e);
+                    Logger.logDebug("Attempt " + attempt + " to download range " + range + " of " + url + " failed: " + e.getMessage());
+                } finally {
+                    connections.remove(connection);
+                    connection.disconnect();
+                }
+            }
+            throw lastFailure;
+        }
+
+        private synchronized long progressOf(int range) {
+            return done[range];
+        }
+
+        private void written(int range, int n) throws IOException {
+            boolean save;
+            synchronized (this) {
+                done[range] += n;
+                save = done[range] - saved[range] >= STATE_INTERVAL;
+                notifyAll();
+            }
+            if (save) {
+                writeState();
+            }
+        }
+
+        private synchronized boolean isStopped() {
+            return stopped || failure != null;
+        }
+
+        // stops the other ranges, their connections are closed so they don't wait for the read timeout
+        private void fail(IOException e) {
+            synchronized (this) {
+                if (failure == null) {
+                    failure = e;
+                }
+                notifyAll();
+            }
+            connections.forEach(HttpURLConnection::disconnect);
+        }
+
+        // waits until the byte at the position is written, returns the number of bytes that can be read
+        private synchronized long available(long position) throws IOException {
+            int range = (int) (position / rangeSize);
+            long end = range * rangeSize + done[range];
+            while (end <= position && failure == null && !stopped) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while downloading " + url, e);
+                }
+                end = range * rangeSize + done[range];
+            }
+            if (failure != null) {
+                throw new IOException("Downloading " + url + " failed: " + failure.getMessage(), failure);
+            }
+            if (stopped) {
+                throw new IOException("The download of " + url + " was closed");
+            }
+            return end - position;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= length) {
+                complete();
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+            int n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, available(position))), position);
+            if (n > 0) {
+                position += n;
+            }
+            return n;
+        }
+
+        // all ranges arrived: the part file becomes the destination
+        private void complete() throws IOException {
+            if (!channel.isOpen()) {
+                return;
+            }
+            for (BackgroundTask<Void> task : tasks) {
+                join(task);
+            }
+            channel.close();
+            if (Files.size(part) != length) {
+                throw new IOException("Downloaded " + url + " has the wrong size");
+            }
+            Files.move(part, destination, REPLACE_EXISTING);
+            Files.deleteIfExists(stateFile);
+            logThroughput(start, tasks.size());
+        }
+
+        private void join(BackgroundTask<Void> task) throws IOException {
+            try {
+                task.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while downloading " + url, e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!channel.isOpen()) {
+                return;
+            }
+            synchronized (this) {
+                stopped = true;
+                notifyAll();
+            }
+            connections.forEach(HttpURLConnection::disconnect);
+            for (BackgroundTask<Void> task : tasks) {
+                try {
+                    join(task);
+                } catch (IOException | RuntimeException e) {
+                    // already reported by the range
+                }
+            }
+            channel.close();
+            if (failure instanceof ChangedException) {
+                // the bytes that were downloaded belong to another version of the file
+                Files.deleteIfExists(stateFile);
+                Files.deleteIfExists(part);
+            } else {
+                writeState();
+            }
+        }
+    }
+
+    private static class ChangedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        ChangedException(String message) {
+            super(message);
+        }
+    }
+
+    private class CountingInputStream extends FilterInputStream {
+
+        private final long start = System.nanoTime();
+        private boolean reported;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                progress(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                progress(n);
+            }
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            if (!reported) {
+                reported = true;
+                logThroughput(start, 1);
+            }
+        }
+    }
+}
@@ -31,23 +31,25 @@ package com.gluonhq.substrate.util;
 import com.gluonhq.substrate.Constants;
 import com.gluonhq.substrate.model.ProjectConfiguration;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.security.DigestInputStream;
+import java.nio.file.StandardCopyOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -67,7 +69,18 @@ public class FileDeps {
             "libglass.a"
     );
 
-    public static boolean setupDependencies(ProjectConfiguration configuration) throws IOException {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // dependencies verified by this JVM, with the size and modification time of their files at that moment
+    private static final Map<Path, String> verified = new ConcurrentHashMap<>();
+
+    // builds running in parallel share the SDK folders, only one of them can download or verify at a time
+    public static synchronized boolean setupDependencies(ProjectConfiguration configuration)
+            throws IOException, InterruptedException {
+        return BuildMetrics.time("dependencies", () -> doSetupDependencies(configuration));
+    }
+
+    private static boolean doSetupDependencies(ProjectConfiguration configuration) throws IOException {
         String target = configuration.getTargetTriplet().getOsArch();
 
         if (! Files.isDirectory(Constants.USER_SUBSTRATE_PATH)) {
@@ -98,14 +111,7 @@ public class FileDeps {
                     downloadJavaStatic = true;
                 } else if (configuration.isEnableCheckHash()) {
                     Logger.logDebug("Checking java static sdk hashes");
-                    String md5File = getChecksumFile(javaStaticSdk, "javaStaticSdk", target);
-                    Map<String, String> hashes = getHashMap(md5File);
-                    if (hashes == null) {
-                        Logger.logDebug(md5File+" not found");
-                        downloadJavaStatic = true;
-                    } else if (JAVA_FILES.stream()
-                            .map(s -> new File(path, s))
-                            .anyMatch(f -> !hashes.get(f.getName()).equals(calculateCheckSum(f)))) {
+                    if (!verifyHashes(javaStaticLibs, JAVA_FILES, javaStaticSdk, "javaStaticSdk", target)) {
                         Logger.logDebug("jar file has invalid hashcode");
                         downloadJavaStatic = true;
                     }
@@ -130,14 +136,7 @@ public class FileDeps {
                     downloadJavaFXStatic = true;
                 } else if (configuration.isEnableCheckHash()) {
                     Logger.logDebug("Checking javafx static sdk hashes");
-                    String md5File = getChecksumFile(javafxStatic, "javafxStaticSdk", target);
-                    Map<String, String> hashes = getHashMap(md5File);
-                    if (hashes == null) {
-                        Logger.logDebug(md5File + " md5 not found");
-                        downloadJavaFXStatic = true;
-                    } else if (JAVAFX_FILES.stream()
-                            .map(s -> new File(path, s))
-                            .anyMatch(f -> !hashes.get(f.getName()).equals(calculateCheckSum(f)))) {
+                    if (!verifyHashes(javafxStatic, JAVAFX_FILES, javafxStatic, "javafxStaticSdk", target)) {
                         Logger.logDebug("jar file has invalid hashcode");
                         downloadJavaFXStatic = true;
                     }
@@ -149,21 +148,129 @@ public class FileDeps {
 //                downloadGraalZip(SVMBridge.USER_OMEGA_PATH, configuration);
 //            }
 
+            // both SDKs are downloaded at the same time
+            List<BackgroundTask<Void>> downloads = new ArrayList<>();
             if (downloadJavaStatic) {
-                downloadJavaZip(target, Constants.USER_SUBSTRATE_PATH, configuration);
+                downloads.add(BackgroundTask.start("download-java", () -> {
+                    downloadJavaZip(target, Constants.USER_SUBSTRATE_PATH, configuration);
+                    return null;
+                }));
             }
 
             if (downloadJavaFXStatic) {
-                downloadJavaFXZip(target, Constants.USER_SUBSTRATE_PATH, configuration);
+                downloads.add(BackgroundTask.start("download-javafx", () -> {
+                    downloadJavaFXZip(target, Constants.USER_SUBSTRATE_PATH, configuration);
+                    return null;
+                }));
             }
+            joinAll(downloads);
 
-        } catch (IOException e) {
-            throw new RuntimeException("Error downloading zips: " + e.getMessage());
+        } catch (IOException | InterruptedException e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            throw new RuntimeException("Error downloading zips: " + e.getMessage(), e);
         }
         Logger.logDebug("Setup dependencies done");
         return true;
     }
 
+    // waits for all downloads, also when one of them fails, so none is left extracting, and then
+    // throws the first failure. An interrupt doesn't stop the wait, it is thrown at the end
+    private static void joinAll(List<BackgroundTask<Void>> downloads) throws IOException, InterruptedException {
+        Exception failure = null;
+        boolean interrupted = false;
+        for (BackgroundTask<Void> download : downloads) {
+            while (true) {
+                try {
+                    download.join();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    failure = failure == null ? e : failure;
+                } catch (IOException | RuntimeException e) {
+                    failure = failure == null ? e : failure;
+                    break;
+                }
+            }
+        }
+        if (failure == null) {
+            return;
+        }
+        if (interrupted && !(failure instanceof InterruptedException)) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        throw (InterruptedException) failure;
+    }
+
+    /**
+     * Verifies the files of a dependency against its manifest. A manifest in the format of older
+     * versions (a serialized map) is converted when the files match it.
+     * @return true if all files have the recorded contents
+     */
+    private static boolean verifyHashes(Path dir, List<String> files, Path unpacked, String name, String osArch) throws IOException {
+        Path manifestFile = getManifestFile(unpacked, name, osArch);
+        String signature = signature(dir, files);
+        if (signature != null && signature.equals(verified.get(manifestFile))) {
+            Logger.logDebug("Files in " + dir + " are unchanged since they were verified");
+            return true;
+        }
+        boolean valid = verifyHashes(dir, files, manifestFile, unpacked, name, osArch);
+        if (valid) {
+            verified.put(manifestFile, signature(dir, files));
+        } else {
+            verified.remove(manifestFile);
+        }
+        return valid;
+    }
+
+    private static boolean verifyHashes(Path dir, List<String> files, Path manifestFile, Path unpacked,
+                                        String name, String osArch) throws IOException {
+        DependencyManifest manifest = DependencyManifest.read(manifestFile);
+        if (manifest != null) {
+            return manifest.verify(dir, files);
+        }
+        String md5File = getChecksumFile(unpacked, name, osArch);
+        Map<String, String> hashes = getHashMap(md5File);
+        if (hashes == null) {
+            Logger.logDebug(manifestFile + " not found");
+            return false;
+        }
+        manifest = new DependencyManifest(manifestFile);
+        for (String file : files) {
+            Path path = dir.resolve(file);
+            byte[] digest = DependencyManifest.digest(path);
+            if (!Arrays.toString(digest).equals(hashes.get(file))) {
+                return false;
+            }
+            manifest.add(path, FileOps.toHex(digest));
+        }
+        manifest.write();
+        Files.delete(Path.of(md5File));
+        Logger.logDebug("Converted " + md5File + " into " + manifestFile);
+        return true;
+    }
+
+    // the size and modification time of all files, or null if one of them is missing
+    private static String signature(Path dir, List<String> files) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (String file : files) {
+            Path path = dir.resolve(file);
+            if (!Files.isRegularFile(path)) {
+                return null;
+            }
+            sb.append(file).append(':').append(Files.size(path)).append(':')
+                    .append(Files.getLastModifiedTime(path).toMillis()).append('\n');
+        }
+        return sb.toString();
+    }
+
     private static Map<String, String> getHashMap(String nameFile) {
         Map<String, String> hashes = null;
         try (FileInputStream fis = new FileInputStream(new File(nameFile));
@@ -178,7 +285,11 @@ public class FileDeps {
         return answer;
     }
 
-    private static void downloadJavaZip(String target, Path omegaPath, ProjectConfiguration configuration) throws IOException {
+    private static Path getManifestFile(Path unpacked, String name, String osArch) {
+        return unpacked.getParent().resolve(name + "-" + osArch + ".manifest");
+    }
+
+    private static void downloadJavaZip(String target, Path omegaPath, ProjectConfiguration configuration) throws IOException, InterruptedException {
         Logger.logDebug("Process zip javaStaticSdk, target = "+target);
         processZip(URL_JAVA_STATIC_SDK
                         .replace("${version}", configuration.getJavaStaticSdkVersion())
@@ -190,7 +301,7 @@ public class FileDeps {
         Logger.logDebug("Processing zip java done");
     }
 
-    private static void downloadJavaFXZip(String osarch, Path omegaPath, ProjectConfiguration configuration) throws IOException {
+    private static void downloadJavaFXZip(String osarch, Path omegaPath, ProjectConfiguration configuration) throws IOException, InterruptedException {
         Logger.logDebug("Process zip javafxStaticSdk");
         processZip(URL_JAVAFX_STATIC_SDK
                         .replace("${version}", configuration.getJavafxStaticSdkVersion())
@@ -203,72 +314,143 @@ public class FileDeps {
         Logger.logDebug("Process zip javafx done");
     }
 
-    private static void processZip(String urlZip, Path zipPath, String folder, String version, ProjectConfiguration configuration) throws IOException {
+    private static void processZip(String urlZip, Path zipPath, String folder, String version, ProjectConfiguration configuration)
+            throws IOException, InterruptedException {
         String osArch = configuration.getTargetTriplet().getOsArch();
-        String name = folder+"-"+osArch+".md5";
+        String name = folder+"-"+osArch+".manifest";
         System.err.println("PROCESSZIP, url = "+urlZip+", zp = "+zipPath+", folder = "+folder+", version = "+version+", name = "+name);
-        URL url = new URL(urlZip);
-        url.openConnection();
-        try (InputStream reader = url.openStream();
-             FileOutputStream writer = new FileOutputStream(zipPath.toFile())) {
-            byte[] buffer = new byte[8192];
-            int bytesRead;
-            while ((bytesRead = reader.read(buffer)) > 0) {
-                writer.write(buffer, 0, bytesRead);
-                buffer = new byte[8192];
-            }
-        }
         // Path zipDir = zipPath.getParent().resolve(folder).resolve(version).resolve(target);
         Path zipDir = configuration.getJavaStaticPath().getParent();
-        if (! zipPath.toFile().isDirectory()) {
-            Files.createDirectories(zipDir);
-        }
-        Map<String, String> hashes = new HashMap<>();
-        try (ZipInputStream zis = new ZipInputStream(new FileInputStream(zipPath.toFile()))) {
-            ZipEntry zipEntry = zis.getNextEntry();
-            while (zipEntry != null) {
-                File destFile = new File(zipDir.toFile(), zipEntry.getName());
-                if (zipEntry.isDirectory()) {
-                    if (! destFile.exists()) {
-                        Files.createDirectories(destFile.toPath());
-                    }
-                } else {
-                    byte[] buffer = new byte[1024];
-                    try (FileOutputStream fos = new FileOutputStream(destFile)) {
-                        int len;
-                        while ((len = zis.read(buffer)) > 0) {
-                            fos.write(buffer, 0, len);
-                        }
-                    }
-                    String sum = calculateCheckSum(destFile);
-                    hashes.put(destFile.getName(), sum);
+        processZip(new URL(urlZip), zipPath, zipDir, zipDir.resolve(name), configuration.isKeepDependencyZips());
+    }
+
+    /**
+     * Downloads the zip, and extracts it while it is being downloaded, so the bytes are processed in a
+     * single pass. The checksum of every entry is calculated while it is written.
+     *
+     * When the server supports range requests, the zip is downloaded with concurrent range requests
+     * that are resumed if the download is interrupted, see {@link Downloader#download(Path)}.
+     * @param url the url of the zip
+     * @param zipPath the file to keep the zip in
+     * @param zipDir the folder to extract the zip to
+     * @param manifestFile the manifest with the checksums of the extracted files
+     * @param keepZip true to keep the zip in zipPath, false to only keep the extracted files
+     */
+    static void processZip(URL url, Path zipPath, Path zipDir, Path manifestFile, boolean keepZip) throws IOException {
+        Files.createDirectories(zipDir);
+        DependencyManifest manifest = new DependencyManifest(manifestFile);
+        Downloader downloader = Downloader.probe(url);
+        if (downloader.isAcceptsRanges()) {
+            try (InputStream download = downloader.download(zipPath)) {
+                extractZip(download, zipDir, manifest);
+                // the central directory at the end of the zip is not read by the ZipInputStream
+                download.transferTo(OutputStream.nullOutputStream());
+            }
+            if (!keepZip) {
+                Files.delete(zipPath);
+            }
+        } else {
+            Path partPath = zipPath.resolveSibling(zipPath.getFileName() + ".part");
+            try (InputStream download = keepZip ?
+                        new TeeInputStream(downloader.openStream(), Files.newOutputStream(partPath)) :
+                        downloader.openStream()) {
+                extractZip(download, zipDir, manifest);
+                if (keepZip) {
+                    download.transferTo(OutputStream.nullOutputStream());
                 }
-                zipEntry = zis.getNextEntry();
             }
-            zis.closeEntry();
+            if (keepZip) {
+                Files.move(partPath, zipPath, StandardCopyOption.REPLACE_EXISTING);
+            }
         }
+        manifest.write();
+    }
 
-        try (FileOutputStream fos =
-                      new FileOutputStream(zipDir.toString() + File.separator + name);
-             ObjectOutputStream oos = new ObjectOutputStream(fos)) {
-            oos.writeObject(hashes);
+    static void extractZip(InputStream inputStream, Path zipDir, DependencyManifest manifest) throws IOException {
+        MessageDigest md = getMessageDigest();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        ZipInputStream zis = new ZipInputStream(new BufferedInputStream(inputStream, BUFFER_SIZE));
+        ZipEntry zipEntry = zis.getNextEntry();
+        while (zipEntry != null) {
+            Path destFile = zipDir.resolve(zipEntry.getName()).normalize();
+            if (!destFile.startsWith(zipDir)) {
+                throw new IOException("Zip entry " + zipEntry.getName() + " is outside of " + zipDir);
+            }
+            if (zipEntry.isDirectory()) {
+                Files.createDirectories(destFile);
+            } else {
+                Files.createDirectories(destFile.getParent());
+                md.reset();
+                try (OutputStream fos = Files.newOutputStream(destFile)) {
+                    int len;
+                    while ((len = zis.read(buffer)) > 0) {
+                        fos.write(buffer, 0, len);
+                        md.update(buffer, 0, len);
+                    }
+                }
+                manifest.add(destFile, FileOps.toHex(md.digest()));
+                BuildMetrics.addBytesExtracted(Files.size(destFile));
+            }
+            zipEntry = zis.getNextEntry();
         }
+        zis.closeEntry();
     }
 
-    private static String calculateCheckSum(File file) {
+    private static MessageDigest getMessageDigest() {
         try {
             // not looking for security, just a checksum. MD5 should be faster than SHA
-            try (final InputStream stream = new FileInputStream(file);
-                 final DigestInputStream dis = new DigestInputStream(stream, MessageDigest.getInstance("MD5"))) {
-                dis.getMessageDigest().reset();
-                byte[] buffer = new byte[4096];
-                while (dis.read(buffer) != -1) { /* empty loop body is intentional */ }
-                return Arrays.toString(dis.getMessageDigest().digest());
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("MD5 not available", e);
+        }
+    }
+
+    /**
+     * Writes all the bytes that are read from the wrapped stream to an output stream as well
+     */
+    private static class TeeInputStream extends FilterInputStream {
+
+        private final OutputStream copy;
+
+        TeeInputStream(InputStream in, OutputStream copy) {
+            super(in);
+            this.copy = copy;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                copy.write(b);
             }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                copy.write(b, off, n);
+            }
+            return n;
+        }
 
-        } catch (IllegalArgumentException | NoSuchAlgorithmException | IOException | SecurityException e) {
+        @Override
+        public long skip(long n) throws IOException {
+            // read instead of skip, so the copy is complete
+            byte[] skipped = new byte[(int) Math.min(n, BUFFER_SIZE)];
+            int r = read(skipped, 0, skipped.length);
+            return Math.max(r, 0);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                copy.close();
+            }
         }
-        return Arrays.toString(new byte[0]);
     }
 
 }
@@ -32,12 +32,15 @@ import com.gluonhq.substrate.SubstrateDispatcher;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileVisitOption;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Comparator;
 import java.util.EnumSet;
 import java.util.LinkedList;
@@ -82,6 +85,45 @@ public class FileOps {
     }
 
 
+    /**
+     * Find the file with exactly the provided name in the provided directory, without following
+     * links, without descending deeper than <code>maxDepth</code> and without entering <code>skip</code>.
+     * @param workDir the directory to search
+     * @param name the name of the file
+     * @param maxDepth the maximum number of directory levels to visit
+     * @param skip a directory that is not searched, or <code>null</code>
+     * @return the path to the file, or <code>null</code> if no such file is found
+     * @throws IOException
+     */
+    public static Path findFile(Path workDir, String name, int maxDepth, Path skip) throws IOException {
+        List<Path> answers = new LinkedList<>();
+        SimpleFileVisitor<Path> visitor = new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                Path fileName = file.getFileName();
+                if (fileName != null && fileName.toString().equals(name) && attrs.isRegularFile()) {
+                    answers.add(file);
+                    return FileVisitResult.TERMINATE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                return dir.equals(skip) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                return FileVisitResult.CONTINUE;
+            }
+        };
+
+        Files.walkFileTree(workDir, EnumSet.noneOf(FileVisitOption.class), maxDepth, visitor);
+        if (answers.size() < 1) return null;
+        return answers.get(0);
+    }
+
     /**
      * Recursively delete the directory specified by path, if it exists (otherwise ignore)
      * @param path
@@ -120,6 +162,38 @@ public class FileOps {
         return destination;
     }
 
+    /**
+     * Calculates a digest of the provided String, to detect changes in the inputs of a build step.
+     * @param value the String to digest
+     * @return the digest, as a hexadecimal String
+     */
+    public static String digest(String value) {
+        return digest(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Calculates a digest of the provided bytes, to detect changes in the inputs of a build step.
+     * @param value the bytes to digest
+     * @return the digest, as a hexadecimal String
+     */
+    public static String digest(byte[] value) {
+        try {
+            // not looking for security, just a checksum. MD5 should be faster than SHA
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            return toHex(md.digest(value));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("MD5 not available", e);
+        }
+    }
+
+    public static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
     public static InputStream resourceAsStream(String res) {
         String actualResource = Objects.requireNonNull(res).startsWith(File.separator) ? res : File.separator + res;
         InputStream answer = SubstrateDispatcher.class.getResourceAsStream(actualResource);
@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2019, Gluon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL GLUON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gluonhq.substrate.util;
+
+import com.sun.management.OperatingSystemMXBean;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * The memory and CPUs available to the build: the limits of the cgroup (v1 or v2) the process
+ * runs in, when it runs in a container, or the physical memory and processors of the host.
+ */
+public class HostResources {
+
+    private static final Path CGROUP_ROOT = Path.of("/sys/fs/cgroup");
+    private static final Path PROC_SELF_CGROUP = Path.of("/proc/self/cgroup");
+
+    // the builder needs room outside its heap, for metaspace, code and the native-image driver
+    private static final long MIN_BUILDER_HEAP_MB = 1024;
+
+    private final long memoryBytes;
+    private final int cpus;
+    private final String source;
+
+    HostResources(long memoryBytes, int cpus, String source) {
+        this.memoryBytes = memoryBytes;
+        this.cpus = cpus;
+        this.source = source;
+    }
+
+    /**
+     * Detects the resources of the current process
+     * @return the resources
+     */
+    // getTotalPhysicalMemorySize is deprecated since JDK 14 in favor of getTotalMemorySize, which
+    // doesn't exist on JDK 11. Both return the memory of the host, the cgroup limits are read here
+    @SuppressWarnings("deprecation")
+    public static HostResources detect() {
+        OperatingSystemMXBean os = (OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+        return detect(CGROUP_ROOT, PROC_SELF_CGROUP, os.getTotalPhysicalMemorySize(),
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    static HostResources detect(Path cgroupRoot, Path procSelfCgroup, long physicalMemory, int processors) {
+        long memory = physicalMemory;
+        double cpuLimit = processors;
+        String source = "host";
+        List<String> cgroups = readLines(procSelfCgroup);
+        if (Files.isRegularFile(cgroupRoot.resolve("cgroup.controllers"))) {
+            // cgroup v2, a single hierarchy listed as 0::/path
+            Path dir = cgroupDir(cgroupRoot, cgroups, "");
+            long memoryLimit = limit(cgroupRoot, dir, "memory.max", HostResources::parseV2Memory);
+            double cpuQuota = quota(cgroupRoot, dir, "cpu.max");
+            if ((memoryLimit > 0 && memoryLimit < physicalMemory) || cpuQuota > 0) {
+                source = "cgroup v2";
+            }
+            memory = min(memory, memoryLimit);
+            cpuLimit = cpuQuota > 0 ? Math.min(cpuLimit, cpuQuota) : cpuLimit;
+        } else if (Files.isDirectory(cgroupRoot.resolve("memory")) || Files.isDirectory(cgroupRoot.resolve("cpu"))) {
+            // cgroup v1, a hierarchy per controller
+            Path memoryRoot = cgroupRoot.resolve("memory");
+            long memoryLimit = limit(memoryRoot, cgroupDir(memoryRoot, cgroups, "memory"),
+                    "memory.limit_in_bytes", HostResources::parseV1Memory);
+            Path cpuRoot = cgroupRoot.resolve("cpu");
+            double cpuQuota = quota(cpuRoot, cgroupDir(cpuRoot, cgroups, "cpu"), null);
+            if ((memoryLimit > 0 && memoryLimit < physicalMemory) || cpuQuota > 0) {
+                source = "cgroup v1";
+            }
+            memory = min(memory, memoryLimit);
+            cpuLimit = cpuQuota > 0 ? Math.min(cpuLimit, cpuQuota) : cpuLimit;
+        }
+        return new HostResources(memory, Math.max(1, (int) Math.ceil(cpuLimit)), source);
+    }
+
+    public long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    public long getMemoryMb() {
+        return memoryBytes / (1024 * 1024);
+    }
+
+    public int getCpus() {
+        return cpus;
+    }
+
+    /**
+     * @return where the limits come from: "host", "cgroup v1" or "cgroup v2"
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * @return the heap for a native-image builder that has all resources to itself: three quarters of the memory
+     */
+    public long getBuilderHeapMb() {
+        return getBuilderHeapMb(getMemoryMb());
+    }
+
+    /**
+     * @param memoryMb the memory the builder process can use
+     * @return the heap for a native-image builder that can use the provided memory
+     */
+    public static long getBuilderHeapMb(long memoryMb) {
+        return Math.min(memoryMb, Math.max(MIN_BUILDER_HEAP_MB, memoryMb * 3 / 4));
+    }
+
+    @Override
+    public String toString() {
+        return getMemoryMb() + " MB and " + cpus + " CPUs (" + source + ")";
+    }
+
+    // the directory of the cgroup of this process, or the root when it isn't visible (e.g. in a container namespace)
+    private static Path cgroupDir(Path root, List<String> cgroups, String controller) {
+        for (String line : cgroups) {
+            String[] fields = line.split(":", 3);
+            if (fields.length == 3 && (controller.isEmpty() ? fields[1].isEmpty() :
+                    List.of(fields[1].split(",")).contains(controller))) {
+                Path dir = root.resolve(fields[2].replaceFirst("^/", "")).normalize();
+                return dir.startsWith(root) ? dir : root;
+            }
+        }
+        return root;
+    }
+
+    private interface Parser {
+        long parse(String value);
+    }
+
+    // the lowest limit of the cgroup and its parents, limits are hierarchical; -1 when there is none
+    private static long limit(Path root, Path dir, String file, Parser parser) {
+        long answer = -1;
+        for (Path d = dir; d != null && d.startsWith(root); d = d.getParent()) {
+            List<String> lines = readLines(d.resolve(file));
+            if (!lines.isEmpty()) {
+                answer = min(answer, parser.parse(lines.get(0).trim()));
+            }
+        }
+        return answer;
+    }
+
+    // the lowest CPU quota, in CPUs, of the cgroup and its parents; -1 when there is none
+    private static double quota(Path root, Path dir, String v2File) {
+        double answer = -1;
+        for (Path d = dir; d != null && d.startsWith(root); d = d.getParent()) {
+            double cpus = -1;
+            if (v2File != null) {
+                // "max 100000" or "<quota> <period>"
+                List<String> lines = readLines(d.resolve(v2File));
+                if (!lines.isEmpty()) {
+                    String[] fields = lines.get(0).trim().split("\\s+");
+                    if (fields.length == 2 && !"max".equals(fields[0])) {
+                        cpus = parseQuota(fields[0], fields[1]);
+                    }
+                }
+            } else {
+                List<String> quota = readLines(d.resolve("cpu.cfs_quota_us"));
+                List<String> period = readLines(d.resolve("cpu.cfs_period_us"));
+                if (!quota.isEmpty() && !period.isEmpty()) {
+                    cpus = parseQuota(quota.get(0).trim(), period.get(0).trim());
+                }
+            }
+            if (cpus > 0) {
+                answer = answer < 0 ? cpus : Math.min(answer, cpus);
+            }
+        }
+        return answer;
+    }
+
+    private static double parseQuota(String quota, String period) {
+        try {
+            long q = Long.parseLong(quota);
+            long p = Long.parseLong(period);
+            return q > 0 && p > 0 ? (double) q / p : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static long parseV2Memory(String value) {
+        if ("max".equals(value)) {
+            return -1;
+        }
+        return parseV1Memory(value);
+    }
+
+    private static long parseV1Memory(String value) {
+        try {
+            long limit = Long.parseLong(value);
+            // v1 reports "no limit" as a huge, page aligned number
+            return limit <= 0 || limit >= Long.MAX_VALUE / 2 ? -1 : limit;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static long min(long a, long b) {
+        if (a <= 0) {
+            return b;
+        }
+        return b <= 0 ? a : Math.min(a, b);
+    }
+
+    private static List<String> readLines(Path file) {
+        try {
+            return Files.isReadable(file) ? Files.readAllLines(file) : List.of();
+        } catch (IOException e) {
+            return List.of();
+        }
+    }
+}
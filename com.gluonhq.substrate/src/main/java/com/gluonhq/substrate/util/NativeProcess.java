@@ -0,0 +1,414 @@
+/*
+ * Copyright (c) 2019, Gluon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL GLUON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gluonhq.substrate.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * A handle to a running application: its output is streamed line by line to listeners, its CPU time and
+ * memory are sampled, and it can be fed on stdin, waited for with a timeout or cancelled.
+ *
+ * Reading a stream of a process blocks, so every stream with a listener takes a thread of a shared pool
+ * while the process runs: one with {@link #setMergeErrors(boolean)}, two with separate listeners, none
+ * when the output is discarded. The threads are reused by the next processes. Sampling is done by a
+ * single thread for all processes, at most {@value #SAMPLES_PER_ROUND} processes every
+ * {@value #SAMPLE_MILLIS} ms, and timeouts have their own thread, so they aren't delayed by sampling.
+ * A process is configured before {@link #start()}, so no output is missed.
+ */
+public class NativeProcess {
+
+    private static final long PUMP_JOIN_MILLIS = 5_000;
+    static final long SAMPLE_MILLIS = 10;
+    static final int SAMPLES_PER_ROUND = 32;
+
+    private static final ExecutorService PUMPS = Executors.newCachedThreadPool(daemonThreads("output"));
+    private static final ScheduledExecutorService SAMPLER =
+            Executors.newSingleThreadScheduledExecutor(daemonThreads("sampler"));
+    private static final ScheduledExecutorService TIMEOUTS =
+            Executors.newSingleThreadScheduledExecutor(daemonThreads("timeout"));
+    // the samplers of the running processes, in round robin order
+    private static final Queue<Sampled> SAMPLED = new ConcurrentLinkedQueue<>();
+    private static ScheduledFuture<?> samplingTask;
+
+    private final List<String> command;
+    private Path directory;
+    private ProcessBuilder.Redirect input = ProcessBuilder.Redirect.PIPE;
+    private boolean mergeErrors;
+    private Consumer<String> outputListener;
+    private Consumer<String> errorListener;
+    private long timeoutMillis;
+
+    private final CompletableFuture<Result> completion = new CompletableFuture<>();
+    private volatile Process process;
+    private volatile boolean cancelled;
+    private volatile boolean timedOut;
+
+    public NativeProcess(List<String> command) {
+        this.command = new ArrayList<>(command);
+    }
+
+    public List<String> getCommand() {
+        return command;
+    }
+
+    /**
+     * @param directory the working directory of the process, or null for the current directory
+     */
+    public void setDirectory(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Sets the stdin of the process. By default it is a pipe, see {@link #getStdin()}.
+     * @param input the source of stdin, e.g. a file or {@link ProcessBuilder.Redirect#INHERIT}
+     */
+    public void setInput(ProcessBuilder.Redirect input) {
+        this.input = input;
+    }
+
+    /**
+     * Sends stderr to the output listener, in order with stdout
+     * @param mergeErrors true to combine stdout and stderr
+     */
+    public void setMergeErrors(boolean mergeErrors) {
+        this.mergeErrors = mergeErrors;
+    }
+
+    /**
+     * @param outputListener called for every line of stdout, on a shared thread. Without listener the
+     *                       output is discarded, and no thread reads it.
+     */
+    public void setOutputListener(Consumer<String> outputListener) {
+        this.outputListener = outputListener;
+    }
+
+    /**
+     * @param errorListener called for every line of stderr, on a shared thread. Without listener the
+     *                      output is discarded, and no thread reads it.
+     */
+    public void setErrorListener(Consumer<String> errorListener) {
+        this.errorListener = errorListener;
+    }
+
+    /**
+     * Stops the process, and any process it started, when it runs longer than the timeout
+     * @param timeout the timeout, or 0 for no timeout
+     * @param unit the unit of the timeout
+     */
+    public void setTimeout(long timeout, TimeUnit unit) {
+        this.timeoutMillis = unit.toMillis(timeout);
+    }
+
+    /**
+     * Starts the process. Its completion is reported by {@link #onExit()}.
+     * @return this process
+     * @throws IOException when the process can't be started
+     */
+    public NativeProcess start() throws IOException {
+        if (process != null || completion.isDone()) {
+            throw new IllegalStateException("The process was already started: " + String.join(" ", command));
+        }
+        ProcessBuilder pb = new ProcessBuilder(command);
+        if (directory != null) {
+            pb.directory(directory.toFile());
+        }
+        pb.redirectInput(input);
+        pb.redirectErrorStream(mergeErrors);
+        if (outputListener == null) {
+            pb.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        }
+        if (errorListener == null && !mergeErrors) {
+            pb.redirectError(ProcessBuilder.Redirect.DISCARD);
+        }
+        long start = System.nanoTime();
+        Process p = pb.start();
+        process = p;
+        if (cancelled) {
+            destroy(p);
+        }
+        ProcessSampler sampler = new ProcessSampler(p.toHandle());
+        sampler.sample();
+        Sampled sampled = new Sampled(sampler);
+        startSampling(sampled);
+        ScheduledFuture<?> timeout = timeoutMillis <= 0 ? null : TIMEOUTS.schedule(() -> {
+            if (p.isAlive()) {
+                timedOut = true;
+                Logger.logDebug(command.get(0) + " did not finish within " + timeoutMillis + " ms and will be stopped");
+                destroy(p);
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+        CompletableFuture<Void> output = outputListener == null ? CompletableFuture.completedFuture(null) :
+                pump(p.getInputStream(), outputListener);
+        CompletableFuture<Void> errors = mergeErrors || errorListener == null ? CompletableFuture.completedFuture(null) :
+                pump(p.getErrorStream(), errorListener);
+        p.onExit().thenCompose(exited -> {
+            sampled.done = true;
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            // a child that inherited the pipes might keep them open, don't wait for that forever
+            return CompletableFuture.allOf(output, errors).completeOnTimeout(null, PUMP_JOIN_MILLIS, TimeUnit.MILLISECONDS);
+        }).whenComplete((ignored, throwable) -> {
+            process = null;
+            completion.complete(new Result(p.exitValue(), (System.nanoTime() - start) / 1_000_000,
+                    sampler.getCpuMillis(), sampler.getPeakRssKb(), timedOut, cancelled));
+        });
+        return this;
+    }
+
+    /**
+     * @return the stdin of the process, when it is a pipe. Close it to signal the end of the input.
+     */
+    public OutputStream getStdin() {
+        Process p = process;
+        if (p == null) {
+            throw new IllegalStateException("The process is not running");
+        }
+        return p.getOutputStream();
+    }
+
+    /**
+     * @return the pid of the process, or -1 if it isn't running
+     */
+    public long getPid() {
+        Process p = process;
+        return p == null ? -1 : p.pid();
+    }
+
+    public boolean isAlive() {
+        Process p = process;
+        return p != null && p.isAlive();
+    }
+
+    /**
+     * @return a future that completes when the process has exited and all its output is passed to the listeners
+     */
+    public CompletableFuture<Result> onExit() {
+        return completion;
+    }
+
+    /**
+     * Waits until the process has exited and all its output is passed to the listeners
+     * @return the result of the process
+     * @throws InterruptedException when the calling thread is interrupted, the process keeps running
+     */
+    public Result waitFor() throws InterruptedException {
+        try {
+            return completion.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Waiting for " + command.get(0) + " failed", e.getCause());
+        }
+    }
+
+    /**
+     * Waits at most the timeout until the process has exited and all its output is passed to the listeners
+     * @return the result of the process, or null if it is still running
+     * @throws InterruptedException when the calling thread is interrupted, the process keeps running
+     */
+    public Result waitFor(long timeout, TimeUnit unit) throws InterruptedException {
+        try {
+            return completion.get(timeout, unit);
+        } catch (TimeoutException e) {
+            return null;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Waiting for " + command.get(0) + " failed", e.getCause());
+        }
+    }
+
+    /**
+     * Stops the process, and any process it started. The result is still reported by {@link #onExit()}.
+     */
+    public void cancel() {
+        cancelled = true;
+        Process p = process;
+        if (p != null) {
+            destroy(p);
+        }
+    }
+
+    private CompletableFuture<Void> pump(InputStream inputStream, Consumer<String> listener) {
+        return CompletableFuture.runAsync(() -> {
+            try (BufferedReader br = new BufferedReader(new InputStreamReader(inputStream))) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    try {
+                        listener.accept(line);
+                    } catch (RuntimeException e) {
+                        // keep reading, a full pipe would block the process
+                        Logger.logDebug("Error handling output of " + command.get(0) + ": " + e);
+                    }
+                }
+            } catch (IOException e) {
+                Logger.logDebug("Error reading output of " + command.get(0) + ": " + e.getMessage());
+            }
+        }, PUMPS);
+    }
+
+    private static synchronized void startSampling(Sampled sampled) {
+        SAMPLED.add(sampled);
+        if (samplingTask == null) {
+            samplingTask = SAMPLER.scheduleWithFixedDelay(NativeProcess::sampleRound, SAMPLE_MILLIS, SAMPLE_MILLIS,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // samples the next processes, so the work per round is bounded however many processes run
+    private static void sampleRound() {
+        int count = Math.min(SAMPLES_PER_ROUND, SAMPLED.size());
+        for (int i = 0; i < count; i++) {
+            Sampled sampled = SAMPLED.poll();
+            if (sampled == null) {
+                break;
+            }
+            if (!sampled.done) {
+                sampled.sampler.sample();
+                SAMPLED.add(sampled);
+            }
+        }
+        synchronized (NativeProcess.class) {
+            if (SAMPLED.isEmpty() && samplingTask != null) {
+                samplingTask.cancel(false);
+                samplingTask = null;
+            }
+        }
+    }
+
+    private static class Sampled {
+        final ProcessSampler sampler;
+        volatile boolean done;
+
+        Sampled(ProcessSampler sampler) {
+            this.sampler = sampler;
+        }
+    }
+
+    private static void destroy(Process p) {
+        p.descendants().forEach(ProcessHandle::destroyForcibly);
+        p.destroyForcibly();
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "substrate-process-" + name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * How a process ended, and the resources it used
+     */
+    public static class Result {
+
+        private final int exitCode;
+        private final long durationMillis;
+        private final long cpuMillis;
+        private final long peakRssKb;
+        private final boolean timedOut;
+        private final boolean cancelled;
+
+        Result(int exitCode, long durationMillis, long cpuMillis, long peakRssKb, boolean timedOut, boolean cancelled) {
+            this.exitCode = exitCode;
+            this.durationMillis = durationMillis;
+            this.cpuMillis = cpuMillis;
+            this.peakRssKb = peakRssKb;
+            this.timedOut = timedOut;
+            this.cancelled = cancelled;
+        }
+
+        public int getExitCode() {
+            return exitCode;
+        }
+
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        /**
+         * @return the CPU time used by the process and its descendants, in milliseconds
+         */
+        public long getCpuMillis() {
+            return cpuMillis;
+        }
+
+        /**
+         * @return the highest resident memory use, in kB, or -1 when it couldn't be measured
+         */
+        public long getPeakRssKb() {
+            return peakRssKb;
+        }
+
+        public boolean isTimedOut() {
+            return timedOut;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * @return true if the process exited with 0 by itself
+         */
+        public boolean isSuccess() {
+            return exitCode == 0 && !timedOut && !cancelled;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{" +
+                    "exitCode=" + exitCode +
+                    ", durationMillis=" + durationMillis +
+                    ", cpuMillis=" + cpuMillis +
+                    ", peakRssKb=" + peakRssKb +
+                    ", timedOut=" + timedOut +
+                    ", cancelled=" + cancelled +
+                    '}';
+        }
+    }
+}
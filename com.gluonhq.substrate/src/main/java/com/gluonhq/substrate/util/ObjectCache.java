@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2019, Gluon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL GLUON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gluonhq.substrate.util;
+
+import com.gluonhq.substrate.Constants;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Content addressed cache for objectfiles compiled from C sources.
+ *
+ * |-- ~/.gluon/substrate
+ *     |-- objectcache
+ *         |-- $key                 <!-- digest of source, compiler, flags and target -->
+ *             |-- launcher.o
+ */
+public class ObjectCache {
+
+    private static final Path CACHE_PATH = Constants.USER_SUBSTRATE_PATH.resolve("objectcache");
+
+    /**
+     * Calculates the key of an objectfile
+     * @param source the contents of the C source
+     * @param compilerVersion the version of the compiler
+     * @param flags the flags passed to the compiler
+     * @param target the target triplet
+     * @return the key
+     */
+    public static String key(byte[] source, String compilerVersion, List<String> flags, String target) {
+        return FileOps.digest(FileOps.digest(source) + "\n" + compilerVersion + "\n" +
+                String.join(" ", flags) + "\n" + target);
+    }
+
+    /**
+     * Copies a cached objectfile into the provided location
+     * @param key the key of the objectfile
+     * @param destination the objectfile to create
+     * @return true if the objectfile was in the cache, false otherwise
+     * @throws IOException
+     */
+    public static boolean restore(String key, Path destination) throws IOException {
+        Path cached = CACHE_PATH.resolve(key).resolve(destination.getFileName());
+        if (!Files.isRegularFile(cached)) {
+            return false;
+        }
+        Files.copy(cached, destination, REPLACE_EXISTING);
+        return true;
+    }
+
+    /**
+     * Adds an objectfile to the cache. Concurrent builds that store the same objectfile
+     * never see a partially written file.
+     * @param key the key of the objectfile
+     * @param objectFile the compiled objectfile
+     * @throws IOException
+     */
+    public static void store(String key, Path objectFile) throws IOException {
+        Path dir = Files.createDirectories(CACHE_PATH.resolve(key));
+        Path tmp = Files.createTempFile(dir, objectFile.getFileName().toString(), ".tmp");
+        try {
+            Files.copy(objectFile, tmp, REPLACE_EXISTING);
+            Files.move(tmp, dir.resolve(objectFile.getFileName()), ATOMIC_MOVE, REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
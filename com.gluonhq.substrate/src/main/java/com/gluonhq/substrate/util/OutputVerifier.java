@@ -0,0 +1,301 @@
+/*
+ * Copyright (c) 2019, Gluon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL GLUON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gluonhq.substrate.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the output of an application with the expected output in a file, line by line while the
+ * application runs. Only a few lines of context are kept, so the memory used doesn't depend on the
+ * size of the output.
+ *
+ * At the first difference the application is stopped, and the lines around the difference are reported.
+ * The output only matches when the application exits with 0 within the timeout.
+ */
+public class OutputVerifier {
+
+    /**
+     * The time an application may run when the caller doesn't choose one
+     */
+    public static final long DEFAULT_TIMEOUT_MILLIS = 300_000;
+
+    private static final int CONTEXT_LINES = 3;
+
+    /**
+     * Creates the application to check, e.g. with <code>TargetConfiguration.createProcess</code>.
+     * It is started by the verifier.
+     */
+    public interface ProcessSource {
+        NativeProcess create() throws IOException;
+    }
+
+    /**
+     * An application and the output it should produce
+     */
+    public static class Check {
+        private final String name;
+        private final ProcessSource source;
+        private final Path expected;
+
+        public Check(String name, ProcessSource source, Path expected) {
+            this.name = name;
+            this.source = source;
+            this.expected = expected;
+        }
+    }
+
+    /**
+     * The outcome of a comparison
+     */
+    public static class Result {
+        private final String name;
+        private final boolean matches;
+        private final long line;
+        private final String message;
+        private final List<String> diff;
+
+        private Result(String name, boolean matches, long line, String message, List<String> diff) {
+            this.name = name;
+            this.matches = matches;
+            this.line = line;
+            this.message = message;
+            this.diff = diff;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean matches() {
+            return matches;
+        }
+
+        /**
+         * @return the first line that differs, or the number of lines compared
+         */
+        public long getLine() {
+            return line;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        /**
+         * @return the lines around the first difference: common lines start with a space, expected
+         * lines with <code>-</code> and actual lines with <code>+</code>
+         */
+        public List<String> getDiff() {
+            return diff;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(name).append(": ").append(message);
+            for (String l : diff) {
+                sb.append('\n').append(l);
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Starts the application and compares its output, stdout and stderr combined, with the expected output
+     * @param name the name of the check, used in the result
+     * @param process the application, not started yet
+     * @param expected the file with the expected output
+     * @param timeoutMillis the time the application may run, or 0 for no timeout
+     * @return the result of the comparison
+     * @throws IOException when the application can't be started or the expected file can't be read
+     * @throws InterruptedException when interrupted while waiting, the application is stopped
+     */
+    public static Result verify(String name, NativeProcess process, Path expected, long timeoutMillis)
+            throws IOException, InterruptedException {
+        try (BufferedReader expectedReader = Files.newBufferedReader(expected, StandardCharsets.UTF_8)) {
+            Comparison comparison = new Comparison(expectedReader, process);
+            process.setMergeErrors(true);
+            process.setOutputListener(comparison::accept);
+            process.setTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+            process.start();
+            NativeProcess.Result exit;
+            try {
+                exit = process.waitFor();
+            } catch (InterruptedException e) {
+                process.cancel();
+                throw e;
+            }
+            try {
+                return comparison.result(name, exit, timeoutMillis);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    /**
+     * Compares the lines of the application as they arrive, they all come from the same thread
+     */
+    private static class Comparison {
+        private final BufferedReader expectedReader;
+        private final NativeProcess process;
+        private final Deque<String> context = new ArrayDeque<>();
+        private final List<String> actualLines = new ArrayList<>();
+        private long line;
+        private String expectedLine;
+        private boolean differs;
+
+        Comparison(BufferedReader expectedReader, NativeProcess process) {
+            this.expectedReader = expectedReader;
+            this.process = process;
+        }
+
+        synchronized void accept(String actualLine) {
+            if (differs) {
+                // the rest of the output until the application is stopped, for the report
+                if (actualLines.size() < CONTEXT_LINES) {
+                    actualLines.add("+ " + actualLine);
+                }
+                return;
+            }
+            line++;
+            expectedLine = readExpected();
+            if (expectedLine != null && expectedLine.equals(actualLine)) {
+                context.addLast(expectedLine);
+                if (context.size() > CONTEXT_LINES) {
+                    context.removeFirst();
+                }
+                return;
+            }
+            differs = true;
+            actualLines.add("+ " + actualLine);
+            process.cancel();
+        }
+
+        synchronized Result result(String name, NativeProcess.Result exit, long timeoutMillis) {
+            if (!differs) {
+                line++;
+                expectedLine = readExpected();
+                if (expectedLine != null) {
+                    differs = true;
+                } else if (exit.isTimedOut()) {
+                    return new Result(name, false, line - 1, "output matches so far, but the application did not finish within " +
+                            timeoutMillis + " ms", List.of());
+                } else if (exit.getExitCode() != 0) {
+                    return new Result(name, false, line - 1, "output matches, but the application exited with " +
+                            exit.getExitCode(), List.of());
+                } else {
+                    return new Result(name, true, line - 1, "output matches, " + (line - 1) + " lines", List.of());
+                }
+            }
+            String message = expectedLine == null ? "output is longer than expected, from line " + line :
+                    actualLines.isEmpty() ? "output ended at line " + line + ", more lines were expected" :
+                    "output differs at line " + line;
+            if (exit.isTimedOut()) {
+                message += ", the application did not finish within " + timeoutMillis + " ms";
+            }
+            List<String> diff = new ArrayList<>();
+            context.forEach(l -> diff.add("  " + l));
+            for (int i = 0; i < CONTEXT_LINES && expectedLine != null; i++) {
+                diff.add("- " + expectedLine);
+                expectedLine = readExpected();
+            }
+            diff.addAll(actualLines);
+            return new Result(name, false, line, message, diff);
+        }
+
+        private String readExpected() {
+            try {
+                return expectedReader.readLine();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Runs the checks, a number of them at the same time
+     * @param checks the checks
+     * @param parallelism the maximum number of applications running at the same time
+     * @param timeoutMillis the time each application may run, or 0 for no timeout
+     * @return the results, in the order of the checks
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static List<Result> verifyAll(List<Check> checks, int parallelism, long timeoutMillis)
+            throws IOException, InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, checks.size())), r -> {
+            Thread thread = new Thread(r, "substrate-verify");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<Result>> futures = new ArrayList<>();
+            for (Check check : checks) {
+                futures.add(executor.submit(() -> {
+                    try {
+                        return verify(check.name, check.source.create(), check.expected, timeoutMillis);
+                    } catch (IOException e) {
+                        return new Result(check.name, false, 0, "verification failed: " + e.getMessage(), List.of());
+                    }
+                }));
+            }
+            List<Result> results = new ArrayList<>();
+            for (Future<Result> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    }
+                    if (cause instanceof InterruptedException) {
+                        throw (InterruptedException) cause;
+                    }
+                    throw new RuntimeException(cause);
+                }
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2019, Gluon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL GLUON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gluonhq.substrate.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Runs an external tool (native-image, gcc, ...) and drains its merged stdout and stderr while
+ * it runs, so the tool never blocks on a full pipe.
+ *
+ * Every line is sent to the {@link Logger} as soon as it is read, and the last lines are kept
+ * in a bounded buffer, so they can be shown when the tool fails.
+ */
+public class ProcessRunner {
+
+    private static final int DEFAULT_TAIL_LINES = 200;
+    private static final long PUMP_JOIN_MILLIS = 5_000;
+    private static final long SAMPLE_MILLIS = 250;
+
+    private final List<String> args = new ArrayList<>();
+    private final Deque<String> tail = new ArrayDeque<>();
+    private Path directory;
+    private long timeoutMillis;
+    private int maxTailLines = DEFAULT_TAIL_LINES;
+    private boolean info;
+    private Consumer<String> outputListener;
+
+    private volatile Process process;
+    private volatile boolean cancelled;
+    private volatile boolean timedOut;
+
+    public ProcessRunner(String... args) {
+        this.args.addAll(Arrays.asList(args));
+    }
+
+    public void addArg(String arg) {
+        args.add(arg);
+    }
+
+    public void addArgs(Collection<String> args) {
+        this.args.addAll(args);
+    }
+
+    /**
+     * @return the (mutable) list of arguments, starting with the tool to run
+     */
+    public List<String> getCmdList() {
+        return args;
+    }
+
+    public String getCmd() {
+        return String.join(" ", args);
+    }
+
+    /**
+     * Sets the working directory of the process
+     * @param directory the working directory, or <code>null</code> for the current directory
+     */
+    public void setDirectory(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Sets the maximum time the process is allowed to run. When it takes longer, it is
+     * destroyed and {@link #runProcess(String)} returns -1.
+     * @param timeout the timeout, 0 (default) means no timeout
+     * @param unit the unit of the timeout
+     */
+    public void setTimeout(long timeout, TimeUnit unit) {
+        this.timeoutMillis = unit.toMillis(timeout);
+    }
+
+    /**
+     * Sets the number of output lines that are kept for failure reports
+     * @param maxTailLines the number of lines
+     */
+    public void setMaxTailLines(int maxTailLines) {
+        this.maxTailLines = maxTailLines;
+    }
+
+    /**
+     * By default the output of the process is logged at debug level. Long running
+     * tools can log at info level, so the user sees their progress.
+     * @param info true to log the output at info level
+     */
+    public void setInfo(boolean info) {
+        this.info = info;
+    }
+
+    /**
+     * @param outputListener called for every line of output as it is read, on the thread that
+     *                       drains the output, also for the lines that don't fit in the tail
+     */
+    public void setOutputListener(Consumer<String> outputListener) {
+        this.outputListener = outputListener;
+    }
+
+    /**
+     * Starts the process, and waits until it finishes, is cancelled or times out.
+     * @param processName the name used in log messages
+     * @return the exit value of the process, or -1 if it was cancelled or timed out
+     * @throws IOException when the process can't be started
+     * @throws InterruptedException when the calling thread is interrupted, in which case the process is destroyed
+     */
+    public int runProcess(String processName) throws IOException, InterruptedException {
+        Logger.logDebug("Running " + processName + ": " + getCmd());
+        ProcessBuilder pb = new ProcessBuilder(args);
+        if (directory != null) {
+            pb.directory(directory.toFile());
+        }
+        pb.redirectErrorStream(true);
+        synchronized (tail) {
+            tail.clear();
+        }
+        timedOut = false;
+        long start = System.nanoTime();
+        Process p = pb.start();
+        process = p;
+        if (cancelled) {
+            destroy(p);
+        }
+        ProcessSampler sampler = new ProcessSampler(p.toHandle());
+        Thread pump = new Thread(() -> pump(processName, p.getInputStream()), "substrate-" + processName + "-output");
+        pump.setDaemon(true);
+        pump.start();
+        int result = -1;
+        try {
+            // sample while waiting, descendants can't be measured anymore once they have exited
+            long deadline = timeoutMillis > 0 ? start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : Long.MAX_VALUE;
+            sampler.sample();
+            while (!p.waitFor(SAMPLE_MILLIS, TimeUnit.MILLISECONDS)) {
+                sampler.sample();
+                if (!timedOut && System.nanoTime() - deadline > 0) {
+                    timedOut = true;
+                    Logger.logInfo(processName + " did not finish within " + timeoutMillis + " ms and will be stopped");
+                    destroy(p);
+                }
+            }
+            result = p.exitValue();
+            // a child that inherited the pipe might keep it open, don't wait for that forever
+            pump.join(PUMP_JOIN_MILLIS);
+            if (cancelled || timedOut) {
+                return -1;
+            }
+            Logger.logDebug(processName + " finished with result = " + result);
+            return result;
+        } catch (InterruptedException e) {
+            destroy(p);
+            throw e;
+        } finally {
+            process = null;
+            BuildMetrics.recordProcess(processName, (System.nanoTime() - start) / 1_000_000,
+                    sampler.getCpuMillis(), sampler.getPeakRssKb(), result);
+        }
+    }
+
+    /**
+     * Stops the running process, and any process it started.
+     */
+    public void cancel() {
+        cancelled = true;
+        Process p = process;
+        if (p != null) {
+            destroy(p);
+        }
+    }
+
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * @return the last lines of output of the process
+     */
+    public List<String> getResponses() {
+        synchronized (tail) {
+            return new ArrayList<>(tail);
+        }
+    }
+
+    /**
+     * @return the last lines of output of the process, as a single String
+     */
+    public String getResponse() {
+        return String.join("\n", getResponses());
+    }
+
+    /**
+     * Prints the last lines of the output of the process to stderr
+     */
+    public void printResponses() {
+        List<String> responses = getResponses();
+        if (responses.size() == maxTailLines) {
+            System.err.println("[...] (only the last " + maxTailLines + " lines are shown, see the log file for the full output)");
+        }
+        responses.forEach(System.err::println);
+    }
+
+    private void pump(String processName, InputStream inputStream) {
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(inputStream))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                synchronized (tail) {
+                    if (maxTailLines > 0) {
+                        if (tail.size() == maxTailLines) {
+                            tail.removeFirst();
+                        }
+                        tail.addLast(line);
+                    }
+                }
+                if (outputListener != null) {
+                    outputListener.accept(line);
+                }
+                if (info) {
+                    Logger.logInfo("[" + processName + "] " + line);
+                } else {
+                    Logger.logDebug("[" + processName + "] " + line);
+                }
+            }
+        } catch (IOException e) {
+            Logger.logDebug("Error reading output of " + processName + ": " + e.getMessage());
+        }
+    }
+
+    private static void destroy(Process p) {
+        p.descendants().forEach(ProcessHandle::destroyForcibly);
+        p.destroyForcibly();
+    }
+}
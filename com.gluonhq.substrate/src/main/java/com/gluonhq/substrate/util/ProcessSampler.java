@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2019, Gluon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL GLUON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gluonhq.substrate.util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Samples the CPU time and resident memory of a process and all its descendants (native-image
+ * starts the actual builder as a child process).
+ *
+ * CPU time comes from {@link ProcessHandle.Info}, memory from <code>/proc</code>, so
+ * memory is only reported on Linux.
+ */
+public class ProcessSampler {
+
+    private static final Path PROC = Path.of("/proc");
+
+    private final ProcessHandle process;
+    private final Map<Long, Long> cpuMillis = new HashMap<>();
+    private long peakRssKb = -1;
+
+    public ProcessSampler(ProcessHandle process) {
+        this.process = process;
+    }
+
+    /**
+     * Takes a sample. Processes that have exited keep the CPU time of their last sample.
+     */
+    public synchronized void sample() {
+        List<ProcessHandle> handles = Stream.concat(Stream.of(process), process.descendants())
+                .collect(Collectors.toList());
+        long rssKb = 0;
+        boolean rssKnown = false;
+        for (ProcessHandle handle : handles) {
+            handle.info().totalCpuDuration()
+                    .map(Duration::toMillis)
+                    .ifPresent(cpu -> cpuMillis.put(handle.pid(), cpu));
+            long[] memory = readMemoryKb(handle.pid());
+            if (memory != null) {
+                rssKnown = true;
+                rssKb += memory[0];
+                // the high water mark of a single process might be above the sum we sampled
+                peakRssKb = Math.max(peakRssKb, memory[1]);
+            }
+        }
+        if (rssKnown) {
+            peakRssKb = Math.max(peakRssKb, rssKb);
+        }
+    }
+
+    /**
+     * @return the CPU time used by the process and its descendants, in milliseconds
+     */
+    public synchronized long getCpuMillis() {
+        return cpuMillis.values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    /**
+     * @return the highest resident memory use, in kB, or -1 when it couldn't be measured
+     */
+    public synchronized long getPeakRssKb() {
+        return peakRssKb;
+    }
+
+    // returns {VmRSS, VmHWM} or null
+    private static long[] readMemoryKb(long pid) {
+        Path status = PROC.resolve(Long.toString(pid)).resolve("status");
+        if (!Files.isReadable(status)) {
+            return null;
+        }
+        try {
+            long rss = -1, hwm = -1;
+            for (String line : Files.readAllLines(status)) {
+                if (line.startsWith("VmRSS:")) {
+                    rss = parseKb(line);
+                } else if (line.startsWith("VmHWM:")) {
+                    hwm = parseKb(line);
+                }
+            }
+            return rss < 0 ? null : new long[] {rss, Math.max(rss, hwm)};
+        } catch (IOException | NumberFormatException e) {
+            // the process exited while we were reading
+            return null;
+        }
+    }
+
+    private static long parseKb(String line) {
+        return Long.parseLong(line.substring(line.indexOf(':') + 1).replace("kB", "").trim());
+    }
+}
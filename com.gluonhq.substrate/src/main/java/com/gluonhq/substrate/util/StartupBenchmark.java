@@ -0,0 +1,298 @@
+/*
+ * Copyright (c) 2019, Gluon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL GLUON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gluonhq.substrate.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the startup of an application: it is started a number of times after a few warmup runs,
+ * and for every run the time until it printed its first output, the time until it exited, its peak
+ * resident memory and its CPU time are recorded.
+ *
+ * Memory and CPU are sampled from <code>/proc</code> every 10 ms while the process runs (see
+ * {@link ProcessSampler}), so they are only reported on Linux. Sampling more often would take CPU from
+ * the process that is measured. The peak memory is the high-water mark of the kernel, so it isn't lost
+ * between samples, but the CPU time after the last sample is, and a process that exits within 10 ms
+ * might not be sampled at all.
+ * The results are written as <code>startup-benchmark.json</code>, with percentiles per measurement.
+ * Runs that printed nothing are left out of the first output percentiles and counted separately.
+ */
+public class StartupBenchmark {
+
+    public static final String REPORT_FILE = "startup-benchmark.json";
+
+    private static final long SAMPLE_INTERVAL_MILLIS = 10;
+    private static final double[] PERCENTILES = {50, 90, 99};
+
+    private final int warmup;
+    private final int runs;
+    private final long timeoutMillis;
+
+    /**
+     * @param warmup the number of runs that are not measured
+     * @param runs the number of measured runs
+     * @param timeoutMillis the maximum time of a single run
+     */
+    public StartupBenchmark(int warmup, int runs, long timeoutMillis) {
+        if (runs < 1) {
+            throw new IllegalArgumentException("At least one run is required, not " + runs);
+        }
+        this.warmup = Math.max(0, warmup);
+        this.runs = runs;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * The measurements of all runs of a command
+     */
+    public static class Result {
+        private final String name;
+        private final List<String> command;
+        private final long[] exitMicros;
+        private final long[] firstOutputMicros;
+        private final long[] peakRssKb;
+        private final long[] cpuMillis;
+
+        private Result(String name, List<String> command, int runs) {
+            this.name = name;
+            this.command = command;
+            exitMicros = new long[runs];
+            firstOutputMicros = new long[runs];
+            peakRssKb = new long[runs];
+            cpuMillis = new long[runs];
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @param percentile e.g. 50 for the median
+         * @return the time until the process exited, in microseconds
+         */
+        public long getExitMicros(double percentile) {
+            return StartupBenchmark.percentile(exitMicros, percentile);
+        }
+
+        /**
+         * @param percentile e.g. 50 for the median
+         * @return the time until the first output of the runs that printed something, in microseconds,
+         * or -1 if no run printed anything
+         */
+        public long getFirstOutputMicros(double percentile) {
+            long[] values = getFirstOutputs();
+            return values.length == 0 ? -1 : StartupBenchmark.percentile(values, percentile);
+        }
+
+        /**
+         * @return the number of runs that printed nothing
+         */
+        public int getRunsWithoutOutput() {
+            return firstOutputMicros.length - getFirstOutputs().length;
+        }
+
+        private long[] getFirstOutputs() {
+            return Arrays.stream(firstOutputMicros).filter(v -> v >= 0).toArray();
+        }
+
+        /**
+         * @param percentile e.g. 50 for the median
+         * @return the peak resident memory in kB, or -1 when it couldn't be measured
+         */
+        public long getPeakRssKb(double percentile) {
+            return StartupBenchmark.percentile(peakRssKb, percentile);
+        }
+
+        @Override
+        public String toString() {
+            return name + ": exit p50 " + getExitMicros(50) / 1000.0 + " ms, p90 " + getExitMicros(90) / 1000.0 +
+                    " ms, first output p50 " + (getFirstOutputMicros(50) < 0 ? "none" : getFirstOutputMicros(50) / 1000.0 + " ms") +
+                    " (" + getRunsWithoutOutput() + " runs without output), peak RSS p50 " +
+                    getPeakRssKb(50) + " kB, CPU p50 " + StartupBenchmark.percentile(cpuMillis, 50) + " ms";
+        }
+    }
+
+    /**
+     * Runs the command the configured number of times
+     * @param name the name of the result, e.g. native or jvm
+     * @param command the command to run
+     * @param workDir the working directory of the command, or null for the current directory
+     * @return the measurements
+     * @throws IOException when the command can't be started, or it fails or times out
+     * @throws InterruptedException
+     */
+    public Result measure(String name, List<String> command, Path workDir) throws IOException, InterruptedException {
+        Result result = new Result(name, command, runs);
+        for (int i = 0; i < warmup + runs; i++) {
+            long[] run = runOnce(command, workDir);
+            if (i >= warmup) {
+                int index = i - warmup;
+                result.exitMicros[index] = run[0];
+                result.firstOutputMicros[index] = run[1];
+                result.peakRssKb[index] = run[2];
+                result.cpuMillis[index] = run[3];
+            }
+        }
+        Logger.logInfo("Startup of " + result);
+        return result;
+    }
+
+    // returns {exit micros, first output micros, peak RSS kB, CPU ms}
+    private long[] runOnce(List<String> command, Path workDir) throws IOException, InterruptedException {
+        ProcessBuilder pb = new ProcessBuilder(command);
+        pb.redirectErrorStream(true);
+        if (workDir != null) {
+            pb.directory(workDir.toFile());
+        }
+        long start = System.nanoTime();
+        Process process = pb.start();
+        ProcessSampler sampler = new ProcessSampler(process.toHandle());
+        BackgroundTask<Void> sampling = BackgroundTask.start("startup-sampler", () -> {
+            do {
+                sampler.sample();
+            } while (!process.waitFor(SAMPLE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS));
+            return null;
+        });
+        // read on another thread, so a binary that hangs is stopped by the timeout
+        AtomicLong firstOutput = new AtomicLong(-1);
+        BackgroundTask<Void> output = BackgroundTask.start("startup-output", () -> {
+            try (InputStream is = process.getInputStream()) {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = is.read(buffer)) != -1) {
+                    if (read > 0 && firstOutput.get() < 0) {
+                        firstOutput.set((System.nanoTime() - start) / 1000);
+                    }
+                }
+            }
+            return null;
+        });
+        if (!process.waitFor(timeoutMillis, TimeUnit.MILLISECONDS)) {
+            process.destroyForcibly();
+            throw new IOException("Startup benchmark of " + command.get(0) + " timed out after " + timeoutMillis + " ms");
+        }
+        long exit = (System.nanoTime() - start) / 1000;
+        sampling.join();
+        output.join();
+        if (process.exitValue() != 0) {
+            throw new IOException("Startup benchmark of " + command.get(0) + " failed with exit code " + process.exitValue());
+        }
+        return new long[] {exit, firstOutput.get(), sampler.getPeakRssKb(), sampler.getCpuMillis()};
+    }
+
+    /**
+     * Writes the results, with their percentiles
+     * @param logPath the folder to write the report to
+     * @param results the results to compare
+     * @return the report file
+     * @throws IOException
+     */
+    public Path writeReport(Path logPath, List<Result> results) throws IOException {
+        Path report = logPath.resolve(REPORT_FILE);
+        Files.write(report, toJson(results).getBytes(StandardCharsets.UTF_8));
+        Logger.logInfo("Startup benchmark written to " + report);
+        return report;
+    }
+
+    String toJson(List<Result> results) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        sb.append("  \"warmup\": ").append(warmup).append(",\n");
+        sb.append("  \"runs\": ").append(runs).append(",\n");
+        sb.append("  \"results\": [");
+        String separator = "\n";
+        for (Result result : results) {
+            sb.append(separator).append("    {\n");
+            sb.append("      \"name\": ").append(BuildMetrics.quote(result.name)).append(",\n");
+            sb.append("      \"command\": ").append(BuildMetrics.quote(String.join(" ", result.command))).append(",\n");
+            Map<String, long[]> measurements = new LinkedHashMap<>();
+            measurements.put("exitMicros", result.exitMicros);
+            measurements.put("firstOutputMicros", result.getFirstOutputs());
+            measurements.put("peakRssKb", result.peakRssKb);
+            measurements.put("cpuMillis", result.cpuMillis);
+            for (Map.Entry<String, long[]> e : measurements.entrySet()) {
+                sb.append("      ").append(BuildMetrics.quote(e.getKey())).append(": ")
+                        .append(statistics(e.getValue())).append(",\n");
+            }
+            sb.append("      \"runsWithoutOutput\": ").append(result.getRunsWithoutOutput());
+            sb.append("\n    }");
+            separator = ",\n";
+        }
+        sb.append(results.isEmpty() ? "]\n" : "\n  ]\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    private static String statistics(long[] values) {
+        if (values.length == 0) {
+            return "null";
+        }
+        StringBuilder sb = new StringBuilder("{");
+        sb.append("\"min\": ").append(percentile(values, 0));
+        for (double p : PERCENTILES) {
+            sb.append(", \"p").append((int) p).append("\": ").append(percentile(values, p));
+        }
+        sb.append(", \"max\": ").append(percentile(values, 100));
+        sb.append(", \"mean\": ").append(Arrays.stream(values).sum() / values.length);
+        return sb.append('}').toString();
+    }
+
+    // nearest-rank percentile
+    static long percentile(long[] values, double percentile) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+
+    /**
+     * @param javaHome the JDK to run the application with, e.g. the GraalVM installation
+     * @param classPath the classpath of the application
+     * @param mainClass the main class
+     * @return the command to run the application on the JVM, for comparison
+     */
+    public static List<String> jvmCommand(String javaHome, String classPath, String mainClass) {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(javaHome, "bin", "java").toString());
+        command.add("-cp");
+        command.add(classPath);
+        command.add(mainClass);
+        return command;
+    }
+}
@@ -1,3 +1,5 @@
 module com.gluonhq.substrate {
     requires java.logging;
+    requires jdk.jfr;
+    requires jdk.management;
 }
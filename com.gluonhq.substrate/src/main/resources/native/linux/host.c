@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2019, Gluon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL GLUON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+/*
+ * Test host for an image linked as a shared library: it loads the library, creates an isolate and
+ * calls an entry point in a loop, then reports the number of calls per second.
+ *
+ * The entry point is called as int entry(graal_isolatethread_t* thread, int i), e.g. for
+ *     @CEntryPoint(name = "handle") static int handle(IsolateThread thread, int request)
+ *
+ * Usage: host <library> <entry point> [calls]
+ */
+#include <dlfcn.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <time.h>
+
+typedef struct __graal_isolate_t graal_isolate_t;
+typedef struct __graal_isolatethread_t graal_isolatethread_t;
+typedef int (*create_isolate_fn)(void* params, graal_isolate_t** isolate, graal_isolatethread_t** thread);
+typedef int (*tear_down_isolate_fn)(graal_isolatethread_t* thread);
+typedef int (*entry_fn)(graal_isolatethread_t* thread, int i);
+
+static double now() {
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return ts.tv_sec + ts.tv_nsec / 1e9;
+}
+
+int main(int argc, char** argv) {
+    if (argc < 3) {
+        fprintf(stderr, "Usage: %s <library> <entry point> [calls]\n", argv[0]);
+        return 2;
+    }
+    long calls = argc > 3 ? atol(argv[3]) : 1000000;
+    void* library = dlopen(argv[1], RTLD_NOW);
+    if (library == NULL) {
+        fprintf(stderr, "Could not load %s: %s\n", argv[1], dlerror());
+        return 1;
+    }
+    create_isolate_fn create_isolate = (create_isolate_fn) dlsym(library, "graal_create_isolate");
+    tear_down_isolate_fn tear_down_isolate = (tear_down_isolate_fn) dlsym(library, "graal_tear_down_isolate");
+    entry_fn entry = (entry_fn) dlsym(library, argv[2]);
+    if (create_isolate == NULL || tear_down_isolate == NULL || entry == NULL) {
+        fprintf(stderr, "Missing symbol in %s: %s\n", argv[1], dlerror());
+        return 1;
+    }
+
+    double start = now();
+    graal_isolate_t* isolate = NULL;
+    graal_isolatethread_t* thread = NULL;
+    if (create_isolate(NULL, &isolate, &thread) != 0) {
+        fprintf(stderr, "Could not create an isolate\n");
+        return 1;
+    }
+    double created = now();
+    long long sum = 0;
+    for (long i = 0; i < calls; i++) {
+        sum += entry(thread, (int) i);
+    }
+    double done = now();
+    tear_down_isolate(thread);
+    printf("isolate created in %.3f ms\n", (created - start) * 1000);
+    printf("%ld calls in %.3f s, %.0f calls per second (checksum %lld)\n",
+            calls, done - created, calls / (done - created), sum);
+    return 0;
+}
@@ -25,13 +25,41 @@
  * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
+
+/*
+ * Template of the launcher, generated for each build: the entry point that native-image created
+ * and the runtime arguments of the configuration are filled in by
+ * AbstractTargetConfiguration.compileLauncher.
+ */
 #include <stdio.h>
+#include <stdlib.h>
+
+extern int ${ENTRY_POINT}(int argc, char** argv);
 
-extern void *IsolateEnterStub__JavaMainWrapper__run__5087f5482cc9a6abc971913ece43acb471d2631b__a61fe6c26e84dd4037e4629852b5488bfcc16e7e();
+static const char* runtimeArgs[] = { ${RUNTIME_ARGS}NULL };
 
-int main() {
+int main(int argc, char** argv) {
+    int runtimeArgc = 0;
+    while (runtimeArgs[runtimeArgc] != NULL) {
+        runtimeArgc++;
+    }
+    // the isolate takes the runtime arguments (heap, young generation and stack sizes) from the
+    // command line and passes the others to the main method, so they are inserted before those
+    char** args = malloc((argc + runtimeArgc + 1) * sizeof(char*));
+    if (args == NULL) {
+        fprintf(stderr, "Could not allocate the arguments\n");
+        return 1;
+    }
+    args[0] = argv[0];
+    for (int i = 0; i < runtimeArgc; i++) {
+        args[i + 1] = (char*) runtimeArgs[i];
+    }
+    for (int i = 1; i < argc; i++) {
+        args[runtimeArgc + i] = argv[i];
+    }
+    args[argc + runtimeArgc] = NULL;
     #ifdef GVM_VERBOSE
-      fprintf(stderr, "Main\n");
+      fprintf(stderr, "Main, with %d runtime arguments\n", runtimeArgc);
     #endif
-    (*IsolateEnterStub__JavaMainWrapper__run__5087f5482cc9a6abc971913ece43acb471d2631b__a61fe6c26e84dd4037e4629852b5488bfcc16e7e)(1);
+    return ${ENTRY_POINT}(argc + runtimeArgc, args);
 }
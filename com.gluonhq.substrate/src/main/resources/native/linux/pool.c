@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) 2019, Gluon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL GLUON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+/*
+ * Template of the isolate pool launcher, generated for each build: the pool size and the entry point
+ * are filled in by AbstractTargetConfiguration.compileLauncher.
+ *
+ * Every worker thread creates its own isolate, so work units run in parallel without sharing a heap
+ * or garbage collection pauses. A work unit is a line, read from stdin or, with --socket <path>,
+ * from the connections to a Unix socket. It is handled by the entry point of the image:
+ *     @CEntryPoint(name = "...") static int handle(IsolateThread thread, CCharPointer unit, int length)
+ * Every socket connection is read by its own thread. The result of the entry point is written back
+ * to the connection as a line "<sequence> <result>", where the sequence is the number of the line in
+ * the connection, starting at 1: the units are handled in parallel, so the replies can be out of order.
+ * A client that went away doesn't stop the pool, its remaining replies are dropped.
+ */
+#include <errno.h>
+#include <pthread.h>
+#include <signal.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <sys/socket.h>
+#include <sys/un.h>
+#include <time.h>
+#include <unistd.h>
+
+#define POOL_SIZE ${POOL_SIZE}
+#define QUEUE_SIZE (POOL_SIZE * 16)
+
+typedef struct __graal_isolate_t graal_isolate_t;
+typedef struct __graal_isolatethread_t graal_isolatethread_t;
+extern int graal_create_isolate(void* params, graal_isolate_t** isolate, graal_isolatethread_t** thread);
+extern int graal_tear_down_isolate(graal_isolatethread_t* thread);
+extern int ${ENTRY_POINT}(graal_isolatethread_t* thread, char* unit, int length);
+
+typedef struct connection {
+    int fd;                     // -1 for stdin
+    int pending;                // work units not handled yet, plus one while the connection is read
+    int broken;                 // the client closed the connection, replies are dropped
+    pthread_mutex_t write_lock;
+} connection;
+
+typedef struct work_unit {
+    char* line;
+    int length;
+    long sequence;
+    connection* from;
+} work_unit;
+
+static work_unit queue[QUEUE_SIZE];
+static int head = 0, count = 0, closed = 0, failures = 0;
+static long handled = 0;
+static pthread_mutex_t lock = PTHREAD_MUTEX_INITIALIZER;
+static pthread_cond_t not_empty = PTHREAD_COND_INITIALIZER;
+static pthread_cond_t not_full = PTHREAD_COND_INITIALIZER;
+
+static void release(connection* from) {
+    pthread_mutex_lock(&lock);
+    int last = --from->pending == 0;
+    pthread_mutex_unlock(&lock);
+    if (last) {
+        if (from->fd >= 0) {
+            close(from->fd);
+        }
+        pthread_mutex_destroy(&from->write_lock);
+        free(from);
+    }
+}
+
+static void put(work_unit unit) {
+    pthread_mutex_lock(&lock);
+    while (count == QUEUE_SIZE && failures < POOL_SIZE) {
+        pthread_cond_wait(&not_full, &lock);
+    }
+    if (failures == POOL_SIZE) {
+        // no isolate left to handle the work unit
+        pthread_mutex_unlock(&lock);
+        free(unit.line);
+        return;
+    }
+    queue[(head + count++) % QUEUE_SIZE] = unit;
+    unit.from->pending++;
+    pthread_cond_signal(&not_empty);
+    pthread_mutex_unlock(&lock);
+}
+
+// returns 0 when the queue is closed and empty
+static int take(work_unit* unit) {
+    pthread_mutex_lock(&lock);
+    while (count == 0 && !closed) {
+        pthread_cond_wait(&not_empty, &lock);
+    }
+    if (count == 0) {
+        pthread_mutex_unlock(&lock);
+        return 0;
+    }
+    *unit = queue[head];
+    head = (head + 1) % QUEUE_SIZE;
+    count--;
+    pthread_cond_signal(&not_full);
+    pthread_mutex_unlock(&lock);
+    return 1;
+}
+
+// writes the whole reply, a closed connection doesn't raise SIGPIPE
+static void reply(connection* to, long sequence, int result) {
+    char line[40];
+    int n = snprintf(line, sizeof(line), "%ld %d\n", sequence, result);
+    pthread_mutex_lock(&to->write_lock);
+    for (int written = 0; written < n && !to->broken; ) {
+        ssize_t w = send(to->fd, line + written, n - written, MSG_NOSIGNAL);
+        if (w < 0 && errno != EINTR) {
+            if (errno != EPIPE && errno != ECONNRESET) {
+                perror("send");
+            }
+            to->broken = 1;
+        } else if (w > 0) {
+            written += w;
+        }
+    }
+    pthread_mutex_unlock(&to->write_lock);
+}
+
+static void* worker(void* arg) {
+    graal_isolate_t* isolate = NULL;
+    graal_isolatethread_t* thread = NULL;
+    if (graal_create_isolate(NULL, &isolate, &thread) != 0) {
+        fprintf(stderr, "Could not create an isolate for worker %ld\n", (long) arg);
+        pthread_mutex_lock(&lock);
+        failures++;
+        pthread_cond_broadcast(&not_full);
+        pthread_mutex_unlock(&lock);
+        return NULL;
+    }
+    work_unit unit;
+    while (take(&unit)) {
+        int result = ${ENTRY_POINT}(thread, unit.line, unit.length);
+        if (unit.from->fd >= 0) {
+            reply(unit.from, unit.sequence, result);
+        }
+        free(unit.line);
+        release(unit.from);
+        pthread_mutex_lock(&lock);
+        handled++;
+        pthread_mutex_unlock(&lock);
+    }
+    graal_tear_down_isolate(thread);
+    return NULL;
+}
+
+static connection* new_connection(int fd) {
+    connection* c = malloc(sizeof(connection));
+    c->fd = fd;
+    c->pending = 1;
+    c->broken = 0;
+    pthread_mutex_init(&c->write_lock, NULL);
+    return c;
+}
+
+// puts every line of the stream in the queue, without the line separator
+static void read_units(FILE* in, connection* from) {
+    char* line = NULL;
+    size_t size = 0;
+    ssize_t length;
+    long sequence = 0;
+    while ((length = getline(&line, &size, in)) != -1) {
+        if (length > 0 && line[length - 1] == '\n') {
+            line[--length] = '\0';
+        }
+        work_unit unit = { strndup(line, length), (int) length, ++sequence, from };
+        put(unit);
+    }
+    free(line);
+}
+
+static void* read_connection(void* arg) {
+    connection* from = arg;
+    FILE* in = fdopen(dup(from->fd), "r");
+    if (in == NULL) {
+        perror("fdopen");
+    } else {
+        read_units(in, from);
+        fclose(in);
+    }
+    release(from);
+    return NULL;
+}
+
+static int serve(const char* path) {
+    int server = socket(AF_UNIX, SOCK_STREAM, 0);
+    struct sockaddr_un address;
+    memset(&address, 0, sizeof(address));
+    address.sun_family = AF_UNIX;
+    strncpy(address.sun_path, path, sizeof(address.sun_path) - 1);
+    unlink(path);
+    if (server < 0 || bind(server, (struct sockaddr*) &address, sizeof(address)) != 0 || listen(server, 16) != 0) {
+        perror(path);
+        return 1;
+    }
+    // a thread per connection, so a slow client doesn't hold up the others
+    pthread_attr_t detached;
+    pthread_attr_init(&detached);
+    pthread_attr_setdetachstate(&detached, PTHREAD_CREATE_DETACHED);
+    for (;;) {
+        int fd = accept(server, NULL, NULL);
+        if (fd < 0) {
+            if (errno == EINTR) {
+                continue;
+            }
+            perror("accept");
+            return 1;
+        }
+        connection* from = new_connection(fd);
+        pthread_t reader;
+        if (pthread_create(&reader, &detached, read_connection, from) != 0) {
+            fprintf(stderr, "Could not start a thread for a connection\n");
+            release(from);
+        }
+    }
+}
+
+int main(int argc, char** argv) {
+    pthread_t workers[POOL_SIZE];
+    struct timespec start, end;
+    clock_gettime(CLOCK_MONOTONIC, &start);
+    // a write to a closed connection fails with EPIPE instead of stopping the pool
+    signal(SIGPIPE, SIG_IGN);
+    for (long i = 0; i < POOL_SIZE; i++) {
+        pthread_create(&workers[i], NULL, worker, (void*) i);
+    }
+    int result = 0;
+    if (argc > 2 && strcmp(argv[1], "--socket") == 0) {
+        result = serve(argv[2]);
+    } else {
+        connection* from = new_connection(-1);
+        read_units(stdin, from);
+        release(from);
+    }
+    pthread_mutex_lock(&lock);
+    closed = 1;
+    pthread_cond_broadcast(&not_empty);
+    pthread_mutex_unlock(&lock);
+    for (int i = 0; i < POOL_SIZE; i++) {
+        pthread_join(workers[i], NULL);
+    }
+    clock_gettime(CLOCK_MONOTONIC, &end);
+    #ifdef GVM_VERBOSE
+      double seconds = (end.tv_sec - start.tv_sec) + (end.tv_nsec - start.tv_nsec) / 1e9;
+      fprintf(stderr, "%ld work units in %.3f s with %d isolates, %.0f per second\n",
+              handled, seconds, POOL_SIZE, handled / seconds);
+    #endif
+    return result != 0 || failures == POOL_SIZE ? 1 : 0;
+}
@@ -25,96 +25,493 @@
  * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
- #include <stdio.h>
 
-void JVM_StartThread() {
-fprintf(stderr, "THREADIMPLMISSING\n");
+/*
+ * The thread related JVM entry points of the static Java libraries, implemented with POSIX threads.
+ *
+ * Every thread started here, or that calls one of these functions, has an entry in a list that is
+ * guarded by a single mutex. A started thread attaches itself to the VM, runs Thread.run() and
+ * removes its entry before it wakes up the threads that joined it. The main thread and other
+ * attached threads get their java.lang.Thread when they first ask for it, in the "main" group.
+ *
+ * JNI can't tell which thread owns a monitor, so Thread.holdsLock() always returns false.
+ */
+#define _GNU_SOURCE
+#include <errno.h>
+#include <jni.h>
+#include <pthread.h>
+#include <sched.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
+#include <unistd.h>
+#ifdef __linux__
+#include <sys/resource.h>
+#include <sys/syscall.h>
+#endif
+
+// pthread names are limited to 16 bytes, including the terminating 0
+#define MAX_NATIVE_NAME 15
+#define NORM_PRIORITY 5
+
+typedef struct thread_entry {
+    jobject thread;             // global reference to the java.lang.Thread, NULL until an attached thread asks for it
+    pthread_t pthread;
+    long tid;                   // kernel thread id, 0 until the thread runs
+    int interrupted;
+    pthread_cond_t wakeup;      // signalled when the thread is interrupted, to end a sleep
+    struct thread_entry* next;
+} thread_entry;
+
+static pthread_mutex_t lock = PTHREAD_MUTEX_INITIALIZER;
+static thread_entry* threads = NULL;
+static __thread thread_entry* current = NULL;
+static JavaVM* vm = NULL;
+static pthread_mutex_t group_lock = PTHREAD_MUTEX_INITIALIZER;
+static jobject main_group = NULL;   // global reference to the group of the attached threads
+
+static void throw_new(JNIEnv* env, const char* className, const char* message) {
+    jclass cls = (*env)->FindClass(env, className);
+    if (cls != NULL) {
+        (*env)->ThrowNew(env, cls, message);
+    }
 }
 
-void JVM_ResumeThread() {
-fprintf(stderr, "THREADIMPLMISSING\n");
+// the lock must be held
+static thread_entry* find_entry(JNIEnv* env, jobject thread) {
+    if (thread == NULL) {
+        return NULL;
+    }
+    for (thread_entry* entry = threads; entry != NULL; entry = entry->next) {
+        if (entry->thread != NULL && (*env)->IsSameObject(env, entry->thread, thread)) {
+            return entry;
+        }
+    }
+    return NULL;
 }
 
-void JVM_Sleep() {
-fprintf(stderr, "THREADIMPLMISSING\n");
+// the lock must be held
+static thread_entry* add_entry(JNIEnv* env, jobject thread) {
+    thread_entry* entry = calloc(1, sizeof(thread_entry));
+    if (entry == NULL) {
+        return NULL;
+    }
+    if (thread != NULL) {
+        entry->thread = (*env)->NewGlobalRef(env, thread);
+    }
+    pthread_cond_init(&entry->wakeup, NULL);
+    entry->next = threads;
+    threads = entry;
+    return entry;
 }
 
-void JVM_HoldsLock() {
-fprintf(stderr, "THREADIMPLMISSING\n");
+// the lock must be held
+static void remove_entry(JNIEnv* env, thread_entry* entry) {
+    for (thread_entry** p = &threads; *p != NULL; p = &(*p)->next) {
+        if (*p == entry) {
+            *p = entry->next;
+            break;
+        }
+    }
+    if (entry->thread != NULL && env != NULL) {
+        (*env)->DeleteGlobalRef(env, entry->thread);
+    }
+    pthread_cond_destroy(&entry->wakeup);
+    free(entry);
 }
 
-void JVM_IsThreadAlive() {
-fprintf(stderr, "THREADIMPLMISSING\n");
+static long current_tid() {
+#ifdef __linux__
+    return (long) syscall(SYS_gettid);
+#else
+    return 0;
+#endif
 }
 
-void JVM_Interrupt() {
-fprintf(stderr, "THREADIMPLMISSING\n");
+// the entry of the calling thread, created for threads that weren't started by JVM_StartThread
+static thread_entry* current_entry(JNIEnv* env) {
+    if (current == NULL) {
+        pthread_mutex_lock(&lock);
+        current = add_entry(env, NULL);
+        if (current != NULL) {
+            current->pthread = pthread_self();
+            current->tid = current_tid();
+        }
+        pthread_mutex_unlock(&lock);
+    }
+    return current;
 }
 
-void JVM_IsInterrupted() {
-fprintf(stderr, "THREADIMPLMISSING\n");
+// the group of the attached threads, created with the first one, like HotSpot creates "system" and "main"
+static jobject get_main_group(JNIEnv* env) {
+    pthread_mutex_lock(&group_lock);
+    if (main_group == NULL) {
+        jclass groupClass = (*env)->FindClass(env, "java/lang/ThreadGroup");
+        jmethodID systemInit = groupClass == NULL ? NULL : (*env)->GetMethodID(env, groupClass, "<init>", "()V");
+        jmethodID groupInit = systemInit == NULL ? NULL :
+                (*env)->GetMethodID(env, groupClass, "<init>", "(Ljava/lang/ThreadGroup;Ljava/lang/String;)V");
+        jobject system = groupInit == NULL ? NULL : (*env)->NewObject(env, groupClass, systemInit);
+        jstring name = system == NULL ? NULL : (*env)->NewStringUTF(env, "main");
+        jobject group = name == NULL ? NULL : (*env)->NewObject(env, groupClass, groupInit, system, name);
+        if (group != NULL) {
+            main_group = (*env)->NewGlobalRef(env, group);
+        }
+    }
+    pthread_mutex_unlock(&group_lock);
+    return main_group;
 }
 
-void JVM_SetNativeThreadName() {
-fprintf(stderr, "THREADIMPLMISSING\n");
+// creates the java.lang.Thread of a thread that wasn't started by JVM_StartThread
+static jobject attach_thread(JNIEnv* env, thread_entry* self) {
+    jclass threadClass = (*env)->FindClass(env, "java/lang/Thread");
+    jobject group = threadClass == NULL ? NULL : get_main_group(env);
+    if (group == NULL) {
+        return NULL;
+    }
+    jmethodID init = (*env)->GetMethodID(env, threadClass, "<init>", "(Ljava/lang/ThreadGroup;Ljava/lang/String;)V");
+    jfieldID priorityField = init == NULL ? NULL : (*env)->GetFieldID(env, threadClass, "priority", "I");
+    jobject thread = priorityField == NULL ? NULL : (*env)->AllocObject(env, threadClass);
+    if (thread == NULL) {
+        return NULL;
+    }
+    // the constructor asks for the current thread and inherits its priority, so like HotSpot the
+    // object is recorded with the normal priority before it is constructed
+    (*env)->SetIntField(env, thread, priorityField, NORM_PRIORITY);
+    pthread_mutex_lock(&lock);
+    self->thread = (*env)->NewGlobalRef(env, thread);
+    pthread_mutex_unlock(&lock);
+    char name[32];
+    if (self->tid != 0 && self->tid == (long) getpid()) {
+        snprintf(name, sizeof(name), "main");
+    } else {
+        snprintf(name, sizeof(name), "Thread-attached-%ld", self->tid);
+    }
+    jstring jname = (*env)->NewStringUTF(env, name);
+    if (jname != NULL) {
+        (*env)->CallNonvirtualVoidMethod(env, thread, threadClass, init, group, jname);
+    }
+    jmethodID add = (*env)->ExceptionCheck(env) ? NULL :
+            (*env)->GetMethodID(env, (*env)->GetObjectClass(env, group), "add", "(Ljava/lang/Thread;)V");
+    if (add != NULL) {
+        // a running thread is a member of its group, as for attached threads in HotSpot
+        (*env)->CallVoidMethod(env, group, add, thread);
+    }
+    if (jname == NULL || (*env)->ExceptionCheck(env)) {
+        pthread_mutex_lock(&lock);
+        (*env)->DeleteGlobalRef(env, self->thread);
+        self->thread = NULL;
+        pthread_mutex_unlock(&lock);
+        return NULL;
+    }
+    return thread;
+}
+
+// Java priorities 1 to 10 are mapped on nice values 4 to -5. Without privileges a thread can
+// only lower its priority, other changes fail silently, as with HotSpot on Linux.
+static void apply_priority(long tid, jint priority) {
+#ifdef __linux__
+    if (tid > 0) {
+        setpriority(PRIO_PROCESS, (id_t) tid, NORM_PRIORITY - priority);
+    }
+#endif
+}
+
+static void* thread_start(void* arg) {
+    thread_entry* entry = arg;
+    JNIEnv* env = NULL;
+    current = entry;
+    pthread_mutex_lock(&lock);
+    entry->tid = current_tid();
+    pthread_mutex_unlock(&lock);
+    if ((*vm)->AttachCurrentThread(vm, (void**) &env, NULL) != JNI_OK) {
+        fprintf(stderr, "Could not attach a new thread to the VM\n");
+        pthread_mutex_lock(&lock);
+        remove_entry(NULL, entry);
+        pthread_mutex_unlock(&lock);
+        return NULL;
+    }
+    jobject thread = (*env)->NewLocalRef(env, entry->thread);
+    jclass cls = (*env)->GetObjectClass(env, thread);
+    jfieldID priorityField = (*env)->GetFieldID(env, cls, "priority", "I");
+    if (priorityField != NULL) {
+        apply_priority(entry->tid, (*env)->GetIntField(env, thread, priorityField));
+    }
+    (*env)->ExceptionClear(env);
+    jmethodID run = (*env)->GetMethodID(env, cls, "run", "()V");
+    if (run != NULL) {
+        (*env)->CallVoidMethod(env, thread, run);
+    }
+    jthrowable uncaught = (*env)->ExceptionOccurred(env);
+    if (uncaught != NULL) {
+        (*env)->ExceptionClear(env);
+        jmethodID dispatch = (*env)->GetMethodID(env, cls, "dispatchUncaughtException", "(Ljava/lang/Throwable;)V");
+        if (dispatch != NULL) {
+            (*env)->CallVoidMethod(env, thread, dispatch, uncaught);
+        }
+        if ((*env)->ExceptionCheck(env)) {
+            (*env)->ExceptionDescribe(env);
+        }
+    }
+
+    // the thread is no longer alive once its entry is gone, then Thread.join() is woken up
+    pthread_mutex_lock(&lock);
+    current = NULL;
+    remove_entry(env, entry);
+    pthread_mutex_unlock(&lock);
+    if ((*env)->MonitorEnter(env, thread) == JNI_OK) {
+        jmethodID notifyAll = (*env)->GetMethodID(env, cls, "notifyAll", "()V");
+        (*env)->CallVoidMethod(env, thread, notifyAll);
+        (*env)->MonitorExit(env, thread);
+    }
+    (*env)->ExceptionClear(env);
+    (*vm)->DetachCurrentThread(vm);
+    return NULL;
+}
+
+JNIEXPORT void JNICALL JVM_StartThread(JNIEnv* env, jobject thread) {
+    if (vm == NULL && (*env)->GetJavaVM(env, &vm) != JNI_OK) {
+        throw_new(env, "java/lang/InternalError", "No VM to attach the thread to");
+        return;
+    }
+    pthread_attr_t attr;
+    pthread_attr_init(&attr);
+    pthread_attr_setdetachstate(&attr, PTHREAD_CREATE_DETACHED);
+    jfieldID stackSizeField = (*env)->GetFieldID(env, (*env)->GetObjectClass(env, thread), "stackSize", "J");
+    if (stackSizeField != NULL) {
+        jlong stackSize = (*env)->GetLongField(env, thread, stackSizeField);
+        if (stackSize > 0) {
+            pthread_attr_setstacksize(&attr, (size_t) stackSize);
+        }
+    }
+    (*env)->ExceptionClear(env);
+
+    pthread_mutex_lock(&lock);
+    if (find_entry(env, thread) != NULL) {
+        pthread_mutex_unlock(&lock);
+        pthread_attr_destroy(&attr);
+        throw_new(env, "java/lang/IllegalThreadStateException", NULL);
+        return;
+    }
+    thread_entry* entry = add_entry(env, thread);
+    int rc = entry == NULL ? ENOMEM : pthread_create(&entry->pthread, &attr, thread_start, entry);
+    if (rc != 0 && entry != NULL) {
+        remove_entry(env, entry);
+    }
+    pthread_mutex_unlock(&lock);
+    pthread_attr_destroy(&attr);
+    if (rc != 0) {
+        throw_new(env, "java/lang/OutOfMemoryError", "unable to create native thread: possibly out of memory or process/resource limits reached");
+    }
 }
 
-void JVM_GetAllThreads() {
-fprintf(stderr, "THREADIMPLMISSING\n");
+JNIEXPORT jboolean JNICALL JVM_IsThreadAlive(JNIEnv* env, jobject thread) {
+    pthread_mutex_lock(&lock);
+    jboolean alive = find_entry(env, thread) != NULL ? JNI_TRUE : JNI_FALSE;
+    pthread_mutex_unlock(&lock);
+    return alive;
 }
 
-void JVM_SetThreadPriority() {
-fprintf(stderr, "THREADIMPLMISSING\n");
+JNIEXPORT jobject JNICALL JVM_CurrentThread(JNIEnv* env, jclass threadClass) {
+    if (current != NULL && current->thread != NULL) {
+        return (*env)->NewLocalRef(env, current->thread);
+    }
+    thread_entry* self = current_entry(env);
+    if (self == NULL) {
+        throw_new(env, "java/lang/OutOfMemoryError", NULL);
+        return NULL;
+    }
+    return attach_thread(env, self);
 }
 
-void JVM_CurrentThread() {
-fprintf(stderr, "THREADIMPLMISSING\n");
+JNIEXPORT void JNICALL JVM_Sleep(JNIEnv* env, jclass threadClass, jlong millis) {
+    if (millis < 0) {
+        throw_new(env, "java/lang/IllegalArgumentException", "timeout value is negative");
+        return;
+    }
+    thread_entry* self = current_entry(env);
+    if (self == NULL) {
+        throw_new(env, "java/lang/OutOfMemoryError", NULL);
+        return;
+    }
+    struct timespec deadline;
+    clock_gettime(CLOCK_REALTIME, &deadline);
+    deadline.tv_sec += millis / 1000;
+    deadline.tv_nsec += (millis % 1000) * 1000000;
+    if (deadline.tv_nsec >= 1000000000) {
+        deadline.tv_sec++;
+        deadline.tv_nsec -= 1000000000;
+    }
+    pthread_mutex_lock(&lock);
+    int rc = 0;
+    if (millis == 0 && !self->interrupted) {
+        pthread_mutex_unlock(&lock);
+        sched_yield();
+        pthread_mutex_lock(&lock);
+    }
+    while (millis > 0 && !self->interrupted && rc != ETIMEDOUT) {
+        rc = pthread_cond_timedwait(&self->wakeup, &lock, &deadline);
+    }
+    int interrupted = self->interrupted;
+    self->interrupted = 0;
+    pthread_mutex_unlock(&lock);
+    if (interrupted) {
+        throw_new(env, "java/lang/InterruptedException", "sleep interrupted");
+    }
 }
 
-void JVM_CountStackFrames() {
-fprintf(stderr, "THREADIMPLMISSING\n");
+JNIEXPORT void JNICALL JVM_Interrupt(JNIEnv* env, jobject thread) {
+    pthread_mutex_lock(&lock);
+    thread_entry* entry = find_entry(env, thread);
+    if (entry != NULL) {
+        entry->interrupted = 1;
+        pthread_cond_signal(&entry->wakeup);
+    }
+    pthread_mutex_unlock(&lock);
 }
 
-void JVM_StopThread() {
-fprintf(stderr, "THREADIMPLMISSING\n");
+JNIEXPORT jboolean JNICALL JVM_IsInterrupted(JNIEnv* env, jobject thread, jboolean clearInterrupted) {
+    pthread_mutex_lock(&lock);
+    thread_entry* entry = find_entry(env, thread);
+    jboolean interrupted = entry != NULL && entry->interrupted ? JNI_TRUE : JNI_FALSE;
+    if (interrupted && clearInterrupted) {
+        entry->interrupted = 0;
+    }
+    pthread_mutex_unlock(&lock);
+    return interrupted;
+}
+
+JNIEXPORT void JNICALL JVM_SetThreadPriority(JNIEnv* env, jobject thread, jint priority) {
+    // threads that didn't start yet get their priority from the Thread when they start
+    pthread_mutex_lock(&lock);
+    thread_entry* entry = find_entry(env, thread);
+    if (entry != NULL) {
+        apply_priority(entry->tid, priority);
+    }
+    pthread_mutex_unlock(&lock);
+}
+
+JNIEXPORT void JNICALL JVM_SetNativeThreadName(JNIEnv* env, jobject thread, jstring name) {
+    // like HotSpot, only the name of the calling thread can be changed
+    if (name == NULL || current == NULL || current->thread == NULL || !(*env)->IsSameObject(env, current->thread, thread)) {
+        return;
+    }
+    const char* utf = (*env)->GetStringUTFChars(env, name, NULL);
+    if (utf == NULL) {
+        return;
+    }
+    char nativeName[MAX_NATIVE_NAME + 1];
+    strncpy(nativeName, utf, MAX_NATIVE_NAME);
+    nativeName[MAX_NATIVE_NAME] = '\0';
+    (*env)->ReleaseStringUTFChars(env, name, utf);
+#ifdef __APPLE__
+    pthread_setname_np(nativeName);
+#else
+    pthread_setname_np(pthread_self(), nativeName);
+#endif
+}
+
+JNIEXPORT void JNICALL JVM_Yield(JNIEnv* env, jclass threadClass) {
+    sched_yield();
+}
+
+JNIEXPORT jboolean JNICALL JVM_HoldsLock(JNIEnv* env, jclass threadClass, jobject obj) {
+    if (obj == NULL) {
+        throw_new(env, "java/lang/NullPointerException", NULL);
+        return JNI_FALSE;
+    }
+    // JNI can't query the owner of a monitor, and probing it would wake up waiting threads:
+    // asserts on Thread.holdsLock() fail with this implementation
+    return JNI_FALSE;
+}
+
+JNIEXPORT jobjectArray JNICALL JVM_GetAllThreads(JNIEnv* env, jclass dummy) {
+    jclass threadClass = (*env)->FindClass(env, "java/lang/Thread");
+    if (threadClass == NULL) {
+        return NULL;
+    }
+    pthread_mutex_lock(&lock);
+    jsize count = 0;
+    for (thread_entry* entry = threads; entry != NULL; entry = entry->next) {
+        if (entry->thread != NULL) {
+            count++;
+        }
+    }
+    jobjectArray answer = (*env)->NewObjectArray(env, count, threadClass, NULL);
+    jsize i = 0;
+    for (thread_entry* entry = threads; answer != NULL && entry != NULL; entry = entry->next) {
+        if (entry->thread != NULL) {
+            (*env)->SetObjectArrayElement(env, answer, i++, entry->thread);
+        }
+    }
+    pthread_mutex_unlock(&lock);
+    return answer;
+}
+
+JNIEXPORT jobjectArray JNICALL JVM_DumpThreads(JNIEnv* env, jclass threadClass, jobjectArray threadArray) {
+    // stack traces of other threads are not available, every thread gets an empty one
+    jclass elementClass = (*env)->FindClass(env, "java/lang/StackTraceElement");
+    jclass traceClass = (*env)->FindClass(env, "[Ljava/lang/StackTraceElement;");
+    if (elementClass == NULL || traceClass == NULL) {
+        return NULL;
+    }
+    jsize count = threadArray == NULL ? 0 : (*env)->GetArrayLength(env, threadArray);
+    jobjectArray answer = (*env)->NewObjectArray(env, count, traceClass, NULL);
+    for (jsize i = 0; answer != NULL && i < count; i++) {
+        jobjectArray trace = (*env)->NewObjectArray(env, 0, elementClass, NULL);
+        if (trace == NULL) {
+            return NULL;
+        }
+        (*env)->SetObjectArrayElement(env, answer, i, trace);
+        (*env)->DeleteLocalRef(env, trace);
+    }
+    return answer;
+}
+
+// stop, suspend and resume are unsafe and not supported, as in recent JDKs
+
+JNIEXPORT void JNICALL JVM_StopThread(JNIEnv* env, jobject thread, jobject exception) {
+    throw_new(env, "java/lang/UnsupportedOperationException", "Thread.stop is not supported");
 }
 
-void JVM_SuspendThread() {
-fprintf(stderr, "THREADIMPLMISSING\n");
+JNIEXPORT void JNICALL JVM_SuspendThread(JNIEnv* env, jobject thread) {
+    throw_new(env, "java/lang/UnsupportedOperationException", "Thread.suspend is not supported");
 }
 
-void JVM_Yield() {
-fprintf(stderr, "THREADIMPLMISSING\n");
+JNIEXPORT void JNICALL JVM_ResumeThread(JNIEnv* env, jobject thread) {
+    throw_new(env, "java/lang/UnsupportedOperationException", "Thread.resume is not supported");
 }
 
-void JVM_interrupt() {
-fprintf(stderr, "THREADIMPLMISSING\n");
+JNIEXPORT jint JNICALL JVM_CountStackFrames(JNIEnv* env, jobject thread) {
+    // frames can only be counted for a suspended thread
+    throw_new(env, "java/lang/IllegalThreadStateException", "this thread is not suspended");
+    return 0;
 }
 
-void JVM_DumpThreads() {
-fprintf(stderr, "THREADIMPLMISSING\n");
+JNIEXPORT void JNICALL JVM_interrupt(JNIEnv* env, jobject thread) {
+    JVM_Interrupt(env, thread);
 }
 
-void Java_java_lang_Thread_resume0() {
-fprintf(stderr, "JAVATHREADIMPLMISSING\n");
+JNIEXPORT void JNICALL Java_java_lang_Thread_resume0(JNIEnv* env, jobject thread) {
+    JVM_ResumeThread(env, thread);
 }
 
-void Java_java_lang_Thread_stop0() {
-fprintf(stderr, "JAVATHREADIMPLMISSING\n");
+JNIEXPORT void JNICALL Java_java_lang_Thread_stop0(JNIEnv* env, jobject thread, jobject exception) {
+    JVM_StopThread(env, thread, exception);
 }
 
-void Java_java_lang_Thread_getThreads() {
-fprintf(stderr, "JAVATHREADIMPLMISSING\n");
+JNIEXPORT jobjectArray JNICALL Java_java_lang_Thread_getThreads(JNIEnv* env, jclass threadClass) {
+    return JVM_GetAllThreads(env, threadClass);
 }
 
-void Java_java_lang_Thread_countStackFrames() {
-fprintf(stderr, "JAVATHREADIMPLMISSING\n");
+JNIEXPORT jint JNICALL Java_java_lang_Thread_countStackFrames(JNIEnv* env, jobject thread) {
+    return JVM_CountStackFrames(env, thread);
 }
 
-void Java_java_lang_Thread_dumpThreads() {
-fprintf(stderr, "JAVATHREADIMPLMISSING\n");
+JNIEXPORT jobjectArray JNICALL Java_java_lang_Thread_dumpThreads(JNIEnv* env, jclass threadClass, jobjectArray threadArray) {
+    return JVM_DumpThreads(env, threadClass, threadArray);
 }
 
-void Java_java_lang_Thread_suspend0() {
-fprintf(stderr, "JAVATHREADIMPLMISSING\n");
+JNIEXPORT void JNICALL Java_java_lang_Thread_suspend0(JNIEnv* env, jobject thread) {
+    JVM_SuspendThread(env, thread);
 }
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2019, Gluon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL GLUON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gluonhq.substrate.daemon;
+
+import com.gluonhq.substrate.SubstrateDispatcher;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DaemonClientTest {
+
+    private static final Path DISPATCHER = Path.of("src/main/java/com/gluonhq/substrate/SubstrateDispatcher.java");
+    private static final Pattern PROPERTY = Pattern.compile(
+            "(?:properties\\.getProperty\\(|getList\\(properties, )\"([a-z]+)\"");
+
+    @Test
+    public void dispatcherReadsOnlyBuildProperties() throws IOException {
+        Set<String> read = new TreeSet<>();
+        Matcher matcher = PROPERTY.matcher(new String(Files.readAllBytes(DISPATCHER), StandardCharsets.UTF_8));
+        while (matcher.find()) {
+            read.add(matcher.group(1));
+        }
+        assertEquals(new TreeSet<>(SubstrateDispatcher.BUILD_PROPERTIES), read);
+    }
+
+    @Test
+    public void clientForwardsAllBuildProperties() {
+        Properties properties = new Properties();
+        for (String key : SubstrateDispatcher.BUILD_PROPERTIES) {
+            properties.setProperty(key, key + "-value");
+        }
+        properties.setProperty("java.home", "/not/forwarded");
+        Properties request = DaemonClient.createRequest(properties);
+        assertEquals(new TreeSet<>(SubstrateDispatcher.BUILD_PROPERTIES), request.stringPropertyNames());
+        assertEquals("lto-value", request.getProperty("lto"));
+    }
+
+    @Test
+    public void clientResolvesPaths() {
+        Properties properties = new Properties();
+        properties.setProperty("expected", "expected.txt");
+        Properties request = DaemonClient.createRequest(properties);
+        assertEquals(Path.of("expected.txt").toAbsolutePath().toString(), request.getProperty("expected"));
+        assertTrue(Path.of(request.getProperty("buildroot")).isAbsolute(), request.getProperty("buildroot"));
+    }
+}
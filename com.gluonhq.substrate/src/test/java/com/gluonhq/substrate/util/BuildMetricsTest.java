@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2019, Gluon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL GLUON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gluonhq.substrate.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BuildMetricsTest {
+
+    private Path dir;
+
+    @BeforeEach
+    public void createDir() throws IOException {
+        dir = Files.createTempDirectory("metrics-test");
+    }
+
+    @AfterEach
+    public void deleteDir() throws IOException {
+        try (Stream<Path> walk = Files.walk(dir)) {
+            for (Path path : walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Test
+    public void buildsOnOtherThreadsHaveTheirOwnMetrics() throws Exception {
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread a = new Thread(() -> build("a", failure));
+        Thread b = new Thread(() -> build("b", failure));
+        a.start();
+        b.start();
+        a.join();
+        b.join();
+        assertNull(failure.get());
+        String reportA = read("a");
+        String reportB = read("b");
+        assertTrue(reportA.contains("\"phase-a\"") && reportA.contains("\"tool-a\""), reportA);
+        assertFalse(reportA.contains("-b\""), reportA);
+        assertTrue(reportB.contains("\"phase-b\"") && reportB.contains("\"tool-b\""), reportB);
+        assertFalse(reportB.contains("-a\""), reportB);
+    }
+
+    // records a phase, and a tool on a thread that the build starts
+    private void build(String name, AtomicReference<Throwable> failure) {
+        try {
+            BuildMetrics.start();
+            BuildMetrics.time("phase-" + name, () -> {
+                Thread tool = new Thread(() -> BuildMetrics.recordProcess("tool-" + name, 1, 1, -1, 0));
+                tool.start();
+                tool.join();
+                return null;
+            });
+            Files.createDirectories(dir.resolve(name));
+            BuildMetrics.writeReport(dir.resolve(name));
+        } catch (Throwable t) {
+            failure.set(t);
+        }
+    }
+
+    private String read(String name) throws IOException {
+        return new String(Files.readAllBytes(dir.resolve(name).resolve(BuildMetrics.REPORT_FILE)), StandardCharsets.UTF_8);
+    }
+}
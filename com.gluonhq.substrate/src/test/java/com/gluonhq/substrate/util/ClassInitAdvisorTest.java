@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2019, Gluon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL GLUON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gluonhq.substrate.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ClassInitAdvisorTest {
+
+    private static final List<Class<?>> SAMPLES = List.of(ForEachLambda.class, ForEachPureLambda.class,
+            ComputeIfAbsent.class, StoredLambda.class, PureCollections.class, PureLambda.class, PrimitiveConcat.class, ObjectConcat.class,
+            Named.class);
+
+    private Path classes;
+
+    static class ForEachLambda {
+        static final List<String> L = List.of("a", "b");
+        static {
+            L.forEach(x -> System.out.println(x));
+        }
+    }
+
+    static class ForEachPureLambda {
+        static final List<String> L = List.of("a", "b");
+        static {
+            L.forEach(String::length);
+        }
+    }
+
+    static class ComputeIfAbsent {
+        static final Map<String, Integer> M = new HashMap<>();
+        static {
+            M.computeIfAbsent("a", k -> k.length());
+        }
+    }
+
+    static class StoredLambda {
+        static final Runnable R = () -> System.out.println("run");
+    }
+
+    static class PureCollections {
+        static final List<String> NAMES = new ArrayList<>(List.of("a", "bb"));
+        static final Map<String, Integer> SIZES = new HashMap<>();
+        static {
+            for (String name : NAMES) {
+                SIZES.put(name, name.length());
+            }
+        }
+    }
+
+    static class PureLambda {
+        static final Function<String, Integer> LENGTH = s -> s.length();
+    }
+
+    static class PrimitiveConcat {
+        static int version = 3;
+        static final String NAME = "v" + version;
+    }
+
+    static class ObjectConcat {
+        static final String NAME = "v" + new Named();
+    }
+
+    static class Named {
+        @Override
+        public String toString() {
+            System.out.println("toString");
+            return "named";
+        }
+    }
+
+    @BeforeEach
+    public void copySamples() throws IOException {
+        classes = Files.createTempDirectory("class-init-test");
+        for (Class<?> sample : SAMPLES) {
+            String file = sample.getName().replace('.', '/') + ".class";
+            Path target = classes.resolve(file);
+            Files.createDirectories(target.getParent());
+            try (InputStream is = sample.getResourceAsStream("/" + file)) {
+                Files.copy(is, target);
+            }
+        }
+    }
+
+    @AfterEach
+    public void deleteSamples() throws IOException {
+        try (Stream<Path> walk = Files.walk(classes)) {
+            for (Path path : walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Test
+    public void lambdaPassedToForEachIsRunTime() throws IOException {
+        ClassInitAdvisor.Advice advice = advise(ForEachLambda.class);
+        assertEquals(List.of(), advice.getBuildTime());
+        assertTrue(advice.getRunTime().containsKey(ForEachLambda.class.getName()), advice.toString());
+    }
+
+    @Test
+    public void forEachIsRunTimeWithPureLambda() throws IOException {
+        String reason = advise(ForEachPureLambda.class).getRunTime().get(ForEachPureLambda.class.getName());
+        assertTrue(reason != null && reason.contains("forEach"), "unexpected reason: " + reason);
+    }
+
+    @Test
+    public void callbackOfCollectionIsRunTime() throws IOException {
+        String reason = advise(ComputeIfAbsent.class).getRunTime().get(ComputeIfAbsent.class.getName());
+        assertTrue(reason != null && reason.contains("computeIfAbsent"), "unexpected reason: " + reason);
+    }
+
+    @Test
+    public void lambdaWithSideEffectIsRunTime() throws IOException {
+        String reason = advise(StoredLambda.class).getRunTime().get(StoredLambda.class.getName());
+        assertTrue(reason != null && reason.contains("System.out"), "unexpected reason: " + reason);
+    }
+
+    @Test
+    public void objectInStringConcatenationIsRunTime() throws IOException {
+        String reason = advise(ObjectConcat.class).getRunTime().get(ObjectConcat.class.getName());
+        assertTrue(reason != null && reason.contains("toString()"), "unexpected reason: " + reason);
+    }
+
+    @Test
+    public void pureInitializersAreBuildTime() throws IOException {
+        ClassInitAdvisor.Advice advice = advise(PureCollections.class, PureLambda.class, PrimitiveConcat.class);
+        assertEquals(List.of(PureCollections.class.getName(), PureLambda.class.getName(),
+                PrimitiveConcat.class.getName()), advice.getBuildTime(), advice.toString());
+    }
+
+    @Test
+    public void delayedClassesAreRunTime() throws IOException {
+        ClassInitAdvisor advisor = new ClassInitAdvisor(classes.toString());
+        ClassInitAdvisor.Advice advice = advisor.advise(List.of(internalName(PureLambda.class)),
+                List.of(PureLambda.class.getName()));
+        assertEquals("in delayInitList", advice.getRunTime().get(PureLambda.class.getName()));
+    }
+
+    private ClassInitAdvisor.Advice advise(Class<?>... initialized) throws IOException {
+        List<String> names = new ArrayList<>();
+        for (Class<?> c : initialized) {
+            names.add(internalName(c));
+        }
+        return new ClassInitAdvisor(classes.toString()).advise(names, List.of());
+    }
+
+    private static String internalName(Class<?> c) {
+        return c.getName().replace('.', '/');
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2019, Gluon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL GLUON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gluonhq.substrate.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ConfigGeneratorTest {
+
+    private Path classes;
+
+    // native code calls back onLocation, which Java code calls as well
+    static class PositionService {
+        public PositionService() {
+            onLocation(0, 0);
+        }
+
+        public void onLocation(double latitude, double longitude) {
+        }
+
+        private static void onError(String message) {
+        }
+    }
+
+    @BeforeEach
+    public void copySample() throws IOException {
+        classes = Files.createTempDirectory("config-test");
+        String file = PositionService.class.getName().replace('.', '/') + ".class";
+        Path target = classes.resolve(file);
+        Files.createDirectories(target.getParent());
+        try (InputStream is = PositionService.class.getResourceAsStream("/" + file)) {
+            Files.copy(is, target);
+        }
+    }
+
+    @AfterEach
+    public void deleteSample() throws IOException {
+        try (Stream<Path> walk = Files.walk(classes)) {
+            for (Path path : walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Test
+    public void serviceWithPublicCallbackRegistersAllMembers() throws IOException {
+        String json = ConfigGenerator.jniJson(classes.toString(), null, List.of(PositionService.class.getName()));
+        assertTrue(json.contains("\"name\": \"" + PositionService.class.getName() + "\""), json);
+        assertTrue(json.contains("\"allDeclaredConstructors\": true"), json);
+        assertTrue(json.contains("\"allDeclaredMethods\": true"), json);
+        assertTrue(json.contains("\"allDeclaredFields\": true"), json);
+    }
+
+    @Test
+    public void serviceInTheJniListKeepsItsMembers() throws IOException {
+        String service = PositionService.class.getName();
+        String json = ConfigGenerator.jniJson(classes.toString(), List.of(service + "#onLocation"), List.of(service));
+        assertFalse(json.contains("allDeclared"), json);
+        assertTrue(json.contains("{\"name\": \"onLocation\", \"parameterTypes\": [\"double\", \"double\"]}"), json);
+        assertFalse(json.contains("onError"), json);
+    }
+
+    @Test
+    public void parameterTypesComeFromTheDescriptor() {
+        assertEquals(List.of("int", "java.lang.String[]", "double[][]"),
+                ConfigGenerator.parameterTypes("(I[Ljava/lang/String;[[D)V"));
+    }
+}
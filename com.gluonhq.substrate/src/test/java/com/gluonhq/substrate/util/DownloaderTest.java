@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2019, Gluon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL GLUON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gluonhq.substrate.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DownloaderTest {
+
+    // large enough for two ranges of 10 MB
+    private static final int LENGTH = 20 * 1024 * 1024;
+    private static final long RANGE_SIZE = LENGTH / 2;
+
+    private Path dir;
+    private Path destination;
+    private byte[] content;
+    private HttpFileServer server;
+
+    @BeforeEach
+    public void startServer() throws IOException {
+        dir = Files.createTempDirectory("downloader-test");
+        destination = dir.resolve("file.zip");
+        content = random(1);
+        server = new HttpFileServer(content);
+    }
+
+    @AfterEach
+    public void stopServer() throws IOException {
+        server.close();
+        try (Stream<Path> walk = Files.walk(dir)) {
+            for (Path path : walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Test
+    public void downloadsRangesInOrder() throws IOException {
+        Downloader downloader = Downloader.probe(server.getUrl());
+        assertTrue(downloader.isAcceptsRanges());
+        assertArrayEquals(content, read(downloader));
+        assertArrayEquals(content, Files.readAllBytes(destination));
+        assertEquals(List.of(0L, RANGE_SIZE), server.getRangeStarts().stream().sorted().collect(Collectors.toList()));
+        assertFalse(Files.exists(part()));
+        assertFalse(Files.exists(state()));
+    }
+
+    @Test
+    public void resumesAnInterruptedDownload() throws IOException {
+        server.truncate = from -> from >= RANGE_SIZE;
+        assertThrows(IOException.class, () -> read(Downloader.probe(server.getUrl())));
+        assertTrue(Files.exists(state()));
+
+        server.reset();
+        assertArrayEquals(content, read(Downloader.probe(server.getUrl())));
+        assertTrue(server.getServed() < LENGTH, "served " + server.getServed() + " bytes");
+        assertTrue(server.getRangeStarts().stream().anyMatch(from -> from > RANGE_SIZE), server.getRangeStarts().toString());
+        assertArrayEquals(content, Files.readAllBytes(destination));
+    }
+
+    @Test
+    public void restartsWhenTheFileChanged() throws IOException {
+        server.truncate = from -> from >= RANGE_SIZE;
+        assertThrows(IOException.class, () -> read(Downloader.probe(server.getUrl())));
+
+        server.reset();
+        byte[] changed = random(2);
+        server.setContent(changed, "\"v2\"");
+        assertArrayEquals(changed, read(Downloader.probe(server.getUrl())));
+        assertEquals(List.of(0L, RANGE_SIZE), server.getRangeStarts().stream().sorted().collect(Collectors.toList()));
+        assertArrayEquals(changed, Files.readAllBytes(destination));
+    }
+
+    @Test
+    public void failsWhenTheFileChangesDuringTheDownload() throws IOException {
+        Downloader downloader = Downloader.probe(server.getUrl());
+        server.setContent(random(3), "\"v2\"");
+        IOException e = assertThrows(IOException.class, () -> read(downloader));
+        assertTrue(e.getMessage().contains("changed"), e.getMessage());
+        assertFalse(Files.exists(part()));
+        assertFalse(Files.exists(state()));
+        assertFalse(Files.exists(destination));
+    }
+
+    @Test
+    public void stopsTheOtherRangesWhenOneFails() throws IOException {
+        server.error = from -> from < RANGE_SIZE;
+        // the second range would take half a minute
+        server.slow = from -> from >= RANGE_SIZE;
+        long start = System.nanoTime();
+        assertThrows(IOException.class, () -> read(Downloader.probe(server.getUrl())));
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        assertTrue(millis < 10_000, "the download failed after " + millis + " ms");
+    }
+
+    private byte[] read(Downloader downloader) throws IOException {
+        try (InputStream is = downloader.download(destination)) {
+            return is.readAllBytes();
+        }
+    }
+
+    private Path part() {
+        return dir.resolve("file.zip.part");
+    }
+
+    private Path state() {
+        return dir.resolve("file.zip.part.state");
+    }
+
+    private static byte[] random(long seed) {
+        byte[] bytes = new byte[LENGTH];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2019, Gluon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL GLUON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gluonhq.substrate.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class FileDepsTest {
+
+    // random bytes don't compress, so the zip is large enough for two ranges of 8 MB
+    private static final int LARGE_LENGTH = 17 * 1024 * 1024;
+
+    private Path dir;
+    private Path zipPath;
+    private Path zipDir;
+    private Path manifestFile;
+    private Map<String, byte[]> entries;
+    private byte[] zip;
+    private HttpFileServer server;
+
+    @BeforeEach
+    public void startServer() throws IOException {
+        dir = Files.createTempDirectory("filedeps-test");
+        zipPath = dir.resolve("libs.zip");
+        zipDir = dir.resolve("libs");
+        manifestFile = zipDir.resolve("libs.manifest");
+        entries = new LinkedHashMap<>();
+        entries.put("libjava.a", "java".getBytes(StandardCharsets.UTF_8));
+        entries.put("libnet.a", "net".repeat(1000).getBytes(StandardCharsets.UTF_8));
+        byte[] large = new byte[LARGE_LENGTH];
+        new Random(1).nextBytes(large);
+        entries.put("libjvm.a", large);
+        zip = zip(entries);
+        server = new HttpFileServer(zip);
+    }
+
+    @AfterEach
+    public void stopServer() throws IOException {
+        server.close();
+        try (Stream<Path> walk = Files.walk(dir)) {
+            for (Path path : walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Test
+    public void keepsTheZip() throws Exception {
+        server.setRanges(false);
+        FileDeps.processZip(server.getUrl(), zipPath, zipDir, manifestFile, true);
+        assertArrayEquals(zip, Files.readAllBytes(zipPath));
+        assertFalse(Files.exists(dir.resolve("libs.zip.part")));
+        assertExtracted();
+    }
+
+    @Test
+    public void dropsTheZip() throws Exception {
+        server.setRanges(false);
+        FileDeps.processZip(server.getUrl(), zipPath, zipDir, manifestFile, false);
+        assertFalse(Files.exists(zipPath));
+        assertFalse(Files.exists(dir.resolve("libs.zip.part")));
+        assertExtracted();
+    }
+
+    @Test
+    public void keepsTheZipDownloadedInRanges() throws Exception {
+        FileDeps.processZip(server.getUrl(), zipPath, zipDir, manifestFile, true);
+        assertEquals(2, server.getRangeStarts().size(), server.getRangeStarts().toString());
+        assertArrayEquals(zip, Files.readAllBytes(zipPath));
+        assertExtracted();
+    }
+
+    @Test
+    public void dropsTheZipDownloadedInRanges() throws Exception {
+        FileDeps.processZip(server.getUrl(), zipPath, zipDir, manifestFile, false);
+        assertFalse(Files.exists(zipPath));
+        assertFalse(Files.exists(dir.resolve("libs.zip.part")));
+        assertFalse(Files.exists(dir.resolve("libs.zip.part.state")));
+        assertExtracted();
+    }
+
+    @Test
+    public void detectsAChangedFile() throws Exception {
+        FileDeps.processZip(server.getUrl(), zipPath, zipDir, manifestFile, false);
+        Path file = zipDir.resolve("libnet.a");
+        byte[] changed = Files.readAllBytes(file);
+        changed[0]++;
+        Files.write(file, changed);
+        DependencyManifest manifest = DependencyManifest.read(manifestFile);
+        assertNotNull(manifest);
+        assertFalse(manifest.verify(zipDir, new ArrayList<>(entries.keySet())));
+    }
+
+    private void assertExtracted() throws IOException, NoSuchAlgorithmException {
+        for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+            assertArrayEquals(entry.getValue(), Files.readAllBytes(zipDir.resolve(entry.getKey())), entry.getKey());
+        }
+        // the manifest has the checksums of the entries, not of the extracted files
+        List<String> lines = Files.readAllLines(manifestFile, StandardCharsets.UTF_8);
+        assertEquals(entries.size() + 1, lines.size(), lines.toString());
+        for (String line : lines.subList(1, lines.size())) {
+            String[] fields = line.split("\t");
+            assertEquals(md5(entries.get(fields[0])), fields[3], fields[0]);
+        }
+        DependencyManifest manifest = DependencyManifest.read(manifestFile);
+        assertNotNull(manifest);
+        assertTrue(manifest.verify(zipDir, new ArrayList<>(entries.keySet())));
+    }
+
+    private static byte[] zip(Map<String, byte[]> entries) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(bytes)) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                zos.putNextEntry(new ZipEntry(entry.getKey()));
+                zos.write(entry.getValue());
+                zos.closeEntry();
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static String md5(byte[] bytes) throws NoSuchAlgorithmException {
+        return FileOps.toHex(MessageDigest.getInstance("MD5").digest(bytes));
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2019, Gluon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL GLUON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gluonhq.substrate.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class HostResourcesTest {
+
+    private static final long GB = 1024L * 1024 * 1024;
+    private static final long PHYSICAL = 16 * GB;
+    private static final int PROCESSORS = 8;
+
+    private Path dir;
+    private Path root;
+    private Path procSelfCgroup;
+
+    @BeforeEach
+    public void createTree() throws IOException {
+        dir = Files.createTempDirectory("cgroup-test");
+        root = dir.resolve("sys/fs/cgroup");
+        Files.createDirectories(root);
+        procSelfCgroup = dir.resolve("proc/self/cgroup");
+    }
+
+    @AfterEach
+    public void deleteTree() throws IOException {
+        try (Stream<Path> walk = Files.walk(dir)) {
+            for (Path path : walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Test
+    public void hostWithoutCgroups() {
+        HostResources resources = detect();
+        assertEquals(PHYSICAL, resources.getMemoryBytes());
+        assertEquals(PROCESSORS, resources.getCpus());
+        assertEquals("host", resources.getSource());
+    }
+
+    @Test
+    public void cgroupV2Limits() throws IOException {
+        write("proc/self/cgroup", "0::/app\n");
+        write("sys/fs/cgroup/cgroup.controllers", "cpu memory\n");
+        write("sys/fs/cgroup/app/memory.max", "2147483648\n");
+        write("sys/fs/cgroup/app/cpu.max", "150000 100000\n");
+        HostResources resources = detect();
+        assertEquals(2 * GB, resources.getMemoryBytes());
+        assertEquals(2, resources.getCpus());
+        assertEquals("cgroup v2", resources.getSource());
+    }
+
+    @Test
+    public void cgroupV2LimitOfAParent() throws IOException {
+        write("proc/self/cgroup", "0::/kubepods/pod\n");
+        write("sys/fs/cgroup/cgroup.controllers", "cpu memory\n");
+        write("sys/fs/cgroup/kubepods/memory.max", "1073741824\n");
+        write("sys/fs/cgroup/kubepods/cpu.max", "400000 100000\n");
+        write("sys/fs/cgroup/kubepods/pod/memory.max", "max\n");
+        write("sys/fs/cgroup/kubepods/pod/cpu.max", "max 100000\n");
+        HostResources resources = detect();
+        assertEquals(GB, resources.getMemoryBytes());
+        assertEquals(4, resources.getCpus());
+        assertEquals("cgroup v2", resources.getSource());
+    }
+
+    @Test
+    public void cgroupV2WithoutLimits() throws IOException {
+        write("proc/self/cgroup", "0::/app\n");
+        write("sys/fs/cgroup/cgroup.controllers", "cpu memory\n");
+        write("sys/fs/cgroup/app/memory.max", "max\n");
+        write("sys/fs/cgroup/app/cpu.max", "max 100000\n");
+        HostResources resources = detect();
+        assertEquals(PHYSICAL, resources.getMemoryBytes());
+        assertEquals(PROCESSORS, resources.getCpus());
+        assertEquals("host", resources.getSource());
+    }
+
+    @Test
+    public void cgroupV1Limits() throws IOException {
+        write("proc/self/cgroup", "5:memory:/docker/abc\n4:cpu,cpuacct:/docker/abc\n");
+        write("sys/fs/cgroup/memory/docker/abc/memory.limit_in_bytes", "3221225472\n");
+        write("sys/fs/cgroup/cpu/docker/abc/cpu.cfs_quota_us", "250000\n");
+        write("sys/fs/cgroup/cpu/docker/abc/cpu.cfs_period_us", "100000\n");
+        HostResources resources = detect();
+        assertEquals(3 * GB, resources.getMemoryBytes());
+        assertEquals(3, resources.getCpus());
+        assertEquals("cgroup v1", resources.getSource());
+    }
+
+    @Test
+    public void cgroupV1WithoutLimits() throws IOException {
+        write("proc/self/cgroup", "5:memory:/\n4:cpu,cpuacct:/\n");
+        write("sys/fs/cgroup/memory/memory.limit_in_bytes", "9223372036854771712\n");
+        write("sys/fs/cgroup/cpu/cpu.cfs_quota_us", "-1\n");
+        write("sys/fs/cgroup/cpu/cpu.cfs_period_us", "100000\n");
+        HostResources resources = detect();
+        assertEquals(PHYSICAL, resources.getMemoryBytes());
+        assertEquals(PROCESSORS, resources.getCpus());
+        assertEquals("host", resources.getSource());
+    }
+
+    @Test
+    public void cgroupOutsideTheNamespaceUsesTheRoot() throws IOException {
+        // in a container the path in /proc/self/cgroup can point outside the mounted hierarchy
+        write("proc/self/cgroup", "0::/../../system.slice/docker-abc.scope\n");
+        write("sys/fs/cgroup/cgroup.controllers", "cpu memory\n");
+        write("sys/fs/cgroup/memory.max", "536870912\n");
+        HostResources resources = detect();
+        assertEquals(GB / 2, resources.getMemoryBytes());
+        assertEquals(PROCESSORS, resources.getCpus());
+    }
+
+    private HostResources detect() {
+        return HostResources.detect(root, procSelfCgroup, PHYSICAL, PROCESSORS);
+    }
+
+    private void write(String file, String content) throws IOException {
+        Path path = dir.resolve(file);
+        Files.createDirectories(path.getParent());
+        Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+    }
+}
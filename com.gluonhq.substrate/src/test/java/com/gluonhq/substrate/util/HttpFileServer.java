@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2019, Gluon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL GLUON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gluonhq.substrate.util;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongPredicate;
+
+/**
+ * A local HTTP server with one file, that answers HEAD and GET requests, with ranges and
+ * <code>If-Range</code> when they are enabled. Faults are injected per range, by its first byte.
+ */
+class HttpFileServer implements AutoCloseable {
+
+    static final String PATH = "/file.zip";
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final List<Long> rangeStarts = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicLong served = new AtomicLong();
+
+    private volatile byte[] content;
+    private volatile String etag;
+    private volatile boolean ranges = true;
+    // ranges that get a 500, that are cut off after 1 MB, and that are sent slowly
+    volatile LongPredicate error = from -> false;
+    volatile LongPredicate truncate = from -> false;
+    volatile LongPredicate slow = from -> false;
+
+    HttpFileServer(byte[] content) throws IOException {
+        setContent(content, "\"v1\"");
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext(PATH, this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    URL getUrl() throws IOException {
+        return new URL("http", "127.0.0.1", server.getAddress().getPort(), PATH);
+    }
+
+    void setContent(byte[] content, String etag) {
+        this.content = content;
+        this.etag = etag;
+    }
+
+    void setRanges(boolean ranges) {
+        this.ranges = ranges;
+    }
+
+    /**
+     * @return the first byte of every range that was requested
+     */
+    List<Long> getRangeStarts() {
+        synchronized (rangeStarts) {
+            return new ArrayList<>(rangeStarts);
+        }
+    }
+
+    /**
+     * @return the number of bytes of the file that were sent
+     */
+    long getServed() {
+        return served.get();
+    }
+
+    void reset() {
+        rangeStarts.clear();
+        served.set(0);
+        error = from -> false;
+        truncate = from -> false;
+        slow = from -> false;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            byte[] file = content;
+            if (ranges) {
+                exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+                exchange.getResponseHeaders().set("ETag", etag);
+            }
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Content-Length", String.valueOf(file.length));
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            String range = ranges ? exchange.getRequestHeaders().getFirst("Range") : null;
+            String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+            if (range == null || (ifRange != null && !ifRange.equals(etag))) {
+                exchange.sendResponseHeaders(200, file.length);
+                send(exchange.getResponseBody(), file, 0, file.length, false);
+                return;
+            }
+            String[] bounds = range.substring("bytes=".length()).split("-");
+            long from = Long.parseLong(bounds[0]);
+            long to = bounds.length > 1 ? Long.parseLong(bounds[1]) : file.length - 1;
+            rangeStarts.add(from);
+            if (error.test(from)) {
+                exchange.sendResponseHeaders(500, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + from + "-" + to + "/" + file.length);
+            exchange.sendResponseHeaders(206, to - from + 1);
+            long end = truncate.test(from) ? Math.min(to + 1, from + (1 << 20)) : to + 1;
+            send(exchange.getResponseBody(), file, (int) from, (int) end, slow.test(from));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void send(OutputStream os, byte[] file, int from, int to, boolean slowly) throws IOException {
+        for (int offset = from; offset < to; offset += 64 * 1024) {
+            int n = Math.min(64 * 1024, to - offset);
+            os.write(file, offset, n);
+            os.flush();
+            served.addAndGet(n);
+            if (slowly) {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2019, Gluon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL GLUON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gluonhq.entry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test application for the thread support of native images: the same CPU bound work is split over
+ * 1, 2, 4, ... threads up to the number of cores, and the speedup over a single thread is printed.
+ * It fails when the work doesn't run faster on all cores than on one, or when the main thread
+ * can't be found or interrupted.
+ *
+ * Build and run it with the dispatcher, e.g.
+ * <pre>
+ * java -Dimagecp=entry/build/classes/java/main -Dmainclass=com.gluonhq.entry.ParallelScaling \
+ *      -Dappname=scaling -Dgraalvm=/path/to/graalvm com.gluonhq.substrate.SubstrateDispatcher
+ * </pre>
+ */
+public class ParallelScaling {
+
+    private static final int CHUNKS = 64;
+    private static final int CHUNK_SIZE = 20_000;
+    // with all cores, the work must be at least this much faster than with one
+    private static final double MIN_SPEEDUP = 1.5;
+
+    public static void main(String[] args) throws InterruptedException {
+        if (!checkMainThread()) {
+            System.err.println("TEST FAILED: the main thread can't be found or interrupted");
+            System.exit(1);
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        // warm up, the first run also pays for class initialization
+        run(cores);
+        long single = run(1);
+        System.err.println("1 thread: " + single / 1_000_000 + " ms");
+        long all = single;
+        for (int threads = 2; threads < cores * 2; threads *= 2) {
+            int n = Math.min(threads, cores);
+            all = run(n);
+            System.err.println(n + " threads: " + all / 1_000_000 + " ms, speedup " +
+                    String.format("%.2f", (double) single / all));
+        }
+        if (cores > 1 && (double) single / all < MIN_SPEEDUP) {
+            System.err.println("TEST FAILED: " + cores + " threads are not faster than one");
+            System.exit(1);
+        }
+        System.err.println("TEST SUCCEEDED");
+    }
+
+    private static boolean checkMainThread() {
+        Thread main = Thread.currentThread();
+        if (main == null || !main.isAlive()) {
+            return false;
+        }
+        main.interrupt();
+        try {
+            Thread.sleep(1_000);
+            return false;
+        } catch (InterruptedException e) {
+            return Thread.currentThread() == main && !Thread.interrupted();
+        }
+    }
+
+    // counts the primes of the chunks, spread over the threads, and returns the time in nanoseconds
+    private static long run(int threads) throws InterruptedException {
+        long[] counts = new long[threads];
+        List<Thread> workers = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            int index = t;
+            Thread worker = new Thread(() -> {
+                for (int chunk = index; chunk < CHUNKS; chunk += threads) {
+                    counts[index] += countPrimes(chunk * CHUNK_SIZE, (chunk + 1) * CHUNK_SIZE);
+                }
+            }, "worker-" + t);
+            workers.add(worker);
+            worker.start();
+        }
+        long total = 0;
+        for (int t = 0; t < threads; t++) {
+            workers.get(t).join();
+            total += counts[t];
+        }
+        long time = System.nanoTime() - start;
+        if (total != countPrimes(0, CHUNKS * CHUNK_SIZE)) {
+            throw new IllegalStateException("Wrong number of primes with " + threads + " threads: " + total);
+        }
+        return time;
+    }
+
+    private static long countPrimes(int from, int to) {
+        long count = 0;
+        for (int n = Math.max(2, from); n < to; n++) {
+            boolean prime = true;
+            for (int d = 2; (long) d * d <= n; d++) {
+                if (n % d == 0) {
+                    prime = false;
+                    break;
+                }
+            }
+            if (prime) {
+                count++;
+            }
+        }
+        return count;
+    }
+}